@@ -0,0 +1,84 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+
+// An open-addressing hash map from long keys to int values, so that
+// lookups on the interpreter's hot path neither box nor allocate.
+// Values are never negative; get() returns -1 for a missing key.
+class LongIntMap {
+	static final int MISSING = -1;
+
+	long[] keys;
+	int[] values;
+	int size = 0;
+
+	public LongIntMap() {
+		this(64);
+	}
+
+	public LongIntMap(int expected) {
+		int cap = 16;
+		while (cap < expected * 2) cap <<= 1;
+		keys = new long[cap];
+		values = new int[cap];
+		Arrays.fill(values, MISSING);
+	}
+
+	private static int hash(long k) {
+		k *= 0x9e3779b97f4a7c15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			int v = values[i];
+			if (v == MISSING) return MISSING;
+			if (keys[i] == key) return v;
+		}
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != MISSING;
+	}
+
+	public void put(long key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("LongIntMap values must be non-negative");
+		}
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			if (values[i] == MISSING) {
+				keys[i] = key;
+				values[i] = value;
+				size++;
+				return;
+			}
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		Arrays.fill(values, MISSING);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != MISSING) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -6,5 +6,9 @@ public class PCodeArchSpec {
         // default to 4-bytes (32-bits)
 
 	boolean bigEndianP;
+
+	// bytes of register space the program's varnodes reach, 0 if not yet
+	// known; the register file is preallocated to this size
+	int registerFileSize = 0;
 	// what else? stack discipline? calling convention? register count?
 }
@@ -0,0 +1,312 @@
+package com.galois.symbolicSimulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes the Java source of a PCodeCompiledBlock for the micro-ops from a
+// given micro PC up to the end of its basic block.  It covers the same
+// ops on words of up to 8 bytes that PCodeDecoder gives nodes of their
+// own; the block stops short of the first op it can't compile, and the
+// interpreter takes over from there.
+//
+// Unique temporaries written within the block live in Java locals; one
+// that is read before the block writes it is fetched from the unique
+// space.  Registers and RAM are read and written in their spaces, which
+// are byte arrays underneath (see PCodeRegisterSpace and PagedMemory).
+class PCodeBlockGenerator {
+	static final int MAX_OPS = 200; // keeps the method small enough for HotSpot to compile
+
+	PCodeProgram program;
+	PCodeCodeSpace code;
+
+	// per block
+	List<String> spaceNames;
+	List<Varnode> locals; // unique temporaries of the current instruction; index is the local's number
+	int localCount;
+	StringBuilder body;
+	int ops; // micro-ops compiled
+	int instructions; // machine instructions started within them
+
+	PCodeBlockGenerator(PCodeProgram program) {
+		this.program = program;
+		code = program.codeSegment;
+	}
+
+	// The source of class pkg.name for the block at micro PC start, or
+	// null if its first op can't be compiled.
+	String generate(String pkg, String name, int start) {
+		spaceNames = new ArrayList<String>();
+		locals = new ArrayList<Varnode>();
+		localCount = 0;
+		body = new StringBuilder();
+		ops = 0;
+		instructions = 0;
+
+		int pc = start;
+		boolean ended = false;
+		while (!ended && pc < code.microOps.size() && ops < MAX_OPS) {
+			PCodeOp op = code.fetch(pc);
+			if (pc != start && op.blockStart) break;
+			if (op.uniq == 0) {
+				locals.clear(); // a new instruction, so new temporaries
+			}
+			String stmt = statement(op, pc);
+			if (stmt == null) break;
+			body.append("\t\t// 0x").append(Long.toHexString(op.offset)).append(" (").append(op.uniq).append("): ")
+				.append(op.opcode.name()).append('\n').append(stmt);
+			ops++;
+			if (op.uniq == 0) instructions++;
+			pc++;
+			ended = op.isBranch() || op.opcode == PCodeOp.PCodeOpCode.CALL
+				|| op.opcode == PCodeOp.PCodeOpCode.CALLIND || op.opcode == PCodeOp.PCodeOpCode.CBRANCH;
+		}
+		if (ops == 0) return null;
+		if (!ended || code.fetch(pc - 1).opcode == PCodeOp.PCodeOpCode.CBRANCH) {
+			fallThrough(pc);
+		}
+
+		StringBuilder src = new StringBuilder();
+		src.append("package ").append(pkg).append(";\n\n");
+		src.append("import com.galois.symbolicSimulator.*;\n\n");
+		src.append("// micro-ops ").append(start).append(" to ").append(start + ops - 1).append('\n');
+		src.append("public final class ").append(name).append(" extends PCodeCompiledBlock {\n");
+		src.append("\tstatic final String[] SPACES = {");
+		for (int i = 0; i < spaceNames.size(); i++) {
+			src.append(i > 0 ? ", " : "").append('"').append(spaceNames.get(i)).append('"');
+		}
+		src.append("};\n\n");
+		src.append("\tprotected String[] spaceNames() {\n\t\treturn SPACES;\n\t}\n\n");
+		src.append("\tpublic int run() throws Exception {\n");
+		for (int i = 0; i < spaceNames.size(); i++) {
+			String type = spaceType(spaceNames.get(i));
+			src.append("\t\tfinal ").append(type).append(" s").append(i).append(" = (").append(type)
+				.append(") spaces[").append(i).append("];\n");
+		}
+		for (int i = 0; i < localCount; i++) {
+			src.append("\t\tlong u").append(i).append(" = 0;\n");
+		}
+		src.append(body);
+		src.append("\t}\n}\n");
+		return src.toString();
+	}
+
+	private static String spaceType(String name) {
+		if (name.equals("register")) return "PCodeRegisterSpace";
+		if (name.equals("unique")) return "PCodeUniqueSpace";
+		return "PCodeSpace";
+	}
+
+	private String space(String name) {
+		int i = spaceNames.indexOf(name);
+		if (i < 0) {
+			i = spaceNames.size();
+			spaceNames.add(name);
+		}
+		return "s" + i;
+	}
+
+	private static String hex(long v) {
+		return "0x" + Long.toHexString(v) + "L";
+	}
+
+	private static boolean overlaps(Varnode a, Varnode b) {
+		return a.offset < b.offset + b.size && b.offset < a.offset + a.size;
+	}
+
+	// the local holding exactly v, -1 if there is none, -2 if a local
+	// overlaps it without matching
+	private int local(Varnode v) {
+		for (int i = locals.size() - 1; i >= 0; i--) {
+			Varnode l = locals.get(i);
+			if (l == null) continue;
+			if (l.offset == v.offset && l.size == v.size) return i;
+			if (overlaps(l, v)) return -2;
+		}
+		return -1;
+	}
+
+	// An expression for v's value, or null if it can't be compiled.
+	// strict reads go through load(), for the ops that mark their place first.
+	private String read(Varnode v, boolean strict) {
+		if (v == null || v.size > 8 || v.space_name == null) return null;
+		if (v.space_name.equals("const")) return hex(v.constValue());
+		if (v.space_name.equals("unique")) {
+			int l = local(v);
+			if (l >= 0) return "u" + l;
+			if (l == -2) return null;
+		}
+		String s = space(v.space_name);
+		if (strict) return "load(" + s + ", " + hex(v.offset) + ", " + v.size + ")";
+		return s + ".loadLong(" + hex(v.offset) + ", " + v.size + ")";
+	}
+
+	// A statement storing expr into v, or null.
+	private String write(Varnode v, String expr) {
+		if (v == null || v.size > 8 || v.space_name == null || v.space_name.equals("const")) return null;
+		if (v.space_name.equals("unique")) {
+			int l = local(v);
+			if (l == -2) return null;
+			if (l == -1) {
+				l = localCount++;
+				while (locals.size() < l) locals.add(null);
+				locals.add(v);
+			}
+			long mask = PCodeInterpreter.mask(v.size);
+			if (mask == -1L) return "\t\tu" + l + " = " + expr + ";\n";
+			return "\t\tu" + l + " = (" + expr + ") & " + hex(mask) + ";\n";
+		}
+		return "\t\t" + space(v.space_name) + ".storeLong(" + hex(v.offset) + ", " + v.size + ", " + expr + ");\n";
+	}
+
+	// Where the block carries on into the next op.  If that is in the
+	// middle of an instruction, the interpreter will want this
+	// instruction's temporaries in the unique space.
+	private void fallThrough(int next) {
+		body.append(flush(next, "\t\t"));
+		body.append("\t\treturn ").append(next).append(";\n");
+	}
+
+	// Statements putting the temporaries back in the unique space, if
+	// the block is leaving for the middle of an instruction at next
+	private String flush(int next, String indent) {
+		StringBuilder s = new StringBuilder();
+		if (next < code.microOps.size() && code.fetch(next).uniq != 0) {
+			for (int i = 0; i < locals.size(); i++) {
+				Varnode l = locals.get(i);
+				if (l == null) continue;
+				s.append(indent).append(space("unique")).append(".storeLong(").append(hex(l.offset))
+					.append(", ").append(l.size).append(", u").append(i).append(");\n");
+			}
+		}
+		return s.toString();
+	}
+
+	// A statement taking the branch; a relative one can land within this
+	// instruction, which then wants its temporaries the way fallThrough
+	// leaves them
+	private String jump(PCodeOp op, int pc) {
+		int target;
+		try {
+			target = code.branchTarget(op);
+		} catch (Exception e) {
+			// reported when (and if) the branch is taken
+			return "{ at(" + (pc + 1) + "); return target(" + hex(op.input0.offset) + "); }";
+		}
+		String flush = flush(target, "\t\t\t");
+		if (flush.length() == 0) return "return " + target + ";";
+		return "{\n" + flush + "\t\t\treturn " + target + ";\n\t\t}";
+	}
+
+	private String statement(PCodeOp op, int pc) {
+		String a, b;
+		switch (op.opcode) {
+			case BRANCH:
+			case CALL:
+				return "\t\t" + jump(op, pc) + "\n";
+			case CBRANCH:
+				a = read(op.input1, false);
+				if (a == null) return null;
+				return "\t\tif (" + a + " != 0L) " + jump(op, pc) + "\n";
+			case BRANCHIND:
+			case CALLIND:
+			case RETURN:
+				a = read(op.input0, false);
+				if (a == null) return null;
+				return "\t\tat(" + (pc + 1) + ");\n\t\treturn target(" + a + ");\n";
+			case LOAD:
+				a = read(op.input0, false);
+				if (a == null || op.output == null) return null;
+				b = write(op.output, "load(" + space("ram") + ", " + a + ", " + op.output.size + ")");
+				return b == null ? null : "\t\tat(" + (pc + 1) + ");\n" + b;
+			case STORE:
+				a = read(op.input0, false);
+				b = read(op.input1, true);
+				if (a == null || b == null) return null;
+				return "\t\tat(" + (pc + 1) + ");\n\t\t" + space("ram") + ".storeLong(" + a + ", " + op.input1.size + ", " + b + ");\n";
+			case COPY:
+				if (op.output == null || op.input0 == null || op.input0.size != op.output.size) return null;
+				a = read(op.input0, true);
+				b = a == null ? null : write(op.output, a);
+				if (b == null) return null;
+				// only a read from memory can fail
+				return a.startsWith("load(") ? "\t\tat(" + (pc + 1) + ");\n" + b : b;
+			default:
+				break;
+		}
+		a = read(op.input0, false);
+		if (a == null || op.output == null) return null;
+		int n = op.input0.size;
+		String e = unary(op.opcode, a, n);
+		if (e == null) {
+			b = read(op.input1, false);
+			if (b == null) return null;
+			int nb = op.input1.size;
+			switch (op.opcode) {
+				case INT_EQUAL: e = "(" + a + " == " + b + " ? 1L : 0L)"; break;
+				case INT_NOTEQUAL: e = "(" + a + " != " + b + " ? 1L : 0L)"; break;
+				case INT_LESS: e = "(UnsignedLong.compare(" + a + ", " + b + ") < 0 ? 1L : 0L)"; break;
+				case INT_LESSEQUAL: e = "(UnsignedLong.compare(" + a + ", " + b + ") <= 0 ? 1L : 0L)"; break;
+				case INT_SLESS: e = "(signExtend(" + a + ", " + n + ") < signExtend(" + b + ", " + nb + ") ? 1L : 0L)"; break;
+				case INT_SLESSEQUAL: e = "(signExtend(" + a + ", " + n + ") <= signExtend(" + b + ", " + nb + ") ? 1L : 0L)"; break;
+				case INT_ADD: e = "(" + a + " + " + b + ")"; break;
+				case INT_SUB: e = "(" + a + " - " + b + ")"; break;
+				case INT_XOR: e = "(" + a + " ^ " + b + ")"; break;
+				case INT_AND: e = "(" + a + " & " + b + ")"; break;
+				case INT_OR: e = "(" + a + " | " + b + ")"; break;
+				case INT_MULT: e = "(" + a + " * " + b + ")"; break;
+				case BOOL_XOR: e = "((" + a + " ^ " + b + ") & 1L)"; break;
+				case BOOL_AND: e = "(" + a + " & " + b + " & 1L)"; break;
+				case BOOL_OR: e = "((" + a + " | " + b + ") & 1L)"; break;
+				default:
+					// the rest need their operands more than once, or may throw
+					String x = "x" + pc, y = "y" + pc;
+					e = binary(op.opcode, x, y, n, nb);
+					if (e == null) return null;
+					String w = write(op.output, e);
+					if (w == null) return null;
+					return "\t\tat(" + (pc + 1) + ");\n\t\t{\n\t\t\tlong " + x + " = " + a + ";\n\t\t\tlong " + y + " = " + b + ";\n\t" + w + "\t\t}\n";
+			}
+		}
+		return write(op.output, e);
+	}
+
+	private static String unary(PCodeOp.PCodeOpCode opcode, String a, int n) {
+		switch (opcode) {
+			case INT_ZEXT: return a;
+			case INT_SEXT: return "signExtend(" + a + ", " + n + ")";
+			case INT_2COMP: return "(-" + a + ")";
+			case INT_NEGATE: return "(~" + a + ")";
+			case BOOL_NEGATE: return "(" + a + " == 0L ? 1L : 0L)";
+			default: return null;
+		}
+	}
+
+	private static String binary(PCodeOp.PCodeOpCode opcode, String x, String y, int n, int nb) {
+		String sx = "signExtend(" + x + ", " + n + ")";
+		String sy = "signExtend(" + y + ", " + n + ")";
+		switch (opcode) {
+			case INT_CARRY:
+				return "(UnsignedLong.compare((" + x + " + " + y + ") & " + hex(PCodeInterpreter.mask(n)) + ", " + x + ") < 0 ? 1L : 0L)";
+			case INT_SCARRY:
+				return "(((" + sx + " ^ signExtend(" + x + " + " + y + ", " + n + ")) & (" + sy + " ^ signExtend(" + x + " + " + y + ", " + n + "))) < 0 ? 1L : 0L)";
+			case INT_SBORROW:
+				return "(((" + sx + " ^ " + sy + ") & (" + sx + " ^ signExtend(" + x + " - " + y + ", " + n + "))) < 0 ? 1L : 0L)";
+			case INT_LEFT:
+				return "(UnsignedLong.compare(" + y + ", 64) >= 0 ? 0L : " + x + " << " + y + ")";
+			case INT_RIGHT:
+				return "(UnsignedLong.compare(" + y + ", 64) >= 0 ? 0L : " + x + " >>> " + y + ")";
+			case INT_SRIGHT:
+				return "(" + sx + " >> (UnsignedLong.compare(" + y + ", 64) >= 0 ? 63 : " + y + "))";
+			case INT_DIV:
+				return "UnsignedLong.divide(" + x + ", " + y + ")";
+			case INT_REM:
+				return "UnsignedLong.remainder(" + x + ", " + y + ")";
+			case INT_SDIV:
+				return "(" + sx + " / signExtend(" + y + ", " + nb + "))";
+			case INT_SREM:
+				return "(" + sx + " % signExtend(" + y + ", " + nb + "))";
+			default:
+				return null;
+		}
+	}
+}
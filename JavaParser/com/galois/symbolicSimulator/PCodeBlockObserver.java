@@ -0,0 +1,8 @@
+package com.galois.symbolicSimulator;
+
+// Told each time the interpreter enters a basic block (a micro PC whose op
+// starts one), whether it is interpreting or running compiled blocks.
+// Coverage and fuzzing hang off this.
+public interface PCodeBlockObserver {
+	void enterBlock(int microPC);
+}
@@ -0,0 +1,185 @@
+package com.galois.symbolicSimulator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+// Where the debugger stops.  Breakpoints are a bit per micro PC, so the
+// check after each step is a single BitSet probe; a breakpoint can carry a
+// condition, parsed once when it is set and only evaluated when the bit is.
+// Watchpoints hang off the spaces they watch (see PCodeWatchpoints) and
+// flag an access as it happens, so between them running until a stop
+// costs a bit test and a null test per op.
+//
+//   break 0x16 if register 0x38:8 == 0x2
+//   watch write ram 0x3ff8:8
+public class PCodeBreakpoints {
+	// space offset[:size] op value, compared unsigned
+	public static class Condition {
+		final String space;
+		final long offset;
+		final int size;
+		final String op;
+		final long value;
+
+		Condition(String space, long offset, int size, String op, long value) {
+			this.space = space;
+			this.offset = offset;
+			this.size = size;
+			this.op = op;
+			this.value = value;
+		}
+
+		// false if the bytes aren't there to compare
+		boolean holds(PCodeMachineState m) {
+			PCodeSpace s = m.getSpace(space);
+			if (s == null) return false;
+			// peeked, so as not to set off watchpoints, tell a memo or count
+			// uninitialized reads
+			long v = 0;
+			for (int i = 0; i < size; i++) {
+				int b = s.peekByte(offset + (s.arch.bigEndianP ? i : size - i - 1));
+				if (b < 0) return false;
+				v = (v << 8) | b;
+			}
+			int c = UnsignedLong.compare(v, value);
+			if (op.equals("==")) return c == 0;
+			if (op.equals("!=")) return c != 0;
+			if (op.equals("<")) return c < 0;
+			if (op.equals("<=")) return c <= 0;
+			if (op.equals(">")) return c > 0;
+			return c >= 0;
+		}
+
+		public String toString() {
+			return space + " 0x" + Long.toHexString(offset) + ":" + size + " " + op + " 0x" + Long.toHexString(value);
+		}
+	}
+
+	static final String[] OPS = { "==", "!=", "<=", ">=", "<", ">" };
+
+	BitSet pcs = new BitSet();
+	Map<Integer,Condition> conditions = new HashMap<Integer,Condition>();
+	List<PCodeWatchpoints> watched = new ArrayList<PCodeWatchpoints>();
+	String triggered; // the watchpoint that went off, null if none has
+
+	private static long parseHex(String s) {
+		if (s.startsWith("0x")) s = s.substring(2);
+		return UnsignedLong.parseHex(s);
+	}
+
+	// Parses "space offset[:size] op value" (hex numbers, 0x optional);
+	// the size defaults to the machine's word size
+	public static Condition parseCondition(String expr, PCodeArchSpec arch) throws Exception {
+		Scanner in = new Scanner(expr);
+		try {
+			String space = in.next();
+			String offset = in.next();
+			String op = in.next();
+			String value = in.next();
+			int size = arch.wordSize;
+			int colon = offset.indexOf(':');
+			if (colon > 0) {
+				size = Integer.parseInt(offset.substring(colon + 1));
+				offset = offset.substring(0, colon);
+			}
+			if (size < 1 || size > 8) {
+				throw new Exception("condition size " + size + " isn't 1 to 8 bytes");
+			}
+			for (String o : OPS) {
+				if (o.equals(op)) {
+					return new Condition(space, parseHex(offset), size, o, parseHex(value));
+				}
+			}
+			throw new Exception("unknown comparison " + op);
+		} catch (java.util.NoSuchElementException e) {
+			throw new Exception("usage: space offset[:size] op value");
+		} finally {
+			in.close();
+		}
+	}
+
+	// stop before running the op at pc, if c holds (or always, given null)
+	public void add(int pc, Condition c) {
+		pcs.set(pc);
+		if (c != null) {
+			conditions.put(pc, c);
+		} else {
+			conditions.remove(pc);
+		}
+	}
+
+	// stop after any op that reads and/or writes a byte of size at addr in s
+	public void watch(PCodeSpace s, long addr, int size, boolean read, boolean write) {
+		if (s.watch == null) {
+			s.watch = new PCodeWatchpoints(this, s);
+			watched.add(s.watch);
+		}
+		s.watch.add(addr, size, (read ? PCodeWatchpoints.READ : 0) | (write ? PCodeWatchpoints.WRITE : 0));
+	}
+
+	// remove every breakpoint and watchpoint
+	public void clear() {
+		pcs.clear();
+		conditions.clear();
+		for (PCodeWatchpoints w : watched) {
+			w.space.watch = null;
+		}
+		watched.clear();
+		triggered = null;
+	}
+
+	public boolean isEmpty() {
+		return pcs.isEmpty() && watched.isEmpty();
+	}
+
+	void triggered(PCodeWatchpoints w, int i, long addr, int size, int kind) {
+		if (triggered != null) return; // the first one is what stopped us
+		triggered = "watchpoint " + w.describe(i) + ": " + (kind == PCodeWatchpoints.READ ? "read" : "write")
+				+ " of " + size + " at 0x" + Long.toHexString(addr);
+	}
+
+	// forget any watchpoint that has gone off, before running on
+	public void resume() {
+		triggered = null;
+	}
+
+	// what went off, or null if no watchpoint has since resume()
+	public String reason() {
+		return triggered;
+	}
+
+	// at a breakpoint whose condition holds
+	public boolean at(PCodeMachineState m) {
+		int pc = m.microPC;
+		if (pc < 0 || !pcs.get(pc)) return false;
+		Condition c = conditions.get(pc);
+		return c == null || c.holds(m);
+	}
+
+	// after each step: has a watchpoint gone off, or are we at a breakpoint
+	public boolean shouldStop(PCodeMachineState m) {
+		return triggered != null || at(m);
+	}
+
+	// one line each, breakpoints by the macro address of their op
+	String toString(PCodeCodeSpace code) {
+		StringBuilder s = new StringBuilder();
+		for (int pc = pcs.nextSetBit(0); pc >= 0; pc = pcs.nextSetBit(pc + 1)) {
+			s.append("break 0x").append(Long.toHexString(code.fetch(pc).offset))
+				.append(" (micro 0x").append(Integer.toHexString(pc)).append(')');
+			Condition c = conditions.get(pc);
+			if (c != null) s.append(" if ").append(c);
+			s.append('\n');
+		}
+		for (PCodeWatchpoints w : watched) {
+			for (int i = 0; i < w.addrs.length; i++) {
+				s.append("watch ").append(w.describe(i)).append('\n');
+			}
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package com.galois.symbolicSimulator;
+
+// Where a function's arguments, result and return address go, so a call
+// can be set up without the caller knowing the register layout.  Offsets
+// are into Ghidra's register space for each processor.  The PCode dumps
+// don't name their processor, so one is picked by word size: 64-bit code
+// is taken to be x86-64 (System V), 32-bit code ARM (AAPCS).
+public class PCodeCallingConvention {
+	public static final PCodeCallingConvention X86_64 = new PCodeCallingConvention("x86-64", 8,
+			new long[] { 0x38, 0x30, 0x10, 0x8, 0x80, 0x88 }, // rdi, rsi, rdx, rcx, r8, r9
+			0x0,  // rax
+			0x20, // rsp
+			0x28, // rbp
+			-1);  // return address is pushed
+	public static final PCodeCallingConvention ARM = new PCodeCallingConvention("ARM", 4,
+			new long[] { 0x20, 0x24, 0x28, 0x2c }, // r0 - r3
+			0x20, // r0
+			0x54, // sp
+			-1,   // no frame pointer to speak of
+			0x58); // lr
+
+	final String name;
+	final int wordSize;
+	final long[] argRegs;
+	final long resultReg;
+	final long stackPointer;
+	final long framePointer; // -1 if none
+	final long linkRegister; // -1 if the return address goes on the stack
+
+	PCodeCallingConvention(String name, int wordSize, long[] argRegs, long resultReg,
+			long stackPointer, long framePointer, long linkRegister) {
+		this.name = name;
+		this.wordSize = wordSize;
+		this.argRegs = argRegs;
+		this.resultReg = resultReg;
+		this.stackPointer = stackPointer;
+		this.framePointer = framePointer;
+		this.linkRegister = linkRegister;
+	}
+
+	public static PCodeCallingConvention forArch(PCodeArchSpec a) {
+		return a.wordSize == 8 ? X86_64 : ARM;
+	}
+
+	// The register offset holding argument n, or -1 if it is passed on the stack
+	public long argRegister(int n) {
+		return n < argRegs.length ? argRegs[n] : -1;
+	}
+
+	// Sets s up as if just called: arguments in registers and then on the
+	// stack, the stack pointer below them at stackTop, and returnAddress
+	// where a return will find it.
+	public void setUpCall(PCodeMachineState s, long stackTop, long returnAddress, long[] args) {
+		PCodeSpace regs = s.getSpace("register");
+		PCodeSpace ram = s.getRAMspace();
+		long sp = stackTop;
+		int onStack = Math.max(0, args.length - argRegs.length);
+		sp -= onStack * wordSize;
+		for (int i = 0; i < args.length; i++) {
+			if (i < argRegs.length) {
+				regs.storeLong(argRegs[i], wordSize, args[i]);
+			} else {
+				ram.storeLong(sp + (i - argRegs.length) * wordSize, wordSize, args[i]);
+			}
+		}
+		if (linkRegister < 0) {
+			sp -= wordSize;
+			ram.storeLong(sp, wordSize, returnAddress);
+		} else {
+			regs.storeLong(linkRegister, wordSize, returnAddress);
+		}
+		regs.storeLong(stackPointer, wordSize, sp);
+		if (framePointer >= 0) {
+			regs.storeLong(framePointer, wordSize, stackTop);
+		}
+	}
+
+	public long result(PCodeMachineState s) {
+		return s.getSpace("register").loadLong(resultReg, wordSize);
+	}
+
+	// Argument n as the callee sees it on entry: in its register, or on the
+	// stack above the return address (if that was pushed)
+	public long arg(PCodeMachineState s, int n) {
+		if (n < argRegs.length) {
+			return s.getSpace("register").loadLong(argRegs[n], wordSize);
+		}
+		long sp = s.getSpace("register").loadLong(stackPointer, wordSize);
+		if (linkRegister < 0) sp += wordSize;
+		return s.getRAMspace().loadLong(sp + (n - argRegs.length) * wordSize, wordSize);
+	}
+
+	// Returns from a function on entry to it, as its return instruction
+	// would: sets the result, pops the return address if it was pushed,
+	// and gives back where to go.
+	public long returnFrom(PCodeMachineState s, long result) {
+		PCodeSpace regs = s.getSpace("register");
+		regs.storeLong(resultReg, wordSize, result);
+		if (linkRegister >= 0) {
+			return regs.loadLong(linkRegister, wordSize);
+		}
+		long sp = regs.loadLong(stackPointer, wordSize);
+		long ret = s.getRAMspace().loadLong(sp, wordSize);
+		regs.storeLong(stackPointer, wordSize, sp + wordSize);
+		return ret;
+	}
+
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,50 @@
+package com.galois.symbolicSimulator;
+
+// A run of micro-ops compiled into a class of its own by PCodeJit.  The
+// generated subclasses live in their own class loader, so everything they
+// use from here has to be public or protected.
+public abstract class PCodeCompiledBlock {
+	protected PCodeSpace[] spaces;
+	PCodeMachineState m;
+	int ops, instructions; // how much running the block counts for
+
+	protected PCodeCompiledBlock() {
+	}
+
+	// names of the spaces the block uses, indexes into spaces
+	protected abstract String[] spaceNames();
+
+	// Runs the block against the bound machine state and returns the micro
+	// PC to carry on from.
+	public abstract int run() throws Exception;
+
+	void bind(PCodeMachineState state) {
+		m = state;
+		String[] names = spaceNames();
+		spaces = new PCodeSpace[names.length];
+		for (int i = 0; i < names.length; i++) {
+			spaces[i] = state.getSpace(names[i]);
+		}
+	}
+
+	// where the micro PC stands if the op about to run throws
+	protected final void at(int microPC) {
+		m.microPC = microPC;
+	}
+
+	// the micro PC of an indirect branch target, or of a direct one that
+	// couldn't be resolved when the block was compiled
+	protected final int target(long macroOffset) throws Exception {
+		return m.program.codeSegment.microAddrOfMacroInstr(macroOffset);
+	}
+
+	protected static long signExtend(long v, int size) {
+		return PCodeInterpreter.signExtend(v, size);
+	}
+
+	// a read of memory for COPY, LOAD and STORE, which the block marks its
+	// place before, as they are the reads that most often find nothing
+	protected static long load(PCodeSpace space, long addr, int size) throws Exception {
+		return space.loadLong(addr, size);
+	}
+}
@@ -0,0 +1,217 @@
+package com.galois.symbolicSimulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+// A whole PCodeProgram compiled ahead of time into a jar of
+// PCodeCompiledBlocks, one for each straight run of ops the block
+// generator can handle, written next to the XML (foo.xml -> foo.xml.jar).
+// The manifest records the SHA-256 of the source, as PCodeProgramCache
+// does, and the number of micro-ops; a jar that doesn't match is stale.
+//
+// Blocks are found by micro PC, so the program has to be laid out the way
+// the parsers and the program cache lay it out, not loaded lazily.
+//
+//   PCodeCompiledProgram c = PCodeCompiledProgram.load(program, "foo.xml");
+//   c.run("_fib", state);
+public class PCodeCompiledProgram {
+	static final String PACKAGE = "com.galois.symbolicSimulator.aot";
+	static final String SUFFIX = ".jar";
+	static final Attributes.Name HASH = new Attributes.Name("PCode-Hash");
+	static final Attributes.Name OPS = new Attributes.Name("PCode-Ops");
+	static final Attributes.Name BLOCKS = new Attributes.Name("PCode-Blocks");
+
+	PCodeProgram program;
+	Class<?>[] blocks; // by micro PC; null where the interpreter takes over
+	PrintStream out = System.out;
+
+	PCodeCompiledProgram(PCodeProgram program) {
+		this.program = program;
+		blocks = new Class<?>[program.codeSegment.microOps.size()];
+	}
+
+	public static File jarFileFor(String source) {
+		return new File(source + SUFFIX);
+	}
+
+	// The compiled program for source, compiling it first if its jar is
+	// missing or stale.
+	public static PCodeCompiledProgram load(PCodeProgram p, String source) throws IOException {
+		File jar = jarFileFor(source);
+		byte[] hash = PCodeProgramCache.hashOf(new File(source));
+		PCodeCompiledProgram c = load(p, jar, hash);
+		if (c == null) {
+			compile(p, jar, hash);
+			c = load(p, jar, hash);
+		}
+		return c;
+	}
+
+	// null if jar is missing or was compiled from something else
+	public static PCodeCompiledProgram load(PCodeProgram p, File jar, byte[] expectedHash) throws IOException {
+		if (!jar.isFile()) return null;
+		checkLayout(p);
+		JarFile jf = new JarFile(jar);
+		Attributes attrs;
+		try {
+			Manifest mf = jf.getManifest();
+			if (mf == null) return null;
+			attrs = mf.getMainAttributes();
+		} finally {
+			jf.close();
+		}
+		if (!hex(expectedHash).equals(attrs.getValue(HASH))
+				|| !String.valueOf(p.codeSegment.microOps.size()).equals(attrs.getValue(OPS))) {
+			return null;
+		}
+		PCodeCompiledProgram c = new PCodeCompiledProgram(p);
+		ClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, PCodeCompiledBlock.class.getClassLoader());
+		String list = attrs.getValue(BLOCKS);
+		if (list != null && list.length() > 0) {
+			for (String pc : list.split(" ")) {
+				try {
+					c.blocks[Integer.parseInt(pc)] = loader.loadClass(PACKAGE + ".Block" + pc);
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Block " + pc + " missing from " + jar);
+				}
+			}
+		}
+		return c;
+	}
+
+	// Generates and compiles every block of p into jar.  Needs a JDK.
+	public static void compile(PCodeProgram p, File jar, byte[] sourceHash) throws IOException {
+		checkLayout(p);
+		PCodeBlockGenerator generator = new PCodeBlockGenerator(p);
+		Map<String,String> sources = new LinkedHashMap<String,String>();
+		StringBuilder list = new StringBuilder();
+		int ops = p.codeSegment.microOps.size();
+		for (int pc = 0; pc < ops; ) {
+			String src = generator.generate(PACKAGE, "Block" + pc, pc);
+			if (src == null) {
+				pc++; // the interpreter runs this one
+				continue;
+			}
+			sources.put(PACKAGE + ".Block" + pc, src);
+			list.append(list.length() > 0 ? " " : "").append(pc);
+			pc += generator.ops;
+		}
+
+		PCodeJavaCompiler compiler = new PCodeJavaCompiler();
+		if (!compiler.available()) {
+			throw new IOException("No Java compiler available (running on a JRE?)");
+		}
+		if (!sources.isEmpty() && !compiler.compile(sources)) {
+			throw new IOException("Unable to compile " + jar);
+		}
+
+		Manifest mf = new Manifest();
+		Attributes attrs = mf.getMainAttributes();
+		attrs.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attrs.put(HASH, hex(sourceHash));
+		attrs.put(OPS, String.valueOf(ops));
+		attrs.put(BLOCKS, list.toString());
+		// as with the program cache, write aside and rename into place
+		File tmp = new File(jar.getPath() + ".tmp");
+		JarOutputStream jout = new JarOutputStream(new FileOutputStream(tmp), mf);
+		try {
+			for (Map.Entry<String,byte[]> e : compiler.classes.entrySet()) {
+				jout.putNextEntry(new JarEntry(e.getKey().replace('.', '/') + ".class"));
+				jout.write(e.getValue());
+				jout.closeEntry();
+			}
+		} finally {
+			jout.close();
+		}
+		if (!tmp.renameTo(jar)) {
+			jar.delete();
+			if (!tmp.renameTo(jar)) {
+				tmp.delete();
+				throw new IOException("Unable to write " + jar);
+			}
+		}
+	}
+
+	private static void checkLayout(PCodeProgram p) {
+		if (p.lazy != null) {
+			throw new IllegalArgumentException("compiled programs need every function loaded up front, not lazily");
+		}
+	}
+
+	private static String hex(byte[] b) {
+		String s = new BigInteger(1, b).toString(16);
+		while (s.length() < 2 * b.length) s = "0" + s;
+		return s;
+	}
+
+	// Runs function from its entry point against state, whose registers and
+	// stack the caller has already set up, until it leaves the code space
+	// (by returning to an address with no code, say).  Compiled blocks run
+	// where there are any; the interpreter does the rest.
+	public void run(String function, PCodeMachineState state) throws Exception {
+		PCodeFunction f = program.lookupFunction(function);
+		if (f == null) {
+			throw new Exception("Unable to locate function " + function);
+		}
+		PCodeCompiledBlock[] bound = new PCodeCompiledBlock[blocks.length];
+		for (int pc = 0; pc < blocks.length; pc++) {
+			if (blocks[pc] != null) {
+				bound[pc] = (PCodeCompiledBlock) blocks[pc].newInstance();
+				bound[pc].bind(state);
+			}
+		}
+		PCodeInterpreter interp = new PCodeInterpreter(state, out);
+		interp.setTrace(false);
+		state.microPC = program.codeSegment.microAddrOfVarnode(f.macroEntryPoint);
+		try {
+			for (;;) {
+				int pc = state.microPC;
+				PCodeCompiledBlock b = pc >= 0 && pc < bound.length ? bound[pc] : null;
+				if (b != null && !interp.stubbed(pc)) {
+					try {
+						state.microPC = b.run();
+					} catch (PCodeExitException e) {
+						interp.leaveTo(e);
+					}
+				} else {
+					interp.step(state);
+				}
+			}
+		} catch (PCodeExitException e) {
+			// returned out of the program
+		}
+	}
+
+	// number of compiled blocks
+	public int size() {
+		int n = 0;
+		for (Class<?> c : blocks) {
+			if (c != null) n++;
+		}
+		return n;
+	}
+
+	// Compiles a program ahead of time: PCodeCompiledProgram pcodefile.xml
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: PCodeCompiledProgram pcodefile.xml");
+			return;
+		}
+		PCodeProgram p = PCodeParser.loadProgram(args[0], System.out);
+		File jar = jarFileFor(args[0]);
+		compile(p, jar, PCodeProgramCache.hashOf(new File(args[0])));
+		System.out.println("Wrote " + load(p, jar, PCodeProgramCache.hashOf(new File(args[0]))).size() + " blocks to " + jar);
+	}
+}
@@ -0,0 +1,308 @@
+package com.galois.symbolicSimulator;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Which basic blocks, and which transitions between them, runs have
+// exercised.  Attach one to an interpreter (or a runner) as its block
+// observer; on each block entry it bumps the block's counter and the
+// counter of the edge from the block before.  Counts live in primitive
+// arrays: block ids are looked up by micro PC, and edges go in an
+// open-addressing table keyed by (from, to), so the cost per block is a
+// couple of array accesses.
+//
+// Reports map counts back to macro addresses and to the LocationData of
+// each block in the PCode XML, as JSON or as an lcov tracefile (blocks
+// as lines, functions by their entry block, edges as branches).
+//
+// Coverage objects are not shared between threads; give each runner its
+// own and add() them together afterwards.
+public class PCodeCoverage implements PCodeBlockObserver {
+	PCodeProgram program;
+	int[] blockAt = new int[0]; // block id by micro PC, -1 where no block starts
+	List<PCodeBasicBlock> blocks = new ArrayList<PCodeBasicBlock>();
+	List<PCodeFunction> owners = new ArrayList<PCodeFunction>(); // by block id
+	Set<PCodeFunction> indexed = new HashSet<PCodeFunction>();
+	long[] hits = new long[0]; // by block id
+
+	long[] edgeKeys = new long[64]; // from << 32 | to, -1 if empty
+	long[] edgeHits = new long[64];
+	int edges = 0;
+
+	int prev = -1; // block id we came from, -1 at the start of a run
+
+	public PCodeCoverage(PCodeProgram program) {
+		this.program = program;
+		Arrays.fill(edgeKeys, -1);
+		index();
+	}
+
+	public void enterBlock(int pc) {
+		if (pc >= blockAt.length) {
+			index(); // functions have been loaded since
+			if (pc >= blockAt.length) return;
+		}
+		int b = blockAt[pc];
+		if (b < 0) return;
+		hits[b]++;
+		if (prev >= 0) {
+			edgeHits[edgeSlot(((long) prev << 32) | b)]++;
+		}
+		prev = b;
+	}
+
+	// The next block entered starts a new run, so no edge leads into it
+	public void newRun() {
+		prev = -1;
+	}
+
+	// give ids to the blocks of any functions we haven't seen
+	private void index() {
+		PCodeCodeSpace code = program.codeSegment;
+		int[] at = Arrays.copyOf(blockAt, code.microOps.size());
+		Arrays.fill(at, blockAt.length, at.length, -1);
+		for (PCodeFunction f : program.functions.values()) {
+			if (!indexed.add(f)) continue;
+			for (PCodeBasicBlock b : f.basicBlocks) {
+				int pc;
+				try {
+					pc = code.microAddrOfVarnode(b.blockBegin);
+				} catch (Exception e) {
+					continue;
+				}
+				if (pc < 0 || pc >= at.length) continue;
+				at[pc] = blocks.size();
+				blocks.add(b);
+				owners.add(f);
+			}
+		}
+		blockAt = at;
+		hits = Arrays.copyOf(hits, blocks.size());
+	}
+
+	private static int hash(long k) {
+		k *= 0x9e3779b97f4a7c15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	private int edgeSlot(long key) {
+		int mask = edgeKeys.length - 1;
+		for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+			if (edgeKeys[i] == key) return i;
+			if (edgeKeys[i] == -1) {
+				if ((edges + 1) * 2 > edgeKeys.length) {
+					growEdges();
+					return edgeSlot(key);
+				}
+				edgeKeys[i] = key;
+				edges++;
+				return i;
+			}
+		}
+	}
+
+	private void growEdges() {
+		long[] oldKeys = edgeKeys;
+		long[] oldHits = edgeHits;
+		edgeKeys = new long[oldKeys.length * 2];
+		edgeHits = new long[oldKeys.length * 2];
+		Arrays.fill(edgeKeys, -1);
+		edges = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != -1) {
+				edgeHits[edgeSlot(oldKeys[i])] = oldHits[i];
+			}
+		}
+	}
+
+	// the count for the block starting at macro address addr, 0 if none
+	public long blockHits(long addr) {
+		for (int b = 0; b < blocks.size(); b++) {
+			if (blocks.get(b).blockBegin.offset == addr) return hits[b];
+		}
+		return 0;
+	}
+
+	// the count for the edge between the blocks starting at from and to
+	public long edgeHits(long from, long to) {
+		for (int i = 0; i < edgeKeys.length; i++) {
+			long k = edgeKeys[i];
+			if (k != -1 && start((int) (k >>> 32)) == from && start((int) k) == to) {
+				return edgeHits[i];
+			}
+		}
+		return 0;
+	}
+
+	// Adds other's counts (for the same program) to ours
+	public void add(PCodeCoverage other) {
+		index();
+		for (int b = 0; b < other.blocks.size(); b++) {
+			int mine = blockAt[micro(other.blocks.get(b))];
+			hits[mine] += other.hits[b];
+		}
+		for (int i = 0; i < other.edgeKeys.length; i++) {
+			long k = other.edgeKeys[i];
+			if (k == -1) continue;
+			int from = blockAt[micro(other.blocks.get((int) (k >>> 32)))];
+			int to = blockAt[micro(other.blocks.get((int) k))];
+			edgeHits[edgeSlot(((long) from << 32) | to)] += other.edgeHits[i];
+		}
+	}
+
+	private int micro(PCodeBasicBlock b) {
+		try {
+			return program.codeSegment.microAddrOfVarnode(b.blockBegin);
+		} catch (Exception e) {
+			throw new IllegalStateException("block at 0x" + Long.toHexString(b.blockBegin.offset) + " went missing");
+		}
+	}
+
+	private long start(int b) {
+		return blocks.get(b).blockBegin.offset;
+	}
+
+	// block ids in address order, for reports
+	private Integer[] sortedBlocks() {
+		Integer[] ids = new Integer[blocks.size()];
+		for (int b = 0; b < ids.length; b++) ids[b] = b;
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return UnsignedLong.compare(start(a), start(b));
+			}
+		});
+		return ids;
+	}
+
+	// edge slots in (from, to) address order
+	private Integer[] sortedEdges() {
+		List<Integer> slots = new ArrayList<Integer>();
+		for (int i = 0; i < edgeKeys.length; i++) {
+			if (edgeKeys[i] != -1) slots.add(i);
+		}
+		Integer[] ids = slots.toArray(new Integer[slots.size()]);
+		Arrays.sort(ids, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = UnsignedLong.compare(start((int) (edgeKeys[a] >>> 32)), start((int) (edgeKeys[b] >>> 32)));
+				return c != 0 ? c : UnsignedLong.compare(start((int) edgeKeys[a]), start((int) edgeKeys[b]));
+			}
+		});
+		return ids;
+	}
+
+	private static String hex(long v) {
+		return "\"0x" + Long.toHexString(v) + "\"";
+	}
+
+	private static String quote(String s) {
+		StringBuilder q = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				q.append('\\').append(c);
+			} else if (c < 0x20) {
+				q.append(String.format("\\u%04x", (int) c));
+			} else {
+				q.append(c);
+			}
+		}
+		return q.append('"').toString();
+	}
+
+	public String toJson() {
+		StringBuilder s = new StringBuilder("{\n  \"blocks\": [");
+		String sep = "\n";
+		for (int b : sortedBlocks()) {
+			PCodeBasicBlock block = blocks.get(b);
+			s.append(sep).append("    {\"function\": ").append(quote(owners.get(b).name))
+				.append(", \"start\": ").append(hex(block.blockBegin.offset))
+				.append(", \"end\": ").append(hex(block.blockEnd.offset));
+			if (block.loc != null) {
+				s.append(", \"file\": ").append(quote(String.valueOf(block.loc.getSystemId())))
+					.append(", \"line\": ").append(block.loc.getStartLine());
+			}
+			s.append(", \"hits\": ").append(hits[b]).append("}");
+			sep = ",\n";
+		}
+		s.append("\n  ],\n  \"edges\": [");
+		sep = "\n";
+		for (int i : sortedEdges()) {
+			s.append(sep).append("    {\"from\": ").append(hex(start((int) (edgeKeys[i] >>> 32))))
+				.append(", \"to\": ").append(hex(start((int) edgeKeys[i])))
+				.append(", \"hits\": ").append(edgeHits[i]).append("}");
+			sep = ",\n";
+		}
+		return s.append("\n  ]\n}\n").toString();
+	}
+
+	// lcov tracefile: one record per XML file, blocks as lines (by the line
+	// their <basicblock> starts on), edges out of a block as its branches
+	public String toLcov() {
+		Map<String,List<Integer>> byFile = new LinkedHashMap<String,List<Integer>>();
+		for (int b : sortedBlocks()) {
+			LocationData loc = blocks.get(b).loc;
+			String file = loc == null ? null : loc.getSystemId();
+			if (file == null) continue; // nothing to map it to
+			List<Integer> ids = byFile.get(file);
+			if (ids == null) {
+				ids = new ArrayList<Integer>();
+				byFile.put(file, ids);
+			}
+			ids.add(b);
+		}
+		Integer[] edgeOrder = sortedEdges();
+		StringBuilder s = new StringBuilder();
+		for (Map.Entry<String,List<Integer>> e : byFile.entrySet()) {
+			s.append("TN:\nSF:").append(e.getKey()).append('\n');
+			int fns = 0, fnsHit = 0, lines = 0, linesHit = 0, branches = 0, branchesHit = 0;
+			for (int b : e.getValue()) {
+				PCodeFunction f = owners.get(b);
+				if (f.basicBlocks.get(0) == blocks.get(b)) {
+					int line = f.loc != null ? f.loc.getStartLine() : blocks.get(b).loc.getStartLine();
+					s.append("FN:").append(line).append(',').append(f.name).append('\n');
+					s.append("FNDA:").append(hits[b]).append(',').append(f.name).append('\n');
+					fns++;
+					if (hits[b] > 0) fnsHit++;
+				}
+			}
+			for (int b : e.getValue()) {
+				int line = blocks.get(b).loc.getStartLine();
+				int branch = 0;
+				for (int i : edgeOrder) {
+					if ((int) (edgeKeys[i] >>> 32) != b) continue;
+					s.append("BRDA:").append(line).append(',').append(b).append(',').append(branch++)
+						.append(',').append(edgeHits[i]).append('\n');
+					branches++;
+					if (edgeHits[i] > 0) branchesHit++;
+				}
+				s.append("DA:").append(line).append(',').append(hits[b]).append('\n');
+				lines++;
+				if (hits[b] > 0) linesHit++;
+			}
+			s.append("FNF:").append(fns).append("\nFNH:").append(fnsHit).append('\n');
+			s.append("BRF:").append(branches).append("\nBRH:").append(branchesHit).append('\n');
+			s.append("LF:").append(lines).append("\nLH:").append(linesHit).append('\n');
+			s.append("end_of_record\n");
+		}
+		return s.toString();
+	}
+
+	// writes toLcov() to a .info file, toJson() to anything else
+	public void write(File f) throws IOException {
+		FileWriter w = new FileWriter(f);
+		try {
+			w.write(f.getName().endsWith(".info") ? toLcov() : toJson());
+		} finally {
+			w.close();
+		}
+	}
+}
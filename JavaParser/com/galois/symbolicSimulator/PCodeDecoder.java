@@ -0,0 +1,458 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+
+// Decodes the code segment's micro-ops into PCodeNodes for one machine
+// state, the first time each one is run.  The integer, boolean, copy,
+// load/store and branch ops on varnodes of up to 8 bytes get nodes of
+// their own, following PCodeInterpreter.doLongOp; everything else gets a
+// node that hands the op back to PCodeInterpreter.doOp.
+//
+// Decoding on first use rather than up front keeps lazily loaded programs
+// lazy: only functions that actually run get their targets resolved.
+//
+// The same goes for the optimized stream, decoded from what a
+// PCodeOptimizer makes of the code into nodes of its own.
+public class PCodeDecoder {
+	PCodeInterpreter interp;
+	PCodeMachineState m;
+	PCodeCodeSpace code;
+	PCodeNode[] nodes = new PCodeNode[0];
+	PCodeOptimizer optimizer; // null unless running the optimized stream
+	PCodeNode[] optimizedNodes = new PCodeNode[0];
+
+	public PCodeDecoder(PCodeInterpreter interp, PCodeMachineState m) {
+		this.interp = interp;
+		this.m = m;
+		code = m.program.codeSegment;
+	}
+
+	PCodeNode node(int pc) throws Exception {
+		if (pc >= 0 && pc < nodes.length) {
+			PCodeNode n = nodes[pc];
+			if (n != null) return n;
+		}
+		PCodeOp op = code.fetch(pc);
+		if (pc >= nodes.length) {
+			// lazy loading may have added ops since we last grew
+			nodes = Arrays.copyOf(nodes, Math.max(pc + 1, code.microOps.size()));
+		}
+		PCodeNode n = decode(op);
+		nodes[pc] = n;
+		return n;
+	}
+
+	// Run the ops as o leaves them, or as parsed if o is null
+	void setOptimizer(PCodeOptimizer o) {
+		optimizer = o;
+		optimizedNodes = new PCodeNode[0];
+	}
+
+	// The node for pc in the optimized stream: the op the optimizer left
+	// there, or the one parsed if it left nothing, which only a jump gets
+	// to.  Running it steps over the ops after it that were optimized away.
+	PCodeNode optimizedNode(int pc) throws Exception {
+		if (pc >= 0 && pc < optimizedNodes.length) {
+			PCodeNode n = optimizedNodes[pc];
+			if (n != null) return n;
+		}
+		PCodeOp op = code.fetch(pc);
+		if (pc >= optimizedNodes.length) {
+			optimizedNodes = Arrays.copyOf(optimizedNodes, Math.max(pc + 1, code.microOps.size()));
+		}
+		PCodeOp o = optimizer.fetch(pc);
+		PCodeNode n = decode(o != null ? o : op);
+		int next = optimizer.next(pc);
+		n.skip = next - pc - 1;
+		for (int k = pc + 1; k < next; k++) {
+			if (code.fetch(k).uniq == 0) n.skippedInstructions++;
+		}
+		optimizedNodes[pc] = n;
+		return n;
+	}
+
+	// the machine state's copy of v's space
+	private PCodeSpace space(Varnode v) {
+		return v == null ? null : m.getSpace(v.space_name);
+	}
+
+	// v as an operand, or null if it isn't a word we can hold in a long
+	private PCodeNode.Operand operand(Varnode v) {
+		PCodeSpace s = space(v);
+		if (s == null || v.size > 8) return null;
+		if (s.constSpace) return new PCodeNode.Const(v);
+		return new PCodeNode.Storage(s, v);
+	}
+
+	// op's output as somewhere to store, or null if it isn't a word we can
+	// hold in a long; an output in constant space is a broken dump
+	private PCodeNode.Storage destination(PCodeOp op) throws Exception {
+		Varnode v = op.output;
+		PCodeSpace s = space(v);
+		if (s != null && s.constSpace) {
+			throw new Exception(op.opcode + " at 0x" + Long.toHexString(op.offset) + " (" + op.uniq
+					+ ") stores into constant space: " + op.toString().trim());
+		}
+		if (s == null || v.size > 8) return null;
+		return new PCodeNode.Storage(s, v);
+	}
+
+	// the micro PC of a direct branch target, or -1 if it isn't there
+	// (yet); those branches look it up again when they are taken, which
+	// is when a bad target gets reported
+	private int target(PCodeOp op) {
+		try {
+			return code.branchTarget(op);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	PCodeNode decode(PCodeOp op) throws Exception {
+		PCodeNode n = null;
+		switch (op.opcode) {
+			case BRANCH:
+			case CALL:
+				n = new Jump(op, target(op));
+				break;
+			case CBRANCH: {
+				PCodeNode.Operand cond = operand(op.input1);
+				if (cond != null) n = new CondJump(op, target(op), cond);
+				break;
+			}
+			case BRANCHIND:
+			case CALLIND:
+			case RETURN: {
+				PCodeNode.Operand dest = operand(op.input0);
+				if (dest != null) n = new IndirectJump(op, dest);
+				break;
+			}
+			case LOAD: {
+				PCodeNode.Operand ptr = operand(op.input0);
+				PCodeNode.Storage out = destination(op);
+				if (ptr != null && out != null) n = new Load(op, out, ptr, m.getRAMspace(), op.output.size);
+				break;
+			}
+			case STORE: {
+				PCodeNode.Operand ptr = operand(op.input0);
+				PCodeNode.Operand val = operand(op.input1);
+				if (ptr != null && val != null) n = new Store(op, ptr, val, m.getRAMspace(), op.input1.size);
+				break;
+			}
+			case COPY: {
+				PCodeNode.Operand in = operand(op.input0);
+				PCodeNode.Storage out = destination(op);
+				if (in != null && out != null && op.input0.size == op.output.size) n = new Unary(op, out, in) {
+					long eval(long a) {
+						return a;
+					}
+				};
+				break;
+			}
+			default:
+				n = arithmetic(op);
+		}
+		return n != null ? n : new Interpreted(op);
+	}
+
+	// the ops doLongOp handles
+	private PCodeNode arithmetic(PCodeOp op) throws Exception {
+		PCodeNode.Storage out = destination(op);
+		PCodeNode.Operand a = operand(op.input0);
+		if (out == null || a == null) return null;
+		final int n = op.input0.size;
+		switch (op.opcode) {
+			case INT_ZEXT:
+				return new Unary(op, out, a) {
+					long eval(long x) { return x; }
+				};
+			case INT_SEXT:
+				return new Unary(op, out, a) {
+					long eval(long x) { return PCodeInterpreter.signExtend(x, n); }
+				};
+			case INT_2COMP:
+				return new Unary(op, out, a) {
+					long eval(long x) { return -x; }
+				};
+			case INT_NEGATE:
+				return new Unary(op, out, a) {
+					long eval(long x) { return ~x; }
+				};
+			case BOOL_NEGATE:
+				return new Unary(op, out, a) {
+					long eval(long x) { return x == 0 ? 1 : 0; }
+				};
+			default:
+				break;
+		}
+		PCodeNode.Operand b = operand(op.input1);
+		if (b == null) return null;
+		final int nb = op.input1.size;
+		switch (op.opcode) {
+			case INT_EQUAL:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x == y ? 1 : 0; }
+				};
+			case INT_NOTEQUAL:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x != y ? 1 : 0; }
+				};
+			case INT_LESS:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.compare(x, y) < 0 ? 1 : 0; }
+				};
+			case INT_LESSEQUAL:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.compare(x, y) <= 0 ? 1 : 0; }
+				};
+			case INT_SLESS:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						return PCodeInterpreter.signExtend(x, n) < PCodeInterpreter.signExtend(y, nb) ? 1 : 0;
+					}
+				};
+			case INT_SLESSEQUAL:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						return PCodeInterpreter.signExtend(x, n) <= PCodeInterpreter.signExtend(y, nb) ? 1 : 0;
+					}
+				};
+			case INT_ADD:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x + y; }
+				};
+			case INT_SUB:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x - y; }
+				};
+			case INT_CARRY:
+				return new Binary(op, out, a, b) {
+					final long mask = PCodeInterpreter.mask(n);
+					long eval(long x, long y) { return UnsignedLong.compare((x + y) & mask, x) < 0 ? 1 : 0; }
+				};
+			case INT_SCARRY:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						x = PCodeInterpreter.signExtend(x, n);
+						y = PCodeInterpreter.signExtend(y, n);
+						long r = PCodeInterpreter.signExtend(x + y, n);
+						return ((x ^ r) & (y ^ r)) < 0 ? 1 : 0;
+					}
+				};
+			case INT_SBORROW:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						x = PCodeInterpreter.signExtend(x, n);
+						y = PCodeInterpreter.signExtend(y, n);
+						long r = PCodeInterpreter.signExtend(x - y, n);
+						return ((x ^ y) & (x ^ r)) < 0 ? 1 : 0;
+					}
+				};
+			case INT_XOR:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x ^ y; }
+				};
+			case INT_AND:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x & y; }
+				};
+			case INT_OR:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x | y; }
+				};
+			case INT_LEFT:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.compare(y, 64) >= 0 ? 0 : x << y; }
+				};
+			case INT_RIGHT:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.compare(y, 64) >= 0 ? 0 : x >>> y; }
+				};
+			case INT_SRIGHT:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						return PCodeInterpreter.signExtend(x, n) >> (UnsignedLong.compare(y, 64) >= 0 ? 63 : y);
+					}
+				};
+			case INT_MULT:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x * y; }
+				};
+			case INT_DIV:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.divide(x, y); }
+				};
+			case INT_REM:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return UnsignedLong.remainder(x, y); }
+				};
+			case INT_SDIV:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						return PCodeInterpreter.signExtend(x, n) / PCodeInterpreter.signExtend(y, nb);
+					}
+				};
+			case INT_SREM:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) {
+						return PCodeInterpreter.signExtend(x, n) % PCodeInterpreter.signExtend(y, nb);
+					}
+				};
+			case BOOL_XOR:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return (x ^ y) & 1; }
+				};
+			case BOOL_AND:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return x & y & 1; }
+				};
+			case BOOL_OR:
+				return new Binary(op, out, a, b) {
+					long eval(long x, long y) { return (x | y) & 1; }
+				};
+			default:
+				return null;
+		}
+	}
+
+	static abstract class Unary extends PCodeNode {
+		final PCodeNode.Storage out;
+		final PCodeNode.Operand a;
+
+		Unary(PCodeOp op, PCodeNode.Storage out, PCodeNode.Operand a) {
+			super(op);
+			this.out = out;
+			this.a = a;
+		}
+
+		abstract long eval(long a);
+
+		int exec(int next) throws Exception {
+			out.set(eval(a.get()));
+			return next;
+		}
+	}
+
+	static abstract class Binary extends PCodeNode {
+		final PCodeNode.Storage out;
+		final PCodeNode.Operand a, b;
+
+		Binary(PCodeOp op, PCodeNode.Storage out, PCodeNode.Operand a, PCodeNode.Operand b) {
+			super(op);
+			this.out = out;
+			this.a = a;
+			this.b = b;
+		}
+
+		abstract long eval(long a, long b);
+
+		int exec(int next) throws Exception {
+			out.set(eval(a.get(), b.get()));
+			return next;
+		}
+	}
+
+	final class Jump extends PCodeNode {
+		int target;
+
+		Jump(PCodeOp op, int target) {
+			super(op);
+			this.target = target;
+		}
+
+		int exec(int next) throws Exception {
+			if (target < 0) {
+				target = code.branchTarget(op);
+			}
+			return target;
+		}
+	}
+
+	final class CondJump extends PCodeNode {
+		int target;
+		final PCodeNode.Operand cond;
+
+		CondJump(PCodeOp op, int target, PCodeNode.Operand cond) {
+			super(op);
+			this.target = target;
+			this.cond = cond;
+		}
+
+		int exec(int next) throws Exception {
+			if (cond.get() == 0) return next;
+			if (target < 0) {
+				target = code.branchTarget(op);
+			}
+			return target;
+		}
+	}
+
+	final class IndirectJump extends PCodeNode {
+		final PCodeNode.Operand dest;
+
+		IndirectJump(PCodeOp op, PCodeNode.Operand dest) {
+			super(op);
+			this.dest = dest;
+		}
+
+		int exec(int next) throws Exception {
+			return code.microAddrOfMacroInstr(dest.get());
+		}
+	}
+
+	static final class Load extends PCodeNode {
+		final PCodeNode.Storage out;
+		final PCodeNode.Operand ptr;
+		final PCodeSpace ram;
+		final int size;
+
+		Load(PCodeOp op, PCodeNode.Storage out, PCodeNode.Operand ptr, PCodeSpace ram, int size) {
+			super(op);
+			this.out = out;
+			this.ptr = ptr;
+			this.ram = ram;
+			this.size = size;
+		}
+
+		int exec(int next) throws Exception {
+			out.set(ram.loadLong(ptr.get(), size));
+			return next;
+		}
+	}
+
+	static final class Store extends PCodeNode {
+		final PCodeNode.Operand ptr, val;
+		final PCodeSpace ram;
+		final int size;
+
+		Store(PCodeOp op, PCodeNode.Operand ptr, PCodeNode.Operand val, PCodeSpace ram, int size) {
+			super(op);
+			this.ptr = ptr;
+			this.val = val;
+			this.ram = ram;
+			this.size = size;
+		}
+
+		int exec(int next) throws Exception {
+			ram.storeLong(ptr.get(), size, val.get());
+			return next;
+		}
+	}
+
+	// anything without a node of its own goes through doOp, on a copy of
+	// the op bound to our machine state
+	final class Interpreted extends PCodeNode {
+		final PCodeOp bound;
+
+		Interpreted(PCodeOp op) {
+			super(op);
+			bound = op.bind(m);
+		}
+
+		int exec(int next) throws Exception {
+			m.microPC = next;
+			interp.doOp(bound);
+			return m.microPC;
+		}
+	}
+}
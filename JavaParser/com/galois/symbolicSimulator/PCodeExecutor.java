@@ -0,0 +1,109 @@
+package com.galois.symbolicSimulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs many inputs against one program on all cores.  Each worker thread
+// has a PCodeRunner (and so a machine state) of its own and takes inputs
+// off a shared counter until there are none left; the program is only
+// read, so nothing else is shared.
+//
+//   PCodeExecutor x = new PCodeExecutor(program);
+//   List<PCodeRunner.Result> results = x.runAll("_fib", argSets);
+//
+// Results come back in input order.  Their machine states are dropped, as
+// each runner's state is reused by its next input; a Job that needs more
+// than the result has to copy it out of r.getState() itself.
+public class PCodeExecutor {
+	// One input: set up the runner, run it, hand back the result
+	public interface Job {
+		PCodeRunner.Result run(PCodeRunner r) throws Exception;
+	}
+
+	PCodeProgram program;
+	int threads;
+	long budget = Long.MAX_VALUE;
+	int jitThreshold = 0;
+	PrintStream out = System.out;
+
+	public PCodeExecutor(PCodeProgram program) {
+		this(program, Runtime.getRuntime().availableProcessors());
+	}
+
+	public PCodeExecutor(PCodeProgram program, int threads) {
+		this.program = program;
+		this.threads = Math.max(1, threads);
+		// loading functions on demand changes the program; get it over with
+		if (program.lazy != null) {
+			program.lazy.loadAll();
+		}
+	}
+
+	// instruction budget for every run
+	public void setBudget(long instructions) {
+		budget = instructions;
+	}
+
+	// see PCodeInterpreter.setJitThreshold; each thread compiles its own blocks
+	public void setJitThreshold(int threshold) {
+		jitThreshold = threshold;
+	}
+
+	// Calls function once for each set of arguments
+	public List<PCodeRunner.Result> runAll(final String function, List<long[]> argSets) throws Exception {
+		List<Job> jobs = new ArrayList<Job>(argSets.size());
+		for (final long[] args : argSets) {
+			jobs.add(new Job() {
+				public PCodeRunner.Result run(PCodeRunner r) throws Exception {
+					r.setArgs(args);
+					return r.run(function);
+				}
+			});
+		}
+		return run(jobs);
+	}
+
+	public List<PCodeRunner.Result> run(final List<? extends Job> jobs) throws Exception {
+		final PCodeRunner.Result[] results = new PCodeRunner.Result[jobs.size()];
+		final AtomicInteger next = new AtomicInteger();
+		int n = Math.min(threads, jobs.size());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(n, 1));
+		try {
+			List<Future<?>> workers = new ArrayList<Future<?>>();
+			for (int t = 0; t < n; t++) {
+				final PCodeRunner runner = new PCodeRunner(program, out);
+				runner.setJitThreshold(jitThreshold);
+				workers.add(pool.submit(new Runnable() {
+					public void run() {
+						for (int i; (i = next.getAndIncrement()) < results.length; ) {
+							runner.clearInitializers();
+							runner.setBudget(budget);
+							PCodeRunner.Result res;
+							try {
+								res = jobs.get(i).run(runner);
+							} catch (Exception e) {
+								res = new PCodeRunner.Result();
+								res.status = PCodeRunner.Status.ERROR;
+								res.error = e;
+							}
+							res.state = null;
+							results[i] = res;
+						}
+					}
+				}));
+			}
+			for (Future<?> w : workers) {
+				w.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		return Arrays.asList(results);
+	}
+}
@@ -0,0 +1,25 @@
+package com.galois.symbolicSimulator;
+
+// Thrown when control transfers to an address outside the code space,
+// which is how a run ends when the function under test returns to a
+// made-up return address, or calls an external function (which the
+// interpreter may have a stub for; see PCodeStubs).
+public class PCodeExitException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	final long target; // unsigned macro address
+
+	public PCodeExitException(long target) {
+		super("Fetch outside code space @0x" + Long.toHexString(target));
+		this.target = target;
+	}
+
+	public PCodeExitException(long target, String message) {
+		super(message);
+		this.target = target;
+	}
+
+	public long getTarget() {
+		return target;
+	}
+}
@@ -0,0 +1,286 @@
+package com.galois.symbolicSimulator;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+// A byte-level index of the function_description elements in a PCode XML
+// file.  Each function_description is a self-contained XML fragment, so
+// once we know where they start and end they can be handed to separate
+// stream parsers.  The scan is one pass over the file through a small
+// buffer, looking only at tags; no XML is parsed, but comments, CDATA
+// sections and processing instructions are stepped over whole, so a
+// "<function" inside one of them isn't taken for an element.  The name
+// and entry address of each function are pulled out of its leading
+// <function> element, and the address of its last op from the ops'
+// seqnums, so that bodies can be loaded on demand.
+public class PCodeFunctionIndex {
+	static final int MAX_TAG = 1 << 16; // the longest tag we'll hold on to
+
+	static class Entry {
+		long start;      // byte offset of the '<' of <function_description
+		long end;        // byte offset just past the closing '>'
+		int startLine;   // 1-based line of start
+		int startColumn; // 1-based column of start
+		String name;       // from <function name=...>
+		Long entry;        // from <function><addr offset=...>, null if none
+		Long last;         // highest <seqnum offset=...> of its ops, null if none
+	}
+
+	String file;
+	List<Entry> entries = new ArrayList<Entry>();
+
+	public PCodeFunctionIndex(String file) throws IOException {
+		this.file = file;
+		Scanner s = new Scanner(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			scan(s);
+		} finally {
+			s.in.close();
+		}
+	}
+
+	// Reads bytes, keeping count of where it is
+	class Scanner {
+		InputStream in;
+		long pos = 0;
+		int line = 1;
+		long lineStart = 0;
+
+		Scanner(InputStream in) {
+			this.in = in;
+		}
+
+		int read() throws IOException {
+			int c = in.read();
+			if (c >= 0) {
+				pos++;
+				if (c == '\n') {
+					line++;
+					lineStart = pos;
+				}
+			}
+			return c;
+		}
+
+		// up to and including end, which must come before the end of the file
+		void skipPast(String end, int fromLine) throws IOException {
+			char[] last = new char[end.length()];
+			for (long seen = 1; ; seen++) {
+				int c = read();
+				if (c < 0) {
+					throw new IOException("Unterminated markup at line " + fromLine + " of " + file);
+				}
+				System.arraycopy(last, 1, last, 0, last.length - 1);
+				last[last.length - 1] = (char) c;
+				if (seen >= last.length && end.equals(new String(last))) return;
+			}
+		}
+
+		// Just past a '<': the rest of the tag up to its '>', or null for a
+		// comment, CDATA section, processing instruction or declaration,
+		// which are skipped
+		String tag(int fromLine) throws IOException {
+			StringBuilder t = new StringBuilder();
+			int quote = 0;
+			for (;;) {
+				int c = read();
+				if (c < 0) {
+					throw new IOException("Unterminated tag at line " + fromLine + " of " + file);
+				}
+				if (t.length() == 0 && c == '?') {
+					skipPast("?>", fromLine);
+					return null;
+				}
+				if (quote == 0 && c == '>') {
+					return t.toString();
+				}
+				if (c == '"' || c == '\'') {
+					quote = quote == 0 ? c : quote == c ? 0 : quote;
+				}
+				t.append((char) c);
+				if (t.length() == 3 && t.toString().equals("!--")) {
+					skipPast("-->", fromLine);
+					return null;
+				}
+				if (t.length() == 8 && t.toString().equals("![CDATA[")) {
+					skipPast("]]>", fromLine);
+					return null;
+				}
+				if (t.length() > MAX_TAG) {
+					throw new IOException("Tag of over " + MAX_TAG + " bytes at line " + fromLine + " of " + file);
+				}
+			}
+		}
+	}
+
+	private void scan(Scanner s) throws IOException {
+		Entry e = null;
+		int header = 0; // in e: 0 before <function>, 1 inside it, 2 once its <addr> or </function> is seen
+		for (int c; (c = s.read()) >= 0; ) {
+			if (c != '<') continue;
+			long at = s.pos - 1;
+			int line = s.line;
+			int column = (int) (at - s.lineStart) + 1;
+			String tag = s.tag(line);
+			if (tag == null) continue;
+			if (tag.startsWith("!")) {
+				// <!DOCTYPE ...> and the like; no internal subsets in PCode
+				continue;
+			}
+			String name = nameOf(tag);
+			if (e == null) {
+				if (name.equals("function_description")) {
+					e = new Entry();
+					e.start = at;
+					e.startLine = line;
+					e.startColumn = column;
+					header = 0;
+					if (tag.endsWith("/")) {
+						e.end = s.pos;
+						entries.add(e);
+						e = null;
+					}
+				}
+				continue;
+			}
+			if (name.equals("/function_description")) {
+				e.end = s.pos;
+				entries.add(e);
+				e = null;
+			} else if (name.equals("function") && header == 0) {
+				// read the way PCodeStreamParser.parseFunction reads it
+				e.name = attr(tag, "name");
+				header = tag.endsWith("/") ? 2 : 1;
+			} else if (name.equals("/function") && header == 1) {
+				header = 2;
+			} else if (name.equals("addr") && header == 1) {
+				String offset = attr(tag, "offset");
+				if (offset != null) {
+					e.entry = UnsignedLong.parseHex(offset);
+				}
+				header = 2;
+			} else if (name.equals("seqnum")) {
+				String offset = attr(tag, "offset");
+				if (offset != null) {
+					long addr = UnsignedLong.parseHex(offset);
+					if (e.last == null || UnsignedLong.compare(addr, e.last) > 0) {
+						e.last = addr;
+					}
+				}
+			}
+		}
+		if (e != null) {
+			throw new IOException("Unterminated function_description at line " + e.startLine + " of " + file);
+		}
+	}
+
+	// the element name a tag starts with, "/name" for an end tag
+	private static String nameOf(String tag) {
+		int i = tag.startsWith("/") ? 1 : 0;
+		while (i < tag.length() && !isNameEnd(tag.charAt(i))) i++;
+		return tag.substring(0, i);
+	}
+
+	// value of attribute name within the tag, or null
+	private static String attr(String tag, String name) {
+		int at = -1;
+		for (int i = tag.indexOf(name + "="); i >= 0; i = tag.indexOf(name + "=", i + 1)) {
+			if (i > 0 && isNameEnd(tag.charAt(i - 1))) {
+				at = i + name.length() + 1;
+				break;
+			}
+		}
+		if (at < 0 || at >= tag.length()) return null;
+		char quote = tag.charAt(at);
+		int end = tag.indexOf(quote, at + 1);
+		if (end < 0) end = tag.length();
+		return unescape(tag.substring(at + 1, end));
+	}
+
+	private static String unescape(String s) {
+		if (s.indexOf('&') < 0) return s;
+		return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+			.replace("&apos;", "'").replace("&amp;", "&");
+	}
+
+	private static boolean isNameEnd(char c) {
+		return c == '>' || c == '/' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	// The bytes of one function_description, read from the file, as a stream
+	InputStream fragment(Entry e) throws IOException {
+		byte[] buf = new byte[(int) (e.end - e.start)];
+		RandomAccessFile raf = new RandomAccessFile(new File(file), "r");
+		try {
+			raf.seek(e.start);
+			raf.readFully(buf);
+		} finally {
+			raf.close();
+		}
+		return new ByteArrayInputStream(buf);
+	}
+
+	// The document with every indexed function_description cut out, read
+	// from the file as it goes; what is left is the architecture
+	// description and the data segment.  The caller closes it.
+	public InputStream skeleton() throws IOException {
+		return new Skeleton(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+	}
+
+	class Skeleton extends InputStream {
+		InputStream in;
+		long pos = 0;
+		int next = 0; // the entry to cut out next
+
+		Skeleton(InputStream in) {
+			this.in = in;
+		}
+
+		// how much may be read before the next cut, after making any due now
+		private long room() throws IOException {
+			while (next < entries.size() && pos == entries.get(next).start) {
+				Entry e = entries.get(next++);
+				for (long n = e.end - e.start; n > 0; ) {
+					long skipped = in.skip(n);
+					if (skipped <= 0) {
+						if (in.read() < 0) throw new EOFException(file + " is shorter than when it was indexed");
+						skipped = 1;
+					}
+					n -= skipped;
+				}
+				pos = e.end;
+			}
+			return next < entries.size() ? entries.get(next).start - pos : Long.MAX_VALUE;
+		}
+
+		public int read() throws IOException {
+			room();
+			int c = in.read();
+			if (c >= 0) pos++;
+			return c;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) return 0;
+			int n = in.read(b, off, (int) Math.min(len, room()));
+			if (n > 0) pos += n;
+			return n;
+		}
+
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package com.galois.symbolicSimulator;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Coverage-guided fuzzing of one function, in the style of AFL: keep a
+// queue of inputs, mutate one, run it concretely, and keep the result if
+// it took a basic-block transition (an edge) we hadn't seen, or took one
+// a different number of times.  Edges are counted in a 64 KB map indexed
+// by the hashes of the two blocks, which is cheap enough to fill on every
+// block entry.
+//
+// An input is a flat array of bytes: one 8-byte little-endian word per
+// argument register, then each RAM region in turn.  The corpus lives on
+// disk, so a later run picks up where the last one stopped:
+//
+//   corpus/queue    inputs that found new coverage
+//   corpus/crashes  inputs that made the interpreter throw
+//   corpus/hits     the input that reached the target
+//
+// With a target address set, fuzzing stops at the first input that gets
+// there; this is the cheap pass for "inputs to drive to some program
+// point" before handing the hard branches to symbolic execution.
+public class PCodeFuzzer {
+	static final int MAP_SIZE = 1 << 16;
+
+	static final byte[] INTERESTING_BYTES = { -128, -1, 0, 1, 16, 32, 64, 100, 127 };
+	static final long[] INTERESTING_WORDS = {
+		0, 1, -1, 0x100, 0x10000, 0x7fffffffL, 0x80000000L, 0xffffffffL,
+		Long.MAX_VALUE, Long.MIN_VALUE
+	};
+
+	// Edge counts for one run, filled in by the interpreter
+	static class EdgeMap implements PCodeBlockObserver {
+		final byte[] hits = new byte[MAP_SIZE];
+		int prev;
+		int target = -1; // micro PC of the block holding the target
+		boolean reached;
+
+		public void enterBlock(int pc) {
+			int cur = (pc * 0x9e3779b1) >>> 16;
+			int i = cur ^ prev;
+			if (hits[i] != (byte) 0xff) hits[i]++;
+			prev = cur >>> 1; // so A->B and B->A differ
+			if (pc == target) reached = true;
+		}
+
+		void reset() {
+			Arrays.fill(hits, (byte) 0);
+			prev = 0;
+			reached = false;
+		}
+	}
+
+	PCodeProgram program;
+	String function;
+	PCodeRunner runner;
+	EdgeMap map = new EdgeMap();
+	byte[] virgin = new byte[MAP_SIZE]; // hit-count buckets not seen yet, per edge
+	Random rnd = new Random();
+
+	int argCount;
+	List<long[]> regions = new ArrayList<long[]>(); // { addr, length }
+	long target = -1;
+
+	File queueDir, crashDir, hitDir;
+	List<byte[]> queue = new ArrayList<byte[]>();
+	Map<File,Integer> nextId = new HashMap<File,Integer>(); // per directory, past any earlier run's
+
+	// what we've done
+	long execs, crashes, hangs;
+	byte[] hit; // the input that reached the target, if any
+
+	public PCodeFuzzer(PCodeProgram program, String function, File corpus) throws Exception {
+		this.program = program;
+		this.function = function;
+		runner = new PCodeRunner(program);
+		runner.setBlockObserver(map);
+		runner.setBudget(100000);
+		argCount = PCodeCallingConvention.forArch(program.archSpec).argRegs.length;
+		Arrays.fill(virgin, (byte) 0xff);
+		queueDir = new File(corpus, "queue");
+		crashDir = new File(corpus, "crashes");
+		hitDir = new File(corpus, "hits");
+	}
+
+	// how many argument registers to fill in (all of them, by default)
+	public void setArgCount(int n) {
+		argCount = n;
+	}
+
+	// fuzz length bytes of RAM at addr as well
+	public void addMemoryRegion(long addr, int length) {
+		regions.add(new long[] { addr, length });
+	}
+
+	// stop once the instruction at this macro address is reached
+	public void setTarget(long addr) {
+		target = addr;
+	}
+
+	// instructions per run; runs that use them all up count as hangs
+	public void setBudget(long instructions) {
+		runner.setBudget(instructions);
+	}
+
+	public void setSeed(long seed) {
+		rnd = new Random(seed);
+	}
+
+	public PCodeRunner getRunner() {
+		return runner;
+	}
+
+	int inputSize() {
+		int n = 8 * argCount;
+		for (long[] r : regions) {
+			n += (int) r[1];
+		}
+		return n;
+	}
+
+	// Runs iterations mutated inputs (after the corpus, the first time).
+	// Returns true once the target has been reached.
+	public boolean fuzz(long iterations) throws Exception {
+		if (target != -1 && map.target < 0) {
+			map.target = blockContaining(program.codeSegment.microAddrOfMacroInstr(target));
+		}
+		if (queue.isEmpty()) {
+			loadCorpus();
+			for (byte[] input : new ArrayList<byte[]>(queue)) {
+				execute(input, false);
+			}
+		}
+		for (long i = 0; i < iterations && hit == null; i++) {
+			byte[] input = mutate(queue.get(rnd.nextInt(queue.size())));
+			execute(input, true);
+		}
+		return hit != null;
+	}
+
+	// the start of the basic block pc is in: entering it is as good as
+	// reaching pc, as basic blocks don't branch out part way
+	private int blockContaining(int pc) {
+		while (pc > 0 && !program.codeSegment.fetch(pc).blockStart) {
+			pc--;
+		}
+		return pc;
+	}
+
+	private void execute(byte[] input, boolean keep) throws Exception {
+		runner.clearInitializers();
+		long[] args = new long[argCount];
+		for (int i = 0; i < argCount; i++) {
+			args[i] = word(input, 8 * i, 8);
+		}
+		runner.setArgs(args);
+		int at = 8 * argCount;
+		for (long[] r : regions) {
+			runner.setMemory(r[0], Arrays.copyOfRange(input, at, at + (int) r[1]));
+			at += (int) r[1];
+		}
+
+		map.reset();
+		PCodeRunner.Result res = runner.run(function);
+		execs++;
+		boolean novel = newCoverage();
+		if (res.status == PCodeRunner.Status.BUDGET) {
+			hangs++;
+		} else if (res.status == PCodeRunner.Status.ERROR) {
+			crashes++;
+			if (novel) save(crashDir, input);
+		} else if (novel && keep) {
+			queue.add(input);
+			save(queueDir, input);
+		}
+		if (map.reached && hit == null) {
+			hit = input;
+			save(hitDir, input);
+		}
+	}
+
+	// AFL's hit-count buckets: 1, 2, 3, 4-7, 8-15, 16-31, 32-127, 128+
+	static int bucket(int count) {
+		if (count <= 3) return count == 3 ? 4 : count;
+		if (count < 8) return 8;
+		if (count < 16) return 16;
+		if (count < 32) return 32;
+		if (count < 128) return 64;
+		return 128;
+	}
+
+	private boolean newCoverage() {
+		boolean novel = false;
+		byte[] hits = map.hits;
+		for (int i = 0; i < MAP_SIZE; i++) {
+			if (hits[i] == 0) continue;
+			int b = bucket(hits[i] & 0xff);
+			if ((virgin[i] & b) != 0) {
+				virgin[i] &= ~b;
+				novel = true;
+			}
+		}
+		return novel;
+	}
+
+	// number of edges seen so far
+	public int edges() {
+		int n = 0;
+		for (byte v : virgin) {
+			if (v != (byte) 0xff) n++;
+		}
+		return n;
+	}
+
+	byte[] mutate(byte[] parent) {
+		byte[] b = parent.clone();
+		if (b.length == 0) return b;
+		int stack = 1 << rnd.nextInt(4);
+		for (int k = 0; k < stack; k++) {
+			int i = rnd.nextInt(b.length);
+			switch (rnd.nextInt(6)) {
+				case 0: // flip a bit
+					b[i] ^= 1 << rnd.nextInt(8);
+					break;
+				case 1:
+					b[i] = INTERESTING_BYTES[rnd.nextInt(INTERESTING_BYTES.length)];
+					break;
+				case 2: { // add or subtract a little
+					int delta = 1 + rnd.nextInt(16);
+					b[i] += rnd.nextBoolean() ? delta : -delta;
+					break;
+				}
+				case 3:
+					b[i] = (byte) rnd.nextInt(256);
+					break;
+				case 4: { // an interesting 4- or 8-byte word
+					int size = rnd.nextBoolean() ? 4 : 8;
+					if (b.length < size) break;
+					int at = rnd.nextInt(b.length - size + 1);
+					long v = INTERESTING_WORDS[rnd.nextInt(INTERESTING_WORDS.length)];
+					for (int j = 0; j < size; j++) {
+						b[at + j] = (byte) (v >>> (8 * j));
+					}
+					break;
+				}
+				default: { // splice in part of another input
+					byte[] other = queue.get(rnd.nextInt(queue.size()));
+					int len = 1 + rnd.nextInt(b.length - i);
+					System.arraycopy(other, i, b, i, len);
+					break;
+				}
+			}
+		}
+		return b;
+	}
+
+	static long word(byte[] b, int at, int size) {
+		long v = 0;
+		for (int j = size - 1; j >= 0; j--) {
+			v = (v << 8) | (b[at + j] & 0xff);
+		}
+		return v;
+	}
+
+	// the queue from disk, or a single all-zero input if there is none
+	private void loadCorpus() throws IOException {
+		File[] files = queueDir.listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File f : files) {
+				byte[] data = new byte[(int) f.length()];
+				DataInputStream in = new DataInputStream(new FileInputStream(f));
+				try {
+					in.readFully(data);
+				} finally {
+					in.close();
+				}
+				// the layout may have changed since; pad or cut to fit
+				queue.add(Arrays.copyOf(data, inputSize()));
+			}
+		}
+		if (queue.isEmpty()) {
+			queue.add(new byte[inputSize()]);
+		}
+	}
+
+	private void save(File dir, byte[] input) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create " + dir);
+		}
+		Integer id = nextId.get(dir);
+		if (id == null) id = firstFreeId(dir);
+		File f;
+		while ((f = new File(dir, String.format("id-%06d", id))).exists()) {
+			id++; // never overwrite an input
+		}
+		nextId.put(dir, id + 1);
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(input);
+		} finally {
+			out.close();
+		}
+	}
+
+	// one past the highest id-N in dir, so a restarted run adds to what's there
+	private static int firstFreeId(File dir) {
+		int id = 0;
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("id-[0-9]+")) {
+					id = Math.max(id, Integer.parseInt(name.substring(3)) + 1);
+				}
+			}
+		}
+		return id;
+	}
+
+	public String toString() {
+		return execs + " execs, " + queue.size() + " queued, " + edges() + " edges, "
+				+ crashes + " crashes, " + hangs + " hangs" + (hit != null ? ", target reached" : "");
+	}
+
+	private static long parseNumber(String s) {
+		if (s.startsWith("0x")) {
+			return UnsignedLong.parseHex(s.substring(2));
+		}
+		return Long.parseLong(s);
+	}
+
+	// PCodeFuzzer pcodefile.xml function corpusdir [--args n] [--mem addr:len]
+	//     [--target addr] [--budget n] [--iterations n] [--seed n]
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: PCodeFuzzer pcodefile.xml function corpusdir [--args n] [--mem addr:len] [--target addr] [--budget n] [--iterations n] [--seed n]");
+			return;
+		}
+		PCodeProgram p = PCodeParser.loadProgram(args[0], System.out);
+		PCodeFuzzer f = new PCodeFuzzer(p, args[1], new File(args[2]));
+		long iterations = Long.MAX_VALUE;
+		for (int i = 3; i + 1 < args.length; i += 2) {
+			String v = args[i + 1];
+			if (args[i].equals("--args")) {
+				f.setArgCount((int) parseNumber(v));
+			} else if (args[i].equals("--mem")) {
+				int colon = v.indexOf(':');
+				f.addMemoryRegion(parseNumber(v.substring(0, colon)), (int) parseNumber(v.substring(colon + 1)));
+			} else if (args[i].equals("--target")) {
+				f.setTarget(parseNumber(v));
+			} else if (args[i].equals("--budget")) {
+				f.setBudget(parseNumber(v));
+			} else if (args[i].equals("--iterations")) {
+				iterations = parseNumber(v);
+			} else if (args[i].equals("--seed")) {
+				f.setSeed(parseNumber(v));
+			}
+		}
+		// report every so often
+		for (long done = 0; done < iterations; done += 10000) {
+			boolean reached = f.fuzz(Math.min(10000, iterations - done));
+			System.out.println(f);
+			if (reached) {
+				StringBuilder hex = new StringBuilder();
+				for (byte b : f.hit) {
+					hex.append(String.format("%02x", b & 0xff));
+				}
+				System.out.println("Reached 0x" + Long.toHexString(f.target) + " with " + hex);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package com.galois.symbolicSimulator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Lets the debugger run a concrete execution backwards.  Once attached to
+// an interpreter it counts the ops run (steps) and keeps two things:
+//
+//   - every so often a checkpoint: a full copy of the machine state
+//   - since the last checkpoint, an undo log: the micro PC each op started
+//     at, and the old value of every byte it wrote (or -1 if the byte had
+//     never been written)
+//
+// Going back within the log is a matter of putting the old bytes back.
+// Going back further restores the nearest checkpoint before the target
+// and runs forward from it, which rebuilds the log; concrete runs are
+// deterministic, so we end up where the original run was.  Searching
+// backwards (for a breakpoint, or the last write to an address) scans the
+// log, then earlier intervals in turn, newest first.
+//
+// The log never holds more than one interval's ops (and MAX_WRITES
+// bytes), and the oldest checkpoints are dropped past maxCheckpoints, so
+// memory is bounded; history starts at the oldest checkpoint left.
+public class PCodeHistory implements PCodeWriteObserver {
+	public static final int DEFAULT_INTERVAL = 1 << 16;
+	public static final int DEFAULT_CHECKPOINTS = 64;
+	static final int MAX_WRITES = 1 << 22; // checkpoint early past this
+	static final int CLEARED = -2; // log entry for a unique space reset
+
+	static class Checkpoint {
+		long step;
+		int microPC;
+		Map<PCodeSpace,Object> saved = new HashMap<PCodeSpace,Object>();
+	}
+
+	// which logged op a backwards search is after
+	interface Test {
+		boolean matches(int i);
+	}
+
+	PCodeInterpreter interp;
+	PCodeMachineState m;
+	int interval;
+	int maxCheckpoints;
+
+	long step = 0; // ops run since we were attached
+	List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+	TreeSet<Long> raised = new TreeSet<Long>(); // steps whose op threw, the first time
+	boolean replaying;
+	boolean searching; // replaying an older interval, which takes no checkpoints
+
+	// the undo log, covering steps (step - steps) to step
+	int steps = 0;
+	int[] pcs = new int[256]; // micro PC of each op
+	int[] marks = new int[256]; // where each op's writes start
+	int writes = 0;
+	PCodeSpace[] spaces = new PCodeSpace[1024];
+	long[] addrs = new long[1024];
+	int[] olds = new int[1024];
+
+	public PCodeHistory(PCodeInterpreter interp) {
+		this(interp, DEFAULT_INTERVAL, DEFAULT_CHECKPOINTS);
+	}
+
+	// Starts recording from the interpreter's current state
+	public PCodeHistory(PCodeInterpreter interp, int interval, int maxCheckpoints) {
+		this.interp = interp;
+		this.m = interp.m;
+		this.interval = Math.max(1, interval);
+		this.maxCheckpoints = Math.max(1, maxCheckpoints);
+		interp.history = this;
+		m.setWriteObserver(this);
+		checkpoint();
+	}
+
+	// stops recording; the history can't be used after this
+	public void detach() {
+		if (interp.history == this) interp.history = null;
+		m.setWriteObserver(null);
+	}
+
+	// ops run since recording started
+	public long step() {
+		return step;
+	}
+
+	// the furthest back we can go
+	public long earliest() {
+		return checkpoints.get(0).step;
+	}
+
+	// the interpreter is about to run the op at pc
+	void beforeStep(int pc) {
+		if (!searching && (steps == interval || writes >= MAX_WRITES)) {
+			checkpoint();
+		}
+		if (steps == pcs.length) {
+			pcs = java.util.Arrays.copyOf(pcs, steps * 2);
+			marks = java.util.Arrays.copyOf(marks, steps * 2);
+		}
+		pcs[steps] = pc;
+		marks[steps] = writes;
+		steps++;
+		step++;
+	}
+
+	public void beforeWrite(PCodeSpace s, long addr, int size) {
+		for (int i = 0; i < size; i++) {
+			log(s, addr + i, s.readByte(addr + i));
+		}
+	}
+
+	// the temporaries about to be forgotten, then the reset itself
+	public void beforeReset(PCodeUniqueSpace u) {
+		for (PagedMemory.Cursor c = u.cursor(); c.next(); ) {
+			log(u, c.address(), c.value());
+		}
+		log(u, 0, CLEARED);
+	}
+
+	private void log(PCodeSpace s, long addr, int old) {
+		if (writes == spaces.length) {
+			spaces = java.util.Arrays.copyOf(spaces, writes * 2);
+			addrs = java.util.Arrays.copyOf(addrs, writes * 2);
+			olds = java.util.Arrays.copyOf(olds, writes * 2);
+		}
+		spaces[writes] = s;
+		addrs[writes] = addr;
+		olds[writes] = old;
+		writes++;
+	}
+
+	// Copies the whole machine state and starts a new undo log.  Call this
+	// after changing the state by hand, so going back doesn't lose it.
+	public void checkpoint() {
+		Checkpoint c = new Checkpoint();
+		c.step = step;
+		c.microPC = m.microPC;
+		for (Enumeration<PCodeSpace> e = m.spaces.elements(); e.hasMoreElements(); ) {
+			PCodeSpace s = e.nextElement();
+			if (!s.constSpace) c.saved.put(s, s.save());
+		}
+		checkpoints.add(c);
+		if (checkpoints.size() > maxCheckpoints) {
+			checkpoints.remove(0);
+			raised.headSet(earliest()).clear();
+		}
+		clearLog();
+	}
+
+	// the op just begun threw
+	void raised() {
+		if (!replaying) raised.add(step);
+	}
+
+	private void clearLog() {
+		java.util.Arrays.fill(spaces, 0, writes, null);
+		steps = 0;
+		writes = 0;
+	}
+
+	// back to checkpoint i, forgetting any after it
+	private void restore(int i) {
+		while (checkpoints.size() > i + 1) {
+			checkpoints.remove(checkpoints.size() - 1);
+		}
+		load(i);
+	}
+
+	// the state at checkpoint i, with an empty log; later checkpoints stay
+	private void load(int i) {
+		Checkpoint c = checkpoints.get(i);
+		for (Map.Entry<PCodeSpace,Object> e : c.saved.entrySet()) {
+			e.getKey().restore(e.getValue());
+		}
+		m.microPC = c.microPC;
+		step = c.step;
+		clearLog();
+	}
+
+	// takes back the last op in the log
+	private void undo() {
+		steps--;
+		int mark = marks[steps];
+		for (int i = writes - 1; i >= mark; i--) {
+			if (olds[i] == CLEARED) {
+				((PCodeUniqueSpace) spaces[i]).clear(); // its temporaries come next
+			} else {
+				spaces[i].restoreByte(addrs[i], olds[i]);
+			}
+			spaces[i] = null;
+		}
+		writes = mark;
+		m.microPC = pcs[steps];
+		step--;
+	}
+
+	// Runs forward to step target, quietly.  An op that threw the first
+	// time throws again, and the run carried on past it; one that didn't
+	// means this isn't the run we recorded, so we stop there.
+	private void replay(long target) throws Exception {
+		boolean trace = interp.trace;
+		PCodeBlockObserver observer = interp.observer;
+		PCodeTraceWriter tracer = interp.tracer;
+		interp.trace = false;
+		interp.observer = null;
+		interp.tracer = null;
+		if (interp.stubs != null) interp.stubs.quiet = true; // it printed the first time
+		replaying = true;
+		try {
+			while (step < target) {
+				try {
+					interp.step(m);
+				} catch (Exception e) {
+					if (!raised.contains(step)) {
+						throw new Exception("replay went astray at step " + step + ": " + e, e);
+					}
+				}
+			}
+		} finally {
+			replaying = false;
+			interp.trace = trace;
+			interp.observer = observer;
+			interp.tracer = tracer;
+			if (interp.stubs != null) interp.stubs.quiet = false;
+		}
+	}
+
+	// Puts the machine in the state it was in just before step target ran
+	public void goTo(long target) throws Exception {
+		if (target < 0) {
+			target = 0;
+		}
+		if (target < step - steps) {
+			int i = checkpoints.size() - 1;
+			while (i >= 0 && checkpoints.get(i).step > target) i--;
+			if (i < 0) {
+				throw new Exception("history only goes back to step " + earliest());
+			}
+			restore(i);
+		}
+		while (step > target) {
+			undo();
+		}
+		replay(target);
+	}
+
+	// Back one op
+	public void back() throws Exception {
+		goTo(step - 1);
+	}
+
+	// Back to the last op run before now that t matches, returning its step
+	// number; -1, and no change, if there isn't one in the history.
+	// Earlier intervals are searched by replaying each from its checkpoint
+	// up to the next one, keeping the checkpoints after it until there's a
+	// match: one may hold a change made by hand, which a replay wouldn't.
+	private long findBack(Test t) throws Exception {
+		long from = step;
+		int last = checkpoints.size() - 1;
+		int c = last; // the log starts at this one
+		try {
+			for (;;) {
+				for (int i = steps - 1; i >= 0; i--) {
+					if (t.matches(i)) {
+						long found = step - steps + i;
+						while (checkpoints.size() > c + 1) {
+							checkpoints.remove(checkpoints.size() - 1);
+						}
+						goTo(found);
+						return found;
+					}
+				}
+				if (c == 0) break;
+				long end = checkpoints.get(c).step;
+				c--;
+				load(c);
+				searching = true;
+				try {
+					replay(end);
+				} finally {
+					searching = false;
+				}
+			}
+		} finally {
+			// found nothing: back to from by way of the latest checkpoint,
+			// as it's the one that has everything done by hand
+			if (c < last && checkpoints.size() > last) {
+				load(last);
+				replay(from);
+			}
+		}
+		return -1;
+	}
+
+	// Back to the last time the op at one of these micro PCs was about to run
+	public long backToBreakpoint(final BitSet breakpoints) throws Exception {
+		return findBack(new Test() {
+			public boolean matches(int i) {
+				return breakpoints.get(pcs[i]);
+			}
+		});
+	}
+
+	// Back to just before the last op that wrote the byte at addr in s
+	public long backToWrite(final PCodeSpace s, final long addr) throws Exception {
+		return findBack(new Test() {
+			public boolean matches(int i) {
+				int end = i + 1 < steps ? marks[i + 1] : writes;
+				for (int w = end - 1; w >= marks[i]; w--) {
+					if (olds[w] == CLEARED) break; // the rest are the temporaries it dropped
+					if (spaces[w] == s && addrs[w] == addr) return true;
+				}
+				return false;
+			}
+		});
+	}
+}
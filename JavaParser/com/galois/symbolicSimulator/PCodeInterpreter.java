@@ -3,9 +3,7 @@ package com.galois.symbolicSimulator;
 import java.io.PrintStream;
 import java.math.BigInteger;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Scanner;
-import java.util.Set;
 
 // Takes a parsed program and a machine state, and executes the
 // program, mutating the machine state with each step.
@@ -14,21 +12,86 @@ public class PCodeInterpreter {
 	PCodeProgram p;
 	PrintStream out = System.out;
 	
-	Set<Integer> breakpoints;
+	PCodeBreakpoints breakpoints;
+	PCodeDecoder decoder;
+	PCodeJit jit; // null unless compiling hot blocks
+	boolean trace = true; // print each op as it runs
+	long ops, instructions; // executed so far
+	PCodeBlockObserver observer; // null unless someone is watching
+	PCodeTraceWriter tracer; // null unless recording a binary trace
+	PCodeHistory history; // null unless we can run backwards
+	PCodeStubs stubs; // library functions run in Java; null for none
+	PCodeMemo memo; // null unless calls to pure functions are cached
 
 	public PCodeInterpreter(PCodeProgram program) {
-		p = program;
-		m = new PCodeMachineState(p);
-		breakpoints = new HashSet<Integer>();
-		out = System.out;
+		this(program, System.out);
 	}
 	
 	public PCodeInterpreter(PCodeProgram program, PrintStream o) {
-		p = program;
-		m = new PCodeMachineState(p);
-		breakpoints = new HashSet<Integer>();
+		this(new PCodeMachineState(program), o);
+	}
+
+	// runs the program against a machine state set up elsewhere
+	public PCodeInterpreter(PCodeMachineState state, PrintStream o) {
+		p = state.program;
+		m = state;
+		breakpoints = new PCodeBreakpoints();
+		decoder = new PCodeDecoder(this, m);
 		out = o;
 	}
+
+	public void setTrace(boolean trace) {
+		this.trace = trace;
+	}
+
+	// Record every op to w; like printing them, this turns compiled blocks off
+	public void setTraceWriter(PCodeTraceWriter w) {
+		tracer = w;
+	}
+
+	public void setBlockObserver(PCodeBlockObserver o) {
+		observer = o;
+	}
+
+	// The Java stubs for library calls, say PCodeStubs.standard; null, to
+	// begin with, interprets what has a body and stops at what hasn't
+	public void setStubs(PCodeStubs s) {
+		stubs = s;
+	}
+
+	public PCodeStubs getStubs() {
+		return stubs;
+	}
+
+	// Cache calls to the functions m has been told are pure (null stops);
+	// like compiled blocks, not while there's history to go back through
+	public void setMemo(PCodeMemo m) {
+		if (memo != null) memo.abandon();
+		memo = m;
+	}
+
+	// Run the ops as PCodeOptimizer leaves them, or as parsed (the
+	// default, so op counts are as they were).  Like compiled blocks,
+	// the optimized ops are only used while nothing is watching them one
+	// at a time: no tracing, breakpoints or history, and uninitialized
+	// reads not failing.
+	public void setOptimize(boolean on) {
+		decoder.setOptimizer(on ? new PCodeOptimizer(p) : null);
+	}
+
+	public PCodeOptimizer getOptimizer() {
+		return decoder.optimizer;
+	}
+
+	// Compile blocks once they have been entered threshold times; 0 turns
+	// compilation off.  Compiled blocks are only used while tracing is off
+	// and no breakpoints or history are kept, as they run many ops in a
+	// single step; nor when uninitialized reads fail, as which op failed
+	// would be lost; nor while a memoized call is being recorded, as they
+	// don't report what they read and write.
+	public void setJitThreshold(int threshold) {
+		jit = threshold > 0 ? new PCodeJit(m, threshold) : null;
+	}
 	
 	// PCode is a bit weird on LOAD and STORE - 
 	// the 2 arg versions of these take a register destination Varnode,
@@ -53,13 +116,136 @@ public class PCodeInterpreter {
 	}
 
 	void step(PCodeMachineState s) throws Exception {
-		// fetch code at PC
-		PCodeOp op = m.program.codeSegment.fetch(m.microPC++);
-		// TODO: check if this microPC is the start of a Macro Instruction, and if so,
-		//       re-initialize the Unique space.
-		out.println(op.toString(p));
+		try {
+			step1();
+		} catch (Exception e) {
+			if (history != null) {
+				history.raised(); // so a replay knows to expect it
+			}
+			throw e;
+		}
+	}
 
-		doOp(op);
+	private void step1() throws Exception {
+		if (stubs != null) {
+			PCodeStubs.Binding b = stubs.atEntry(p, m.microPC);
+			if (b != null) {
+				// called a function we have in Java; that's one instruction
+				if (history != null) {
+					history.beforeStep(m.microPC);
+				}
+				ops++;
+				instructions++;
+				callStub(b);
+				return;
+			}
+		}
+		try {
+			if (memo != null && history == null && memo.enter(m)) {
+				// a call we'd seen before, returned from at once
+				ops++;
+				instructions++;
+				return;
+			}
+			run1();
+		} catch (PCodeExitException e) {
+			leaveTo(e);
+		}
+	}
+
+	// Control left the code space: carry on in a stub if there is one for
+	// where it went, else let the exception end the run
+	void leaveTo(PCodeExitException e) throws Exception {
+		PCodeStubs.Binding b = stubs == null ? null : stubs.atExit(p, e.getTarget());
+		if (b == null) throw e;
+		callStub(b);
+	}
+
+	private void callStub(PCodeStubs.Binding b) throws Exception {
+		if (trace) {
+			out.println("stub " + b.name);
+		}
+		stubs.call(b, m);
+	}
+
+	// is there a stub to run on entry to pc, in place of its code
+	boolean stubbed(int pc) {
+		return stubs != null && stubs.atEntry(p, pc) != null;
+	}
+
+	// one op, or one compiled block
+	private void run1() throws Exception {
+		boolean unwatched = !trace && tracer == null && history == null && breakpoints.isEmpty()
+				&& m.uninitialized.policy != PCodeUninitializedReads.Policy.FAIL;
+		if (jit != null && unwatched && (memo == null || !memo.recording())) {
+			PCodeCompiledBlock b = jit.block(m.microPC);
+			if (b != null) {
+				// compiled blocks stop short of the next basic block
+				if (observer != null && p.codeSegment.fetch(m.microPC).blockStart) {
+					observer.enterBlock(m.microPC);
+				}
+				ops += b.ops;
+				instructions += b.instructions;
+				m.microPC = b.run();
+				return;
+			}
+		}
+		if (unwatched && decoder.optimizer != null) {
+			runOptimized();
+			return;
+		}
+		// fetch the decoded op at PC
+		PCodeNode n = decoder.node(m.microPC);
+		if (history != null) {
+			history.beforeStep(m.microPC);
+		}
+		if (observer != null && n.op.blockStart) {
+			observer.enterBlock(m.microPC);
+		}
+		m.microPC++;
+		ops++;
+		if (n.macroStart) {
+			// start of a macro instruction; the last one's temporaries are dead
+			m.resetUniques();
+			instructions++;
+		}
+		if (trace) {
+			out.println(n.op.toString(p));
+		}
+		if (tracer == null) {
+			m.microPC = n.exec(m.microPC);
+			return;
+		}
+		int pc = m.microPC - 1;
+		long address = tracer.address(pc, n.op);
+		try {
+			m.microPC = n.exec(m.microPC);
+		} catch (Exception e) {
+			tracer.record(pc, n.op, address, -1); // a run often ends this way
+			throw e;
+		}
+		tracer.record(pc, n.op, address, m.microPC);
+	}
+
+	// one op of the optimized stream, and any after it that were optimized away
+	private void runOptimized() throws Exception {
+		PCodeNode n = decoder.optimizedNode(m.microPC);
+		if (observer != null && n.op.blockStart) {
+			observer.enterBlock(m.microPC);
+		}
+		int next = m.microPC + 1 + n.skip;
+		m.microPC = next;
+		ops++;
+		if (n.macroStart) {
+			m.resetUniques();
+			instructions++;
+		}
+		m.microPC = n.exec(next);
+		if (n.skippedInstructions > 0 && m.microPC == next) {
+			// it fell through into instructions that start with ops we skipped
+			m.resetUniques();
+			instructions += n.skippedInstructions;
+		}
 	}
 	
 	void doOp(PCodeOp op) throws Exception {
@@ -70,6 +256,9 @@ public class PCodeInterpreter {
 		long lhsBool, rhsBool, resBool; // for the bit ops
 		// interpret op, modifying machine state, including (perhaps) PC
 
+		if (doLongOp(op)) {
+			return;
+		}
 		switch (op.opcode) {
 			case COPY:
 				op.output.copyBytes(op.input0);
@@ -83,28 +272,26 @@ public class PCodeInterpreter {
 			        store(op.space_id, op.input0, op.input1);
 				break;
 			case BRANCH:
-				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.offset);
+				m.microPC = m.program.codeSegment.branchTarget(op);
 				break;
 			case CBRANCH:
-				lhs = op.input0.fetchUnsigned();
+				// input0 is the destination, input1 the condition
+				lhs = op.input1.fetchUnsigned();
 				if (!lhs.equals(BigInteger.ZERO)) {
-					m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.offset);
+					m.microPC = m.program.codeSegment.branchTarget(op);
 				}
 				break;
 			case BRANCHIND:
-				lhs = op.input0.fetchUnsigned();
-				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(lhs);
+				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.fetchLong());
 				break;
 			case CALL:
-				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.offset);
+				m.microPC = m.program.codeSegment.branchTarget(op);
 				break;
 			case CALLIND:
-				lhs = op.input0.fetchUnsigned();
-				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(lhs);
+				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.fetchLong());
 				break;
 			case RETURN:
-				lhs = op.input0.fetchUnsigned();
-				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(lhs);
+				m.microPC = m.program.codeSegment.microAddrOfMacroInstr(op.input0.fetchLong());
 				break;
 			case PIECE:
 				lhs = op.input0.fetchUnsigned();
@@ -289,8 +476,8 @@ public class PCodeInterpreter {
 				op.output.storeImmediateUnsigned(res);
 				break;
 			case INT_DIV:
-				lhs = op.input0.fetchSigned();
-				rhs = op.input1.fetchSigned();
+				lhs = op.input0.fetchUnsigned();
+				rhs = op.input1.fetchUnsigned();
 				res = lhs.divide(rhs);
 				op.output.storeImmediateUnsigned(res);
 				break;
@@ -309,7 +496,7 @@ public class PCodeInterpreter {
 			case INT_SREM:
 				lhs = op.input0.fetchSigned();
 				rhs = op.input1.fetchSigned();
-				res = lhs.mod(rhs);
+				res = lhs.remainder(rhs); // takes the sign of lhs, as in C
 				op.output.storeImmediateUnsigned(res);
 				break;
 			case BOOL_NEGATE:
@@ -348,6 +535,150 @@ public class PCodeInterpreter {
 		}
 	}
 	
+	// The integer and boolean ops on varnodes of up to 8 bytes, done on
+	// longs.  Operands come in zero-extended from their size; signed ops
+	// sign-extend them first, and storeLong keeps only the output's bytes,
+	// so wrapping comes for free.  Returns false for anything else, which
+	// doOp then handles with BigIntegers.
+	boolean doLongOp(PCodeOp op) throws Exception {
+		Varnode out = op.output, in0 = op.input0, in1 = op.input1;
+		if (out == null || in0 == null || out.size > 8 || in0.size > 8 || (in1 != null && in1.size > 8)) {
+			return false;
+		}
+		int n = in0.size;
+		long a, b;
+		long r;
+		switch (op.opcode) {
+			case INT_ZEXT:
+				r = in0.fetchLong();
+				break;
+			case INT_SEXT:
+				r = signExtend(in0.fetchLong(), n);
+				break;
+			case INT_2COMP:
+				r = -in0.fetchLong();
+				break;
+			case INT_NEGATE:
+				r = ~in0.fetchLong();
+				break;
+			case BOOL_NEGATE:
+				r = in0.fetchLong() == 0 ? 1 : 0;
+				break;
+			default:
+				if (in1 == null) {
+					return false;
+				}
+				switch (op.opcode) {
+					case INT_EQUAL:
+						r = in0.fetchLong() == in1.fetchLong() ? 1 : 0;
+						break;
+					case INT_NOTEQUAL:
+						r = in0.fetchLong() != in1.fetchLong() ? 1 : 0;
+						break;
+					case INT_LESS:
+						r = UnsignedLong.compare(in0.fetchLong(), in1.fetchLong()) < 0 ? 1 : 0;
+						break;
+					case INT_LESSEQUAL:
+						r = UnsignedLong.compare(in0.fetchLong(), in1.fetchLong()) <= 0 ? 1 : 0;
+						break;
+					case INT_SLESS:
+						r = signExtend(in0.fetchLong(), n) < signExtend(in1.fetchLong(), in1.size) ? 1 : 0;
+						break;
+					case INT_SLESSEQUAL:
+						r = signExtend(in0.fetchLong(), n) <= signExtend(in1.fetchLong(), in1.size) ? 1 : 0;
+						break;
+					case INT_ADD:
+						r = in0.fetchLong() + in1.fetchLong();
+						break;
+					case INT_SUB:
+						r = in0.fetchLong() - in1.fetchLong();
+						break;
+					case INT_CARRY:
+						a = in0.fetchLong();
+						r = UnsignedLong.compare((a + in1.fetchLong()) & mask(n), a) < 0 ? 1 : 0;
+						break;
+					case INT_SCARRY:
+						// overflow: both operands have the same sign and the sum doesn't
+						a = signExtend(in0.fetchLong(), n);
+						b = signExtend(in1.fetchLong(), n);
+						r = signExtend(a + b, n);
+						r = ((a ^ r) & (b ^ r)) < 0 ? 1 : 0;
+						break;
+					case INT_SBORROW:
+						// overflow: the operands differ in sign and the difference has b's sign
+						a = signExtend(in0.fetchLong(), n);
+						b = signExtend(in1.fetchLong(), n);
+						r = signExtend(a - b, n);
+						r = ((a ^ b) & (a ^ r)) < 0 ? 1 : 0;
+						break;
+					case INT_XOR:
+						r = in0.fetchLong() ^ in1.fetchLong();
+						break;
+					case INT_AND:
+						r = in0.fetchLong() & in1.fetchLong();
+						break;
+					case INT_OR:
+						r = in0.fetchLong() | in1.fetchLong();
+						break;
+					case INT_LEFT:
+						// Java only looks at the low 6 bits of a shift count
+						a = in0.fetchLong();
+						b = in1.fetchLong();
+						r = UnsignedLong.compare(b, 64) >= 0 ? 0 : a << b;
+						break;
+					case INT_RIGHT:
+						a = in0.fetchLong();
+						b = in1.fetchLong();
+						r = UnsignedLong.compare(b, 64) >= 0 ? 0 : a >>> b;
+						break;
+					case INT_SRIGHT:
+						a = signExtend(in0.fetchLong(), n);
+						b = in1.fetchLong();
+						r = a >> (UnsignedLong.compare(b, 64) >= 0 ? 63 : b);
+						break;
+					case INT_MULT:
+						r = in0.fetchLong() * in1.fetchLong();
+						break;
+					case INT_DIV:
+						r = UnsignedLong.divide(in0.fetchLong(), in1.fetchLong());
+						break;
+					case INT_REM:
+						r = UnsignedLong.remainder(in0.fetchLong(), in1.fetchLong());
+						break;
+					case INT_SDIV:
+						r = signExtend(in0.fetchLong(), n) / signExtend(in1.fetchLong(), in1.size);
+						break;
+					case INT_SREM:
+						r = signExtend(in0.fetchLong(), n) % signExtend(in1.fetchLong(), in1.size);
+						break;
+					case BOOL_XOR:
+						r = (in0.fetchLong() ^ in1.fetchLong()) & 1;
+						break;
+					case BOOL_AND:
+						r = in0.fetchLong() & in1.fetchLong() & 1;
+						break;
+					case BOOL_OR:
+						r = (in0.fetchLong() | in1.fetchLong()) & 1;
+						break;
+					default:
+						return false;
+				}
+		}
+		out.storeImmediateUnsigned(r);
+		return true;
+	}
+
+	// all ones in the low size bytes
+	static long mask(int size) {
+		return size >= 8 ? -1L : (1L << (8 * size)) - 1;
+	}
+
+	// the low size bytes of v, sign-extended to 64 bits
+	static long signExtend(long v, int size) {
+		int shift = 64 - 8 * size;
+		return (v << shift) >> shift;
+	}
+
 	private long maxSizeOfElt(int size) {
 		return (long) Math.pow(2, 8 * size -1) -1;
 	}
@@ -388,6 +719,11 @@ public class PCodeInterpreter {
 			out.println("Unable to find " + funcToRun);
 			return false;
 		}
+		// remember enough to go backwards
+		if (history != null) {
+			history.detach();
+		}
+		new PCodeHistory(this);
 		
 		out.print("> ");
 		while (!done) {
@@ -402,6 +738,58 @@ public class PCodeInterpreter {
 						return true;
 					} else if (cmd.contains("restart")) {
 						return false;
+					} else if (cmd.contains("retain")) {
+						// keep unique-space temporaries across instructions, for "print unique"
+						boolean retain = !cmd.contains("off");
+						m.setRetainUniques(retain);
+						out.println("retaining temporaries " + (retain ? "on" : "off"));
+					} else if (cmd.contains("uninit")) {
+						// uninit [zero|fail|record]: set the policy, or list what was recorded
+						Scanner args = new Scanner(cmd);
+						args.next();
+						PCodeUninitializedReads u = m.getUninitializedReads();
+						if (args.hasNext()) {
+							u.setPolicy(PCodeUninitializedReads.Policy.valueOf(args.next().toUpperCase()));
+							out.println("uninitialized reads: " + u.getPolicy().name().toLowerCase());
+						} else {
+							out.print(u);
+						}
+						args.close();
+					} else if (cmd.contains("prev")) {
+						history.back();
+						showPosition();
+					} else if (cmd.contains("rcont") || cmd.contains("reverse-cont")) {
+						// back to each breakpoint in turn until one's condition holds
+						long at;
+						do {
+							at = history.backToBreakpoint(breakpoints.pcs);
+						} while (at >= 0 && !breakpoints.at(m));
+						if (at < 0) {
+							out.println("no breakpoint before this in the history");
+						}
+						showPosition();
+					} else if (cmd.contains("lastwrite")) {
+						// back to just before the last op that wrote this byte
+						Scanner args = new Scanner(cmd);
+						args.next();
+						PCodeSpace s = m.getRAMspace();
+						String addr = args.hasNext() ? args.next() : "";
+						if (args.hasNext()) {
+							s = m.getSpace(addr);
+							addr = args.next();
+						}
+						args.close();
+						if (s == null || addr.length() == 0) {
+							out.println("usage: lastwrite [space] addr");
+						} else {
+							if (addr.startsWith("0x")) {
+								addr = addr.substring(2);
+							}
+							if (history.backToWrite(s, UnsignedLong.parseHex(addr)) < 0) {
+								out.println("no write to " + s.name + " 0x" + addr + " in the history");
+							}
+							showPosition();
+						}
 					} else if (cmd.contains("next") || cmd.length() == 0) {
 						step(m);
 					} else if (cmd.contains("list")) {
@@ -421,7 +809,7 @@ public class PCodeInterpreter {
 								}
 								out.print("\n");
 							} else {
-								PCodeFunction pfn = p.functions.get(fn);
+								PCodeFunction pfn = p.lookupFunction(fn);
 								if (pfn != null)
 									out.println(pfn.toString(m));
 								else {
@@ -467,7 +855,7 @@ public class PCodeInterpreter {
 									Varnode tmp = null;
 
 									int sz = indirections == 0 ? valsz : m.program.archSpec.wordSize;
-									tmp = new Varnode(s,new BigInteger(offset,16),sz);
+									tmp = new Varnode(s,UnsignedLong.parseHex(offset),sz);
 									while (indirections-- > 0) {
 										BigInteger nv = signed ? tmp.fetchSigned() : tmp.fetchUnsigned();
 										sz = indirections == 0 ? valsz : m.program.archSpec.wordSize;
@@ -511,13 +899,14 @@ public class PCodeInterpreter {
 									}
 									BigInteger val = new BigInteger(valStr,16);
 
-									Varnode tmp = new Varnode(s,new BigInteger(offset,16),valsz);
+									Varnode tmp = new Varnode(s,UnsignedLong.parseHex(offset),valsz);
 									if (signed) {
 										tmp.storeImmediateUnsigned(val);
 									} else {
 										tmp.storeImmediateSigned(val.longValue());
 									}
 									// out.println(tmp.toString());
+									history.checkpoint(); // going back mustn't undo this
 								} else { // print the whole space
 									out.println("usage: set <space> <offset> <value>[:<size>] ");
 								}
@@ -528,32 +917,74 @@ public class PCodeInterpreter {
 							out.println("usage: set <space> <offset> <value>[:<size>] ");
 						}
 						args.close();
+					} else if (cmd.contains("watch")) {
+						// watch [read|write|access] [space] addr[:size], or list them all
+						Scanner args = new Scanner(cmd);
+						args.next();
+						if (!args.hasNext()) {
+							out.print(breakpoints.toString(m.program.codeSegment));
+						} else {
+							boolean read = false, write = true;
+							if (args.hasNext("read|write|access")) {
+								String kind = args.next();
+								read = !kind.equals("write");
+								write = !kind.equals("read");
+							}
+							String addr = args.next();
+							PCodeSpace s = m.getRAMspace();
+							if (args.hasNext()) {
+								s = m.getSpace(addr);
+								addr = args.next();
+							}
+							if (s == null) {
+								out.println("unable to locate space ");
+							} else {
+								int size = s.wordsize > 0 ? s.wordsize : m.program.archSpec.wordSize;
+								int colon = addr.indexOf(':');
+								if (colon > 0) {
+									size = Integer.parseInt(addr.substring(colon + 1));
+									addr = addr.substring(0, colon);
+								}
+								if (addr.startsWith("0x")) {
+									addr = addr.substring(2);
+								}
+								breakpoints.watch(s, UnsignedLong.parseHex(addr), size, read, write);
+							}
+						}
+						args.close();
+					} else if (cmd.contains("delete")) {
+						breakpoints.clear();
+						out.println("all breakpoints and watchpoints deleted");
 					} else if (cmd.contains("break")) {
 						Scanner args = new Scanner(cmd);
 						args.next(); 
-						if (args.hasNext()) { // specify a breakpoint, by hex addr, or function name
+						int bp = m.microPC; // "here", unless we're told where
+						if (args.hasNext() && !args.hasNext("if")) { // specify a breakpoint, by hex addr, or function name
 							String arg = args.next();
-							PCodeFunction bf = p.functions.get(arg);
+							PCodeFunction bf = p.lookupFunction(arg);
 							if (bf != null) {
-								long bp = m.program.codeSegment.microAddrOfVarnode(bf.macroEntryPoint);
-								breakpoints.add(new Integer((int)bp));
+								bp = m.program.codeSegment.microAddrOfVarnode(bf.macroEntryPoint);
 							} else {
 								// assume it's a hex address
-								BigInteger macroEntry = PCodeParser.parseBigHex(arg);
-								long bp = m.program.codeSegment.microAddrOfMacroInstr(macroEntry);
-								breakpoints.add(new Integer((int)bp));
+								long macroEntry = UnsignedLong.parseHex(arg);
+								bp = m.program.codeSegment.microAddrOfMacroInstr(macroEntry);
 							}
-						} else { // add a breakpoint "here"
-							breakpoints.add(new Integer(m.microPC));
 						}
+						PCodeBreakpoints.Condition c = null;
+						if (args.hasNext("if")) { // break ... if space offset[:size] op value
+							args.next();
+							c = PCodeBreakpoints.parseCondition(args.nextLine(), p.archSpec);
+						}
+						breakpoints.add(bp, c);
 						args.close();
 					} else if (cmd.contains("cont")) {
 						out.println("Execution trace:");
-						do {
-							step(m);
-						} while (notAtBreakpoint(m.microPC));
+						cont();
+						if (breakpoints.reason() != null) {
+							out.println(breakpoints.reason());
+						}
 					} else {
-						out.println("this interpreter supports {next|quit|print [space [offset][:size]]|list [function]|cont|break[function | addr]|set space offset value[:size]}");
+						out.println("this interpreter supports {next|prev|quit|print [space [offset][:size]]|list [function]|cont|rcont|break[function | addr][if space offset[:size] op value]|watch [read|write|access] [space] addr[:size]|delete|lastwrite [space] addr|set space offset value[:size]|retain [off]|uninit [zero|fail|record]}");
 					}
 				}
 			} catch (Exception e) {
@@ -565,8 +996,17 @@ public class PCodeInterpreter {
 		return true;
 	}
 
-	private boolean notAtBreakpoint(int microPC) {
-		boolean foundBreakpoint = breakpoints.contains(new Integer(microPC));
-		return !foundBreakpoint;
+	// where going backwards left us: the op about to run
+	private void showPosition() {
+		out.println("step " + history.step() + ": " + m.program.codeSegment.fetch(m.microPC).toString(p));
+	}
+
+	// Steps until a watchpoint goes off or we reach a breakpoint whose
+	// condition holds (or something throws)
+	void cont() throws Exception {
+		breakpoints.resume();
+		do {
+			step(m);
+		} while (!breakpoints.shouldStop(m));
 	}
 }
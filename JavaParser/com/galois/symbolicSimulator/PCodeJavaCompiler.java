@@ -0,0 +1,119 @@
+package com.galois.symbolicSimulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Compiles generated Java source in memory with the JDK's own compiler,
+// and loads the results.  Used by PCodeJit for hot blocks.  There is no
+// compiler when running on a bare JRE; available() says so.
+class PCodeJavaCompiler {
+	JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+	Map<String,byte[]> classes = new HashMap<String,byte[]>();
+	Loader loader = new Loader();
+
+	boolean available() {
+		return javac != null;
+	}
+
+	// Compiles each class name -> source; returns false, printing the
+	// compiler's complaints to System.err, if that fails.
+	boolean compile(Map<String,String> sources) {
+		List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+		for (Map.Entry<String,String> e : sources.entrySet()) {
+			units.add(new Source(e.getKey(), e.getValue()));
+		}
+		StandardJavaFileManager std = javac.getStandardFileManager(null, null, null);
+		JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(std) {
+			public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+				return new Output(className);
+			}
+		};
+		StringWriter errors = new StringWriter();
+		List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+		boolean ok = javac.getTask(errors, files, null, options, null, units).call();
+		if (!ok) {
+			System.err.println("Unable to compile generated code:\n" + errors);
+		}
+		try {
+			files.close();
+		} catch (IOException e) {
+			// nothing to flush
+		}
+		return ok;
+	}
+
+	Class<?> load(String className) throws ClassNotFoundException {
+		return loader.loadClass(className);
+	}
+
+	// ours first, so the compiler can find PCodeCompiledBlock however we were started
+	private static String classPath() {
+		String cp = System.getProperty("java.class.path");
+		try {
+			String ours = new File(PCodeCompiledBlock.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+			return ours + File.pathSeparator + cp;
+		} catch (Exception e) {
+			return cp;
+		}
+	}
+
+	static class Source extends SimpleJavaFileObject {
+		String text;
+
+		Source(String className, String text) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.text = text;
+		}
+
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return text;
+		}
+	}
+
+	class Output extends SimpleJavaFileObject {
+		String className;
+
+		Output(String className) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+			this.className = className;
+		}
+
+		public OutputStream openOutputStream() {
+			return new ByteArrayOutputStream() {
+				public void close() {
+					classes.put(className, toByteArray());
+				}
+			};
+		}
+	}
+
+	class Loader extends ClassLoader {
+		Loader() {
+			super(PCodeCompiledBlock.class.getClassLoader());
+		}
+
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] b = classes.get(name);
+			if (b == null) throw new ClassNotFoundException(name);
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Tiered execution for long concrete runs.  The interpreter counts how
+// often it arrives at each micro PC; once one has been reached threshold
+// times, the block starting there is written out as Java source by
+// PCodeBlockGenerator, compiled, and run in one call from then on.
+// Compiled blocks return the micro PC of the block to run next.
+//
+// A block is compiled once; one that can't be compiled is left to the
+// interpreter for good.
+public class PCodeJit {
+	static final String PACKAGE = "com.galois.symbolicSimulator.jit";
+
+	PCodeMachineState m;
+	PCodeCodeSpace code;
+	PCodeBlockGenerator generator;
+	PCodeJavaCompiler compiler = new PCodeJavaCompiler();
+	int threshold;
+
+	PCodeCompiledBlock[] blocks = new PCodeCompiledBlock[0];
+	int[] counts = new int[0]; // -1 once we've tried compiling
+	int compiled = 0;
+
+	public PCodeJit(PCodeMachineState m, int threshold) {
+		this.m = m;
+		this.threshold = threshold;
+		code = m.program.codeSegment;
+		generator = new PCodeBlockGenerator(m.program);
+		if (!compiler.available()) {
+			System.err.println("No Java compiler available (running on a JRE?), interpreting everything");
+		}
+	}
+
+	// the compiled block at pc, if it is (now) hot enough to have one
+	PCodeCompiledBlock block(int pc) {
+		if (pc < 0 || pc >= code.microOps.size()) return null;
+		if (pc >= blocks.length) {
+			int size = code.microOps.size();
+			blocks = Arrays.copyOf(blocks, size);
+			counts = Arrays.copyOf(counts, size);
+		}
+		PCodeCompiledBlock b = blocks[pc];
+		if (b != null || counts[pc] < 0 || ++counts[pc] < threshold) {
+			return b;
+		}
+		counts[pc] = -1;
+		if (compiler.available()) {
+			b = compile(pc);
+			blocks[pc] = b;
+		}
+		return b;
+	}
+
+	private PCodeCompiledBlock compile(int pc) {
+		String name = PACKAGE + ".Block" + pc;
+		String src = generator.generate(PACKAGE, "Block" + pc, pc);
+		if (src == null) return null;
+		Map<String,String> sources = new HashMap<String,String>();
+		sources.put(name, src);
+		if (!compiler.compile(sources)) return null;
+		try {
+			PCodeCompiledBlock b = (PCodeCompiledBlock) compiler.load(name).newInstance();
+			b.bind(m);
+			b.ops = generator.ops;
+			b.instructions = generator.instructions;
+			compiled++;
+			return b;
+		} catch (Exception e) {
+			System.err.println("Unable to load " + name + ": " + e);
+			return null;
+		}
+	}
+
+	// number of blocks compiled so far
+	public int compiledBlocks() {
+		return compiled;
+	}
+}
@@ -0,0 +1,82 @@
+package com.galois.symbolicSimulator;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Loads function bodies into a PCodeProgram the first time they are
+// referenced, either by name (PCodeProgram.lookupFunction) or by a macro
+// address inside them (PCodeCodeSpace.microAddrOfMacroInstr).  Only the
+// PCodeFunctionIndex is built up front; each body is parsed from its own
+// byte range of the file when it is needed.
+public class PCodeLazyLoader {
+	PCodeProgram program;
+	PCodeFunctionIndex index;
+	PCodeStreamParser parser;
+
+	Map<String,PCodeFunctionIndex.Entry> byName = new HashMap<String,PCodeFunctionIndex.Entry>();
+	TreeMap<Long,PCodeFunctionIndex.Entry> byEntry = new TreeMap<Long,PCodeFunctionIndex.Entry>(UnsignedLong.ORDER);
+	Map<PCodeFunctionIndex.Entry,PCodeFunction> loaded = new HashMap<PCodeFunctionIndex.Entry,PCodeFunction>();
+
+	PCodeLazyLoader(PCodeProgram program, PCodeFunctionIndex index, PCodeStreamParser parser) {
+		this.program = program;
+		this.index = index;
+		this.parser = parser;
+		for (PCodeFunctionIndex.Entry e : index.entries) {
+			if (e.name != null) byName.put(e.name, e);
+			if (e.entry != null) byEntry.put(e.entry, e);
+		}
+	}
+
+	public synchronized PCodeFunction load(String name) {
+		PCodeFunctionIndex.Entry e = byName.get(name);
+		return e == null ? null : load(e);
+	}
+
+	// Load the function whose entry point is the closest one at or below
+	// macroOffset, if macroOffset is no further on than its last op.
+	// Returns false if that function was already loaded (or there is no
+	// such function, macroOffset being in a gap between two), meaning
+	// nothing new can be found there.
+	public synchronized boolean loadContaining(long macroOffset) {
+		Map.Entry<Long,PCodeFunctionIndex.Entry> floor = byEntry.floorEntry(macroOffset);
+		if (floor == null || loaded.containsKey(floor.getValue())) {
+			return false;
+		}
+		PCodeFunctionIndex.Entry e = floor.getValue();
+		if (floor.getKey() != macroOffset && (e.last == null || UnsignedLong.compare(macroOffset, e.last) > 0)) {
+			return false;
+		}
+		load(e);
+		return true;
+	}
+
+	public synchronized void loadAll() {
+		for (PCodeFunctionIndex.Entry e : index.entries) {
+			load(e);
+		}
+	}
+
+	public synchronized String nameAt(long entry) {
+		PCodeFunctionIndex.Entry e = byEntry.get(entry);
+		return e == null ? null : e.name;
+	}
+
+	public boolean isFullyLoaded() {
+		return loaded.size() == index.size();
+	}
+
+	private PCodeFunction load(PCodeFunctionIndex.Entry e) {
+		PCodeFunction f = loaded.get(e);
+		if (f != null) return f;
+		int firstOp = program.codeSegment.microOps.size();
+		try {
+			f = parser.parseFunctionAt(index, e);
+		} catch (Exception ex) {
+			throw new Error("Unable to load function at line " + e.startLine + " of " + index.file, ex);
+		}
+		loaded.put(e, f);
+		program.codeSegment.resolveTargets(firstOp);
+		return f;
+	}
+}
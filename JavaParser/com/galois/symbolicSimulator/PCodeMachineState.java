@@ -1,26 +1,37 @@
 package com.galois.symbolicSimulator;
 
-import java.math.BigInteger;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
-import java.util.Iterator;
 
-// Machine state needed for interpreting PCode programs
+// Machine state needed for interpreting PCode programs.  Everything a
+// run changes lives here; the program itself is only read, so any number
+// of machine states, on any number of threads, can share one program.
+// RAM starts out as the program's data segment and is copied a page at a
+// time as it is written.
 public class PCodeMachineState {
 	int microPC; // index into microOps
 	
 	PCodeProgram program;
 	Dictionary<String,PCodeSpace> spaces;
+	PCodeUniqueSpace uniques;
+	PCodeSpace ram;
+	PCodeWriteObserver observer;
+	PCodeUninitializedReads uninitialized = new PCodeUninitializedReads();
 		
 	public PCodeMachineState(PCodeProgram p) {
 		program = p;
 		microPC = -1;
 		spaces = new Hashtable<String,PCodeSpace>();
-		spaces.put("register", new PCodeSpace("register", p.archSpec));
-		spaces.put("unique",   new PCodeSpace("unique",   p.archSpec));
+		spaces.put("register", new PCodeRegisterSpace(p.archSpec, p.registerFileSize()));
+		uniques = new PCodeUniqueSpace(p.archSpec);
+		spaces.put("unique",   uniques);
 		spaces.put("const",    new PCodeSpace("const",    p.archSpec));
-		spaces.put("ram",      program.dataSegment);
+		ram = program.dataSegment.overlay();
+		spaces.put("ram",      ram);
+		for (Enumeration<PCodeSpace> e = spaces.elements(); e.hasMoreElements();) {
+			e.nextElement().uninit = uninitialized;
+		}
 	}
 
 	public PCodeSpace getSpace(String spaceName) {
@@ -31,6 +42,8 @@ public class PCodeMachineState {
 		PCodeSpace ret = spaces.get(spaceName);
 		if (ret == null) {
 			ret = new PCodeSpace(spaceName, program.archSpec);
+			ret.observer = observer;
+			ret.uninit = uninitialized;
 			spaces.put(spaceName, ret);
 			// System.out.println("creating space " + spaceName);
 		}
@@ -47,28 +60,67 @@ public class PCodeMachineState {
 		return ret;
 	}
 
+	// Temporaries don't outlive the machine instruction that made them,
+	// so the interpreter empties the unique space between instructions
+	public void resetUniques() {
+		uniques.reset();
+	}
+
+	// forget every register and temporary, so the state can be used for
+	// another run (zeroing the registers rather than leaving them
+	// uninitialized if asked); RAM is left alone
+	public void clearRegisters(boolean zero) {
+		PCodeRegisterSpace regs = (PCodeRegisterSpace) spaces.get("register");
+		if (zero) {
+			regs.zero();
+		} else {
+			regs.clear();
+		}
+		uniques.clear();
+	}
+
+	// keep every temporary around, e.g. to look at them in the debugger
+	public void setRetainUniques(boolean retain) {
+		uniques.retain = retain;
+	}
+
+	// Tell o (or, given null, no one) before any space is written
+	public void setWriteObserver(PCodeWriteObserver o) {
+		observer = o;
+		for (Enumeration<PCodeSpace> e = spaces.elements(); e.hasMoreElements();) {
+			e.nextElement().observer = o;
+		}
+	}
+
+	// what reads of never-written bytes do, and the ones recorded so far
+	public PCodeUninitializedReads getUninitializedReads() {
+		return uninitialized;
+	}
+
 	public PCodeSpace getRAMspace() {
-		return program.dataSegment;
+		return ram;
+	}
+
+	// RAM back to the program's data segment
+	public void resetRAM() {
+		ram.contents = new PagedMemory(program.dataSegment.contents);
 	}
 
+	// Starts afresh: registers and temporaries uninitialized, RAM as loaded
 	public void initMachineState() throws Exception {
-		for (Iterator<Varnode> e = program.varnodes.iterator(); e.hasNext(); ) {
-			Varnode v = e.next();
-			if (v.space == null) {
-				v.space = getSpace(v.space_name);
-			}
-		}
+		clearRegisters(false);
+		resetRAM();
 	}
 	
 	public void initMachineStateForFunctionCall() throws Exception {
 		
 		PCodeSpace regs = spaces.get("register");
-		Varnode rbp = new Varnode(regs, BigInteger.valueOf(0x28l), 8);
-		Varnode rsp = new Varnode(regs, BigInteger.valueOf(0x20l), 8);
-		Varnode r14 = new Varnode(regs, BigInteger.valueOf(0xb0l), 8);
-		Varnode rbx = new Varnode(regs, BigInteger.valueOf(0x18l), 8);
-		Varnode rdi = new Varnode(regs, BigInteger.valueOf(0x38l), 8); // input
-		Varnode rax = new Varnode(regs, BigInteger.ZERO, 8); // output
+		Varnode rbp = new Varnode(regs, 0x28l, 8);
+		Varnode rsp = new Varnode(regs, 0x20l, 8);
+		Varnode r14 = new Varnode(regs, 0xb0l, 8);
+		Varnode rbx = new Varnode(regs, 0x18l, 8);
+		Varnode rdi = new Varnode(regs, 0x38l, 8); // input
+		Varnode rax = new Varnode(regs, 0, 8); // output
 		rbp.storeImmediateUnsigned(0x4000l); 
 		rsp.storeImmediateUnsigned(0x4000l);
 		r14.storeImmediateUnsigned(0x2l);
@@ -76,6 +128,6 @@ public class PCodeMachineState {
 		rdi.storeImmediateUnsigned(0x7l); // asking for fib(7), which should be 13 (0xd)
 		rax.storeImmediateUnsigned(0xcafel);
 		// initialize the stack at least a bit:
-		rsp.storeIndirect(rax, program.dataSegment);
+		rsp.storeIndirect(rax, ram);
 	}
 }
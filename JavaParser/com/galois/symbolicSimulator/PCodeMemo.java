@@ -0,0 +1,475 @@
+package com.galois.symbolicSimulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Remembers what calls to side-effect-free functions came back with, so
+// a call made again with the same inputs returns at once: _fib(n) then
+// takes linear rather than exponential time.  A function is memoized if
+// declared free of side effects, or if addProven() can see that it is.
+//
+// A call's inputs are its footprint: the bytes of the argument registers
+// and of RAM outside its own stack frame that it read before writing.
+// Its outputs are the result register and the RAM outside its frame that
+// it wrote.  The frame is the stack below where the call found it (plus
+// the pushed return address), which is dead once the call returns; so is
+// every register but the result, as far as the calling convention goes.
+// A cached call therefore leaves those as they were, where running it
+// would have left them clobbered.
+//
+// The first call with a given footprint runs as usual while the spaces
+// report its reads and writes here.  Its footprint's addresses, its shape,
+// are kept with the function (most functions only ever have one), and
+// the next call looks up the values now at each shape's addresses.
+// Entries go least recently used first once there are capacity of them.
+public class PCodeMemo {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	static final long FRAME_LIMIT = 1 << 20; // how far below its entry stack pointer a call's frame may reach
+	static final int MAX_SHAPES = 16; // per function; calls with other footprints aren't cached
+
+	// the addresses a call read, register bytes then RAM bytes
+	static class Shape {
+		final long[] regs;
+		final long[] ram;
+
+		Shape(long[] regs, long[] ram) {
+			this.regs = regs;
+			this.ram = ram;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Shape && Arrays.equals(regs, ((Shape) o).regs) && Arrays.equals(ram, ((Shape) o).ram);
+		}
+
+		public int hashCode() {
+			return Arrays.hashCode(regs) * 31 + Arrays.hashCode(ram);
+		}
+	}
+
+	// a function's shape and the values at its addresses, -1 for unwritten
+	static class Key {
+		final Shape shape;
+		final int[] values;
+		final int hash;
+
+		Key(Shape shape, int[] values) {
+			this.shape = shape;
+			this.values = values;
+			this.hash = System.identityHashCode(shape) * 31 + Arrays.hashCode(values);
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).shape == shape && Arrays.equals(values, ((Key) o).values);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	static class Outputs {
+		final long result;
+		final long[] addrs; // RAM written outside the frame
+		final byte[] bytes;
+
+		Outputs(long result, long[] addrs, byte[] bytes) {
+			this.result = result;
+			this.addrs = addrs;
+			this.bytes = bytes;
+		}
+	}
+
+	// a call being recorded
+	static class Frame {
+		final int pc;        // function entry
+		final int returnPC;
+		final long exitSp;   // stack pointer once returned
+		final long frameLow; // the frame is [frameLow, exitSp)
+		final TreeMap<Long,Integer> regRead = new TreeMap<Long,Integer>();
+		final TreeMap<Long,Integer> ramRead = new TreeMap<Long,Integer>(UnsignedLong.ORDER);
+		final BitSet regWritten = new BitSet();
+		final Set<Long> ramWritten = new HashSet<Long>();
+
+		Frame(int pc, int returnPC, long exitSp) {
+			this.pc = pc;
+			this.returnPC = returnPC;
+			this.exitSp = exitSp;
+			this.frameLow = exitSp - FRAME_LIMIT;
+		}
+
+		boolean inFrame(long addr) {
+			return UnsignedLong.compare(addr - frameLow, FRAME_LIMIT) < 0;
+		}
+	}
+
+	PCodeProgram program;
+	PCodeCallingConvention convention;
+	BitSet entries = new BitSet(); // micro PCs of memoized functions
+	Map<Integer,String> names = new HashMap<Integer,String>();
+	Map<Integer,List<Shape>> shapes = new HashMap<Integer,List<Shape>>();
+	BitSet argBytes = new BitSet(); // register bytes that are arguments
+	LinkedHashMap<Key,Outputs> cache;
+	int capacity;
+
+	List<Frame> frames = new ArrayList<Frame>(); // innermost last
+	PCodeSpace regs, ram; // reporting to us while frames is non-empty
+	int suspended; // > 0 while we read and write the spaces ourselves
+
+	long hits, misses, evictions;
+
+	public PCodeMemo(PCodeProgram program, PCodeCallingConvention convention) {
+		this(program, convention, DEFAULT_CAPACITY);
+	}
+
+	public PCodeMemo(PCodeProgram program, PCodeCallingConvention convention, int capacity) {
+		this.program = program;
+		this.convention = convention;
+		this.capacity = capacity;
+		for (long r : convention.argRegs) {
+			argBytes.set((int) r, (int) r + convention.wordSize);
+		}
+		cache = new LinkedHashMap<Key,Outputs>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key,Outputs> eldest) {
+				if (size() <= PCodeMemo.this.capacity) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	// Memoize calls to the named function, taking its word that it has no
+	// side effects; false if there's no such function with a body
+	public boolean declare(String function) throws Exception {
+		PCodeFunction f = program.lookupFunction(function);
+		if (f == null || f.basicBlocks.isEmpty()) return false;
+		int pc = program.codeSegment.microAddrOfVarnode(f.macroEntryPoint);
+		entries.set(pc);
+		names.put(pc, f.name);
+		return true;
+	}
+
+	// Memoize every function that can be seen to have no side effects: it
+	// writes no RAM varnode, every STORE's pointer is the stack pointer
+	// register itself (a push), and it only calls itself or other such
+	// functions (no indirect jumps or calls, no CALLOTHER, nothing
+	// external).  That's all we check, so a function whose stores are in
+	// its frame but go through the frame pointer, or a temporary worked
+	// out from either, isn't taken; declare() it by name instead.
+	// Returns their names.
+	public List<String> addProven() throws Exception {
+		Map<Integer,PCodeFunction> candidates = new HashMap<Integer,PCodeFunction>();
+		for (String name : program.getFunctionNames()) {
+			PCodeFunction f = program.lookupFunction(name);
+			if (f != null && !f.basicBlocks.isEmpty()) {
+				candidates.put(program.codeSegment.microAddrOfVarnode(f.macroEntryPoint), f);
+			}
+		}
+		// drop any that call one that isn't pure, until none do
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (Integer pc : new ArrayList<Integer>(candidates.keySet())) {
+				if (!pure(pc, candidates.get(pc), candidates)) {
+					candidates.remove(pc);
+					changed = true;
+				}
+			}
+		}
+		List<String> added = new ArrayList<String>();
+		for (Map.Entry<Integer,PCodeFunction> e : candidates.entrySet()) {
+			entries.set(e.getKey());
+			names.put(e.getKey(), e.getValue().name);
+			added.add(e.getValue().name);
+		}
+		return added;
+	}
+
+	private boolean pure(int start, PCodeFunction f, Map<Integer,PCodeFunction> candidates) {
+		PCodeCodeSpace code = program.codeSegment;
+		for (int pc = start; pc < start + f.length; pc++) {
+			PCodeOp op = code.fetch(pc);
+			if (op.output != null && op.output.space_name.equals("ram")) return false; // a global, directly
+			switch (op.opcode) {
+				case STORE:
+					Varnode ptr = op.input0;
+					if (!ptr.space_name.equals("register") || ptr.offset != convention.stackPointer) return false;
+					break;
+				case BRANCHIND: // a stub's jump to its library, or a table we can't follow
+				case CALLIND:
+				case CALLOTHER:
+					return false;
+				case CALL:
+				case BRANCH:
+				case CBRANCH:
+					if (op.input0.space_name.equals("const")) break; // within the instruction
+					int target;
+					try {
+						target = code.microAddrOfMacroInstr(op.input0.offset);
+					} catch (Exception e) {
+						return false; // external
+					}
+					if (target >= start && target < start + f.length && op.opcode != PCodeOp.PCodeOpCode.CALL) break;
+					if (!candidates.containsKey(target)) return false;
+					break;
+				default:
+					break;
+			}
+		}
+		return true;
+	}
+
+	// At the start of each step: finish recording any call that has just
+	// returned, then, at the entry of a memoized function, return from it
+	// at once if the call is in the cache.  True if it was.
+	boolean enter(PCodeMachineState m) throws Exception {
+		while (!frames.isEmpty() && returned(m, frames.get(frames.size() - 1))) {
+			finish(frames.remove(frames.size() - 1), m);
+		}
+		if (!entries.get(m.microPC)) return false;
+		int pc = m.microPC;
+		PCodeSpace r = m.getSpace("register");
+		PCodeSpace mem = m.getRAMspace();
+		suspended++;
+		try {
+			List<Shape> ss = shapes.get(pc);
+			if (ss != null) {
+				for (Shape s : ss) {
+					Outputs out = cache.get(new Key(s, values(s, r, mem)));
+					if (out != null) {
+						hits++;
+						suspended--;
+						try {
+							replay(s, out, m, r, mem);
+						} finally {
+							suspended++;
+						}
+						return true;
+					}
+				}
+			}
+			misses++;
+			long sp = r.loadLong(convention.stackPointer, convention.wordSize);
+			long ret;
+			long exitSp = sp;
+			if (convention.linkRegister >= 0) {
+				ret = r.loadLong(convention.linkRegister, convention.wordSize);
+			} else {
+				ret = mem.loadLong(sp, convention.wordSize);
+				exitSp += convention.wordSize;
+			}
+			int returnPC;
+			try {
+				returnPC = program.codeSegment.microAddrOfMacroInstr(ret);
+			} catch (Exception e) {
+				return false; // returns out of the program, so we'd never see it finish
+			}
+			frames.add(new Frame(pc, returnPC, exitSp));
+			attach(r, mem);
+			return false;
+		} finally {
+			suspended--;
+		}
+	}
+
+	// the values now at s's addresses
+	private static int[] values(Shape s, PCodeSpace r, PCodeSpace mem) {
+		int[] v = new int[s.regs.length + s.ram.length];
+		for (int i = 0; i < s.regs.length; i++) {
+			v[i] = r.readByte(s.regs[i]);
+		}
+		for (int i = 0; i < s.ram.length; i++) {
+			v[s.regs.length + i] = mem.readByte(s.ram[i]);
+		}
+		return v;
+	}
+
+	// a cached call, as far as its caller can tell
+	private void replay(Shape s, Outputs out, PCodeMachineState m, PCodeSpace r, PCodeSpace mem) throws Exception {
+		// whoever is being recorded read what this call would have
+		if (!frames.isEmpty()) {
+			for (long a : s.regs) read(r, a, 1);
+			for (long a : s.ram) read(mem, a, 1);
+		}
+		for (int i = 0; i < out.addrs.length; i++) {
+			mem.writeByte(out.addrs[i], out.bytes[i] & 0xff);
+		}
+		long ret = convention.returnFrom(m, out.result);
+		m.microPC = program.codeSegment.microAddrOfMacroInstr(ret);
+	}
+
+	private boolean returned(PCodeMachineState m, Frame f) {
+		if (m.microPC != f.returnPC) return false;
+		suspended++;
+		try {
+			return m.getSpace("register").loadLong(convention.stackPointer, convention.wordSize) == f.exitSp;
+		} finally {
+			suspended--;
+		}
+	}
+
+	private void finish(Frame f, PCodeMachineState m) {
+		if (frames.isEmpty()) detach();
+		suspended++;
+		try {
+			store(f, m);
+		} finally {
+			suspended--;
+		}
+	}
+
+	private void store(Frame f, PCodeMachineState m) {
+		List<Shape> ss = shapes.get(f.pc);
+		if (ss == null) {
+			ss = new ArrayList<Shape>();
+			shapes.put(f.pc, ss);
+		}
+		Shape s = new Shape(keys(f.regRead), keys(f.ramRead));
+		int i = ss.indexOf(s);
+		if (i >= 0) {
+			s = ss.get(i);
+		} else if (ss.size() < MAX_SHAPES) {
+			ss.add(s);
+		} else {
+			return;
+		}
+		int[] values = new int[s.regs.length + s.ram.length];
+		int n = 0;
+		for (int v : f.regRead.values()) values[n++] = v;
+		for (int v : f.ramRead.values()) values[n++] = v;
+		PCodeSpace mem = m.getRAMspace();
+		long[] addrs = new long[f.ramWritten.size()];
+		byte[] bytes = new byte[addrs.length];
+		n = 0;
+		for (long a : f.ramWritten) {
+			int b = mem.readByte(a);
+			if (b < 0) continue;
+			addrs[n] = a;
+			bytes[n++] = (byte) b;
+		}
+		PCodeSpace r = m.getSpace("register");
+		long result = r.readByte(convention.resultReg) < 0 ? 0 : r.loadLong(convention.resultReg, convention.wordSize);
+		cache.put(new Key(s, values), new Outputs(result, Arrays.copyOf(addrs, n), Arrays.copyOf(bytes, n)));
+	}
+
+	private static long[] keys(TreeMap<Long,Integer> m) {
+		long[] k = new long[m.size()];
+		int i = 0;
+		for (long a : m.keySet()) k[i++] = a;
+		return k;
+	}
+
+	private void attach(PCodeSpace r, PCodeSpace mem) {
+		regs = r;
+		ram = mem;
+		r.memo = this;
+		mem.memo = this;
+	}
+
+	private void detach() {
+		if (regs != null) regs.memo = null;
+		if (ram != null) ram.memo = null;
+		regs = ram = null;
+	}
+
+	// recording a call, so compiled blocks (which don't report what they
+	// touch) have to wait
+	boolean recording() {
+		return !frames.isEmpty();
+	}
+
+	// Forget the calls being recorded, as when a run ends partway through them
+	public void abandon() {
+		frames.clear();
+		detach();
+	}
+
+	// s reported a read of size bytes at addr
+	void read(PCodeSpace s, long addr, int size) {
+		if (suspended > 0) return;
+		suspended++; // reading the byte ourselves mustn't come back here
+		try {
+			readBytes(s, addr, size);
+		} finally {
+			suspended--;
+		}
+	}
+
+	private void readBytes(PCodeSpace s, long addr, int size) {
+		boolean isRegs = s == regs;
+		for (int i = 0; i < size; i++) {
+			long a = addr + i;
+			if (isRegs && !argBytes.get((int) a)) continue;
+			int v = -2; // not read yet
+			for (Frame f : frames) {
+				if (isRegs) {
+					if (f.regWritten.get((int) a) || f.regRead.containsKey(a)) continue;
+					if (v == -2) v = s.readByte(a);
+					f.regRead.put(a, v);
+				} else {
+					if (f.inFrame(a) || f.ramWritten.contains(a) || f.ramRead.containsKey(a)) continue;
+					if (v == -2) v = s.readByte(a);
+					f.ramRead.put(a, v);
+				}
+			}
+		}
+	}
+
+	// s reported a write of size bytes at addr, before making it
+	void write(PCodeSpace s, long addr, int size) {
+		if (suspended > 0) return;
+		boolean isRegs = s == regs;
+		for (int i = 0; i < size; i++) {
+			long a = addr + i;
+			for (Frame f : frames) {
+				if (isRegs) {
+					if (argBytes.get((int) a)) f.regWritten.set((int) a);
+				} else if (!f.inFrame(a)) {
+					f.ramWritten.add(a);
+				}
+			}
+		}
+	}
+
+	public long hits() {
+		return hits;
+	}
+
+	public long misses() {
+		return misses;
+	}
+
+	public long evictions() {
+		return evictions;
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	public double hitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	// empty the cache and start counting afresh
+	public void clear() {
+		abandon();
+		cache.clear();
+		shapes.clear();
+		hits = misses = evictions = 0;
+	}
+
+	public String toString() {
+		return String.format("%d hits, %d misses (%.1f%%), %d cached, %d evicted",
+				hits, misses, 100 * hitRate(), cache.size(), evictions);
+	}
+}
@@ -0,0 +1,60 @@
+package com.galois.symbolicSimulator;
+
+// A micro-op decoded against one machine state (see PCodeDecoder).  Its
+// operands point straight at the spaces that hold them, constants are
+// already masked to size, and direct branch targets are already micro PCs,
+// so running it is a single virtual call.
+abstract class PCodeNode {
+	final PCodeOp op;
+	final boolean macroStart; // first micro-op of a machine instruction
+	int skip; // ops after this one that were optimized away (see PCodeOptimizer)
+	int skippedInstructions; // how many of those start a machine instruction
+
+	PCodeNode(PCodeOp op) {
+		this.op = op;
+		macroStart = op.uniq == 0;
+	}
+
+	// Runs the op.  next is the micro PC of the op that follows this one;
+	// returns the micro PC to run after it.
+	abstract int exec(int next) throws Exception;
+
+	// a varnode of up to 8 bytes, resolved to where it lives; only a
+	// Storage can be written, as the decoder won't have a constant output
+	static abstract class Operand {
+		abstract long get() throws Exception;
+	}
+
+	static final class Const extends Operand {
+		final long value;
+
+		Const(Varnode v) {
+			value = v.constValue();
+		}
+
+		long get() {
+			return value;
+		}
+	}
+
+	static final class Storage extends Operand {
+		final PCodeSpace space;
+		final long offset;
+		final int size;
+
+		Storage(PCodeSpace space, Varnode v) {
+			this.space = space;
+			offset = v.offset;
+			size = v.size;
+		}
+
+		// uninitialized bytes are up to the machine state's policy
+		long get() {
+			return space.loadLong(offset, size);
+		}
+
+		void set(long v) {
+			space.storeLong(offset, size, v);
+		}
+	}
+}
@@ -9,8 +9,9 @@ public class PCodeOp {
 	Varnode input0 = null;
 	Varnode output = null;
 	Varnode input1 = null;
-	BigInteger offset;
+	long offset; // unsigned
 	int uniq;
+	int target = -1; // micro PC of a direct branch's destination, once resolved
 	boolean blockStart = false;
 	boolean funcStart = false; // if this is the first op in a fn
 	PCodeFunction function = null;
@@ -23,7 +24,7 @@ public class PCodeOp {
 		output = o;		
 	}
 
-        public PCodeOp(PCodeOpCode code, String sid, Varnode o, Varnode i0, Varnode i1, BigInteger off, int u, boolean firstInBlock, boolean firstInFunc, PCodeFunction func) {
+        public PCodeOp(PCodeOpCode code, String sid, Varnode o, Varnode i0, Varnode i1, long off, int u, boolean firstInBlock, boolean firstInFunc, PCodeFunction func) {
 		opcode = code;
 		space_id = sid;
 		input0 = i0;
@@ -41,6 +42,19 @@ public class PCodeOp {
 		input0 = i0;
 	}
 	
+	// a copy whose varnodes are in s's spaces, for running against s
+	PCodeOp bind(PCodeMachineState s) {
+		PCodeOp b = new PCodeOp(opcode, space_id, bind(output, s), bind(input0, s), bind(input1, s),
+				offset, uniq, blockStart, funcStart, function);
+		b.target = target;
+		b.loc = loc;
+		return b;
+	}
+
+	private static Varnode bind(Varnode v, PCodeMachineState s) {
+		return v == null ? null : v.bind(s);
+	}
+
         public boolean isBranch() {
 	        switch(opcode) {
 			case BRANCH:
@@ -52,6 +66,11 @@ public class PCodeOp {
 		}
 	}
 
+	// offset as a non-negative BigInteger, for callers that need one
+	public BigInteger bigOffset() {
+		return UnsignedLong.toBigInteger(offset);
+	}
+
 	public String toString() {
 		return toString(null);
 	}
@@ -59,14 +78,14 @@ public class PCodeOp {
 		String ret = "";
 		if (blockStart) {
 			if (funcStart) {
-				ret += "<function " + function.name + " @ 0x" + offset.toString(16) + ">\n";
+				ret += "<function " + function.name + " @ 0x" + Long.toHexString(offset) + ">\n";
 			} else {
-				ret += "<block@" + offset.toString(16) + ">\n";
+				ret += "<block@" + Long.toHexString(offset) + ">\n";
 			}
 		}
 		ret += "  ";
 		if (uniq > 0) ret += "  ";
-		ret += "0x" + offset.toString(16) + " (" + uniq + "): ";
+		ret += "0x" + Long.toHexString(offset) + " (" + uniq + "): ";
 		ret += opcode.name() + " ";
 		if (space_id != null) { ret += "{" + space_id + "} "; }
 		if (output != null) ret += output.toString();
@@ -0,0 +1,479 @@
+package com.galois.symbolicSimulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.galois.symbolicSimulator.PCodeOp.PCodeOpCode;
+
+// A peephole pass over the micro-ops of one basic block at a time, as
+// Ghidra's lifting leaves plenty to tidy up: values copied through a chain
+// of temporaries, arithmetic on constants, "XOR EAX,EAX", a SUBPIECE of
+// an INT_ZEXT.  Within a block it
+//
+//   - propagates copies: a read of a register or temporary known to hold
+//     a copy of another (or a constant) reads that instead;
+//   - folds constants: an op on constants becomes a COPY of its result;
+//   - simplifies: x+0, x*1, x&0, x^x, a SUBPIECE undoing an extension...
+//     become COPYs of x or of a constant;
+//   - drops dead temporaries: an op whose only effect is to write a
+//     unique varnode that nothing later in its instruction reads.
+//
+// The ops keep their micro PCs: fetch(pc) is the op to run in place of
+// the one at pc, null if there's nothing left to run there, so branch
+// targets, breakpoints, coverage and listings see the program as parsed.
+// An op that was dropped only wrote a dead temporary, so running it anyway,
+// as the interpreter does when a jump lands on it, does no harm.
+//
+// What's known is forgotten at the start of each block (where other
+// paths join), after each call (which returns into the middle of a block,
+// and can change anything), and around instructions with branches of
+// their own between micro-ops, which are left as they are.  Register and
+// RAM writes are never dropped.  Like PCodeDecoder, a block is only looked
+// at the first time something asks for one of its ops, and one optimizer
+// serves one machine state or translation, so nothing needs locking.
+public class PCodeOptimizer {
+	PCodeCodeSpace code;
+	PCodeArchSpec arch;
+	PCodeOp[] ops = new PCodeOp[0];
+	BitSet done = new BitSet(); // micro PCs whose block has been optimized
+	int rewritten, removed;
+
+	// holds a copy of src (COPY), or src zero- or sign-extended (INT_ZEXT, INT_SEXT)
+	static class Fact {
+		final Varnode dest;
+		final PCodeOpCode how;
+		final Varnode src;
+
+		Fact(Varnode dest, PCodeOpCode how, Varnode src) {
+			this.dest = dest;
+			this.how = how;
+			this.src = src;
+		}
+	}
+
+	public PCodeOptimizer(PCodeProgram program) {
+		code = program.codeSegment;
+		arch = program.archSpec;
+	}
+
+	// The op to run in place of the one at micro PC pc, or null if it has
+	// been optimized away
+	public PCodeOp fetch(int pc) {
+		if (!done.get(pc)) {
+			optimizeBlock(pc);
+		}
+		return ops[pc];
+	}
+
+	// the micro PC of the first op after pc still there, stopping at the
+	// next block; everything in between has been optimized away
+	public int next(int pc) {
+		int n = code.microOps.size();
+		int k = pc + 1;
+		while (k < n && !code.fetch(k).blockStart && fetch(k) == null) {
+			k++;
+		}
+		return k;
+	}
+
+	// ops rewritten and removed in the blocks looked at so far
+	public int rewritten() {
+		return rewritten;
+	}
+
+	public int removed() {
+		return removed;
+	}
+
+	private void optimizeBlock(int pc) {
+		int n = code.microOps.size();
+		if (ops.length < n) {
+			ops = Arrays.copyOf(ops, n);
+		}
+		int start = pc;
+		while (start > 0 && !code.fetch(start).blockStart) {
+			start--;
+		}
+		int end = pc + 1;
+		while (end < n && !code.fetch(end).blockStart) {
+			end++;
+		}
+		List<Fact> facts = new ArrayList<Fact>();
+		for (int i = start; i < end; ) {
+			int j = i + 1;
+			while (j < end && code.fetch(j).uniq != 0) {
+				j++;
+			}
+			// the last instruction's temporaries are gone
+			for (int f = facts.size() - 1; f >= 0; f--) {
+				if (unique(facts.get(f).dest) || unique(facts.get(f).src)) facts.remove(f);
+			}
+			if (branchesWithin(i, j)) {
+				for (int k = i; k < j; k++) {
+					ops[k] = code.fetch(k);
+				}
+				facts.clear();
+			} else {
+				for (int k = i; k < j; k++) {
+					ops[k] = simplify(code.fetch(k), facts);
+				}
+				removeDead(i, j);
+			}
+			i = j;
+		}
+		for (int k = start; k < end; k++) {
+			if (ops[k] == null) {
+				removed++;
+			} else if (ops[k] != code.fetch(k)) {
+				rewritten++;
+			}
+		}
+		done.set(start, end);
+	}
+
+	// does the instruction [i, j) branch to one of its own micro-ops
+	private boolean branchesWithin(int i, int j) {
+		for (int k = i; k < j; k++) {
+			PCodeOp op = code.fetch(k);
+			if ((op.opcode == PCodeOpCode.BRANCH || op.opcode == PCodeOpCode.CBRANCH) && constant(op.input0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// op as it can be run given facts, which it then updates
+	private PCodeOp simplify(PCodeOp op, List<Fact> facts) {
+		switch (op.opcode) {
+			case CALL:
+			case CALLIND:
+			case CALLOTHER:
+				facts.clear();
+				return op;
+			default:
+				break;
+		}
+		// a direct branch's input0 is where it goes, not a value
+		boolean direct = op.opcode == PCodeOpCode.BRANCH || op.opcode == PCodeOpCode.CBRANCH;
+		Varnode in0 = direct ? op.input0 : substitute(op.opcode, op.input0, facts);
+		Varnode in1 = substitute(op.opcode, op.input1, facts);
+		PCodeOp r = op;
+		Varnode value = op.output == null || op.output.size > 8 ? null : value(op.opcode, in0, in1, op.output, facts);
+		if (value != null) {
+			r = rewrite(op, PCodeOpCode.COPY, value, null);
+		} else if (in0 != op.input0 || in1 != op.input1) {
+			r = rewrite(op, op.opcode, in0, in1);
+		}
+		learn(r, facts);
+		return r;
+	}
+
+	private static PCodeOp rewrite(PCodeOp op, PCodeOpCode opcode, Varnode in0, Varnode in1) {
+		PCodeOp r = new PCodeOp(opcode, op.space_id, op.output, in0, in1, op.offset, op.uniq,
+				op.blockStart, op.funcStart, op.function);
+		r.target = op.target;
+		r.loc = op.loc;
+		return r;
+	}
+
+	// what v holds a copy of, if we know; else v
+	private static Varnode lookup(Varnode v, List<Fact> facts) {
+		if (v == null || !(unique(v) || register(v))) return v;
+		for (int i = facts.size() - 1; i >= 0; i--) {
+			Fact f = facts.get(i);
+			if (f.how == PCodeOpCode.COPY && same(f.dest, v)) return f.src;
+		}
+		return v;
+	}
+
+	// what an opcode op reads from v can read instead; constants only go
+	// where PCodeDecoder takes them as words, as doOp reads the bytes of
+	// wider ones its own way
+	private static Varnode substitute(PCodeOpCode opcode, Varnode v, List<Fact> facts) {
+		Varnode r = lookup(v, facts);
+		if (!constant(r) || r == v) return r;
+		if (r.size > 8) return v;
+		switch (opcode) {
+			case STORE:
+			case CBRANCH:
+			case BRANCHIND:
+			case RETURN:
+				return r;
+			default:
+				return pure(opcode) ? r : v;
+		}
+	}
+
+	private static Fact extension(Varnode v, List<Fact> facts) {
+		for (int i = facts.size() - 1; i >= 0; i--) {
+			Fact f = facts.get(i);
+			if (f.how != PCodeOpCode.COPY && same(f.dest, v)) return f;
+		}
+		return null;
+	}
+
+	// r has run: forget what its output overwrote, and learn what it holds
+	private static void learn(PCodeOp r, List<Fact> facts) {
+		Varnode out = r.output;
+		if (out == null) return;
+		for (int i = facts.size() - 1; i >= 0; i--) {
+			Fact f = facts.get(i);
+			if (overlaps(f.dest, out) || overlaps(f.src, out)) facts.remove(i);
+		}
+		Varnode in = r.input0;
+		if (!(unique(out) || register(out)) || in == null || overlaps(in, out)) return;
+		if (!(constant(in) || unique(in) || register(in))) return;
+		switch (r.opcode) {
+			case COPY:
+			case INT_ZEXT:
+			case INT_SEXT:
+				facts.add(new Fact(out, r.opcode, in));
+				break;
+			default:
+				break;
+		}
+	}
+
+	// the one varnode (perhaps a new constant) that op's output could
+	// just be a copy of, or null
+	private Varnode value(PCodeOpCode opcode, Varnode a, Varnode b, Varnode out, List<Fact> facts) {
+		if (a == null || a.size > 8 || (b != null && b.size > 8)) return null;
+		if (opcode == PCodeOpCode.COPY) return null; // as simple as it gets
+		Long folded = fold(opcode, a, b);
+		if (folded != null) return constant(folded, out.size);
+		Varnode v = simplified(opcode, a, b, facts);
+		return v != null && v.size == out.size ? v : null;
+	}
+
+	// op on constants, as PCodeInterpreter.doLongOp would do it; null if
+	// they aren't all constants, or the op can't be done ahead of time
+	static Long fold(PCodeOpCode opcode, Varnode in0, Varnode in1) {
+		if (!constant(in0)) return null;
+		long a = in0.constValue();
+		int n = in0.size;
+		switch (opcode) {
+			case INT_ZEXT:
+				return a;
+			case INT_SEXT:
+				return PCodeInterpreter.signExtend(a, n);
+			case INT_2COMP:
+				return -a;
+			case INT_NEGATE:
+				return ~a;
+			case BOOL_NEGATE:
+				return a == 0 ? 1L : 0L;
+			default:
+				break;
+		}
+		if (!constant(in1)) return null;
+		long b = in1.constValue();
+		long r;
+		switch (opcode) {
+			case INT_EQUAL:
+				return a == b ? 1L : 0L;
+			case INT_NOTEQUAL:
+				return a != b ? 1L : 0L;
+			case INT_LESS:
+				return UnsignedLong.compare(a, b) < 0 ? 1L : 0L;
+			case INT_LESSEQUAL:
+				return UnsignedLong.compare(a, b) <= 0 ? 1L : 0L;
+			case INT_SLESS:
+				return PCodeInterpreter.signExtend(a, n) < PCodeInterpreter.signExtend(b, in1.size) ? 1L : 0L;
+			case INT_SLESSEQUAL:
+				return PCodeInterpreter.signExtend(a, n) <= PCodeInterpreter.signExtend(b, in1.size) ? 1L : 0L;
+			case INT_ADD:
+				return a + b;
+			case INT_SUB:
+				return a - b;
+			case INT_CARRY:
+				return UnsignedLong.compare((a + b) & PCodeInterpreter.mask(n), a) < 0 ? 1L : 0L;
+			case INT_SCARRY:
+				a = PCodeInterpreter.signExtend(a, n);
+				b = PCodeInterpreter.signExtend(b, n);
+				r = PCodeInterpreter.signExtend(a + b, n);
+				return ((a ^ r) & (b ^ r)) < 0 ? 1L : 0L;
+			case INT_SBORROW:
+				a = PCodeInterpreter.signExtend(a, n);
+				b = PCodeInterpreter.signExtend(b, n);
+				r = PCodeInterpreter.signExtend(a - b, n);
+				return ((a ^ b) & (a ^ r)) < 0 ? 1L : 0L;
+			case INT_XOR:
+				return a ^ b;
+			case INT_AND:
+				return a & b;
+			case INT_OR:
+				return a | b;
+			case INT_LEFT:
+				return UnsignedLong.compare(b, 64) >= 0 ? 0 : a << b;
+			case INT_RIGHT:
+				return UnsignedLong.compare(b, 64) >= 0 ? 0 : a >>> b;
+			case INT_SRIGHT:
+				return PCodeInterpreter.signExtend(a, n) >> (UnsignedLong.compare(b, 64) >= 0 ? 63 : b);
+			case INT_MULT:
+				return a * b;
+			case BOOL_XOR:
+				return (a ^ b) & 1;
+			case BOOL_AND:
+				return a & b & 1;
+			case BOOL_OR:
+				return (a | b) & 1;
+			default:
+				return null; // division by zero is left to happen at run time
+		}
+	}
+
+	// the operand, or constant, an op on a and b comes to when it doesn't
+	// depend on their values; null if it does
+	private Varnode simplified(PCodeOpCode opcode, Varnode a, Varnode b, List<Fact> facts) {
+		switch (opcode) {
+			case INT_ZEXT:
+			case INT_SEXT:
+				return a;
+			case SUBPIECE:
+				if (!constant(b) || b.constValue() != 0) return null;
+				Fact ext = extension(a, facts);
+				return ext != null ? ext.src : a;
+			case INT_ADD:
+			case INT_OR:
+			case INT_XOR:
+				if (opcode != PCodeOpCode.INT_ADD && same(a, b)) {
+					return opcode == PCodeOpCode.INT_XOR ? constant(0, a.size) : a;
+				}
+				if (is(a, 0)) return b;
+				if (is(b, 0)) return a;
+				return null;
+			case INT_SUB:
+				if (is(b, 0)) return a;
+				if (same(a, b)) return constant(0, a.size);
+				return null;
+			case INT_LEFT:
+			case INT_RIGHT:
+			case INT_SRIGHT:
+				return is(b, 0) ? a : null;
+			case INT_MULT:
+				if (is(a, 1)) return b;
+				if (is(b, 1)) return a;
+				if (is(a, 0) || is(b, 0)) return constant(0, a.size);
+				return null;
+			case INT_AND:
+				if (is(a, 0) || is(b, 0)) return constant(0, a.size);
+				if (is(a, PCodeInterpreter.mask(a.size))) return b;
+				if (is(b, PCodeInterpreter.mask(b.size)) || same(a, b)) return a;
+				return null;
+			case INT_EQUAL:
+				return same(a, b) ? constant(1, 1) : null;
+			case INT_NOTEQUAL:
+				return same(a, b) ? constant(0, 1) : null;
+			default:
+				return null;
+		}
+	}
+
+	// Drops the ops of instruction [i, j) that only write temporaries
+	// nothing after them in it reads, last first
+	private void removeDead(int i, int j) {
+		Set<Long> live = new HashSet<Long>(); // bytes of the unique space
+		for (int k = j - 1; k >= i; k--) {
+			PCodeOp op = ops[k];
+			Varnode out = op.output;
+			if (out != null && unique(out)) {
+				if (pure(op.opcode) && !op.blockStart && !anyLive(live, out)) {
+					ops[k] = null;
+					continue;
+				}
+				for (int b = 0; b < out.size; b++) {
+					live.remove(out.offset + b);
+				}
+			}
+			addLive(live, op.input0);
+			addLive(live, op.input1);
+		}
+	}
+
+	private static boolean anyLive(Set<Long> live, Varnode v) {
+		for (int b = 0; b < v.size; b++) {
+			if (live.contains(v.offset + b)) return true;
+		}
+		return false;
+	}
+
+	private static void addLive(Set<Long> live, Varnode v) {
+		if (v == null || !unique(v)) return;
+		for (int b = 0; b < v.size; b++) {
+			live.add(v.offset + b);
+		}
+	}
+
+	// ops whose only effect is their output; division can throw, and the
+	// ops PCodeInterpreter.doOp warns about have effects of their own
+	private static boolean pure(PCodeOpCode opcode) {
+		switch (opcode) {
+			case COPY:
+			case LOAD:
+			case INT_EQUAL:
+			case INT_NOTEQUAL:
+			case INT_LESS:
+			case INT_SLESS:
+			case INT_LESSEQUAL:
+			case INT_SLESSEQUAL:
+			case INT_ZEXT:
+			case INT_SEXT:
+			case INT_ADD:
+			case INT_SUB:
+			case INT_CARRY:
+			case INT_SCARRY:
+			case INT_SBORROW:
+			case INT_2COMP:
+			case INT_NEGATE:
+			case INT_XOR:
+			case INT_AND:
+			case INT_OR:
+			case INT_LEFT:
+			case INT_RIGHT:
+			case INT_SRIGHT:
+			case INT_MULT:
+			case BOOL_NEGATE:
+			case BOOL_XOR:
+			case BOOL_AND:
+			case BOOL_OR:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	// a constant varnode of size bytes; these belong to no program, like
+	// the varnodes the parallel parser makes
+	private Varnode constant(long value, int size) {
+		return new Varnode(arch, "const", value & PCodeInterpreter.mask(size), size);
+	}
+
+	private static boolean is(Varnode v, long value) {
+		return constant(v) && v.constValue() == (value & PCodeInterpreter.mask(v.size));
+	}
+
+	private static boolean constant(Varnode v) {
+		return v != null && "const".equals(v.space_name);
+	}
+
+	private static boolean unique(Varnode v) {
+		return v != null && "unique".equals(v.space_name);
+	}
+
+	private static boolean register(Varnode v) {
+		return v != null && "register".equals(v.space_name);
+	}
+
+	private static boolean same(Varnode a, Varnode b) {
+		return a.offset == b.offset && a.size == b.size && a.space_name.equals(b.space_name);
+	}
+
+	private static boolean overlaps(Varnode a, Varnode b) {
+		return !constant(a) && a.space_name.equals(b.space_name)
+			&& a.offset < b.offset + b.size && b.offset < a.offset + a.size;
+	}
+}
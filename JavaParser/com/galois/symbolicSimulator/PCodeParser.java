@@ -21,10 +21,10 @@ import org.w3c.dom.NodeList;
 
 class AddrValuePair {
 	public AddrValuePair(String addr, String val) {
-		address = PCodeParser.parseBigHex(addr.substring(2));
+		address = UnsignedLong.parseHex(addr.substring(2));
 		value = Integer.parseInt(val.substring(2), 16);
 	}
-	BigInteger address;
+	long address;
 	Integer value;
 }
 
@@ -41,6 +41,16 @@ public class PCodeParser {
 	PCodeProgram program;
 	PrintStream out;
 
+	// when set, parseProgram() reads this file with PCodeStreamParser
+	// instead of walking a DOM built up front
+	String streamFile;
+	// number of threads the stream parser may use for function bodies;
+	// 1 parses the file front to back on the calling thread
+	int parallelism = 1;
+	// when set, only the function index is built up front and each
+	// function body is parsed the first time it is referenced
+	boolean lazy = false;
+
     void getDoc(String file)
 	throws Exception
     {
@@ -107,17 +117,32 @@ public class PCodeParser {
 	    }
 	}
 
+	// With streaming set, no DOM is built; the file is parsed
+	// from a StAX event stream when parseProgram() is called.
+	public PCodeParser(String file, PrintStream o, boolean streaming) {
+	    out = o;
+	    if (streaming) {
+		streamFile = file;
+	    } else {
+		try {
+		    getDoc(file);
+		} catch (Exception e) {
+		    e.printStackTrace();
+		}
+	    }
+	}
+
 	public static void main(String[] args) {
 		PrintStream out = System.out;
 		if (args.length == 0) {
 			out.println("Usage: PCodeParser pcodefile.xml");
 			return;
 		}
-		PCodeParser p = new PCodeParser(args[0], out);
-		p.parseProgram(p.topNodes);
+		PCodeProgram program = loadProgram(args[0], out);
 		Scanner in = new Scanner(System.in);
 		boolean done = false;
-		PCodeInterpreter interpreter = new PCodeInterpreter(p.program, out);
+		PCodeInterpreter interpreter = new PCodeInterpreter(program, out);
+		interpreter.setStubs(PCodeStubs.standard(out));
 		out.print("> ");
 		while (!done && in.hasNextLine()) {
 			String cmd = in.next();
@@ -130,8 +155,8 @@ public class PCodeParser {
 				done = interpreter.runInteractive(funcToRun, in); // TODO: parse and pass args
 			} else if (cmd.contains("bro")) {
 				out.println("Functions:");
-				for (PCodeFunction f : interpreter.p.getFunctions() ) {
-					out.println("name: " + f.name);
+				for (String name : interpreter.p.getFunctionNames() ) {
+					out.println("name: " + name);
 				}
 			} else {
 				out.println("{browse|run <func_name>|quit}");
@@ -141,7 +166,48 @@ public class PCodeParser {
 		out.println("Bye!");
 	}
 
+	// Loads a program from the binary cache next to file if it is up to date,
+	// otherwise stream-parses the XML and (re)writes the cache.
+	public static PCodeProgram loadProgram(String file, PrintStream out) {
+		PCodeProgram cached = PCodeProgramCache.load(file);
+		if (cached != null) {
+			return cached;
+		}
+		PCodeParser parser = new PCodeParser(file, out, true);
+		parser.setParallelism(Runtime.getRuntime().availableProcessors());
+		PCodeProgram program = parser.parseProgram();
+		try {
+			PCodeProgramCache.save(program, file);
+		} catch (java.io.IOException e) {
+			out.println("Warning: unable to write program cache: " + e.getMessage());
+		}
+		return program;
+	}
+
+	public void setParallelism(int threads) {
+		parallelism = Math.max(1, threads);
+	}
+
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
         public PCodeProgram parseProgram() {
+	    if (streamFile != null) {
+		try {
+		    PCodeStreamParser sp = new PCodeStreamParser(streamFile, out);
+		    if (lazy) {
+			program = sp.parseProgramLazy();
+		    } else if (parallelism > 1) {
+			program = sp.parseProgramParallel(parallelism);
+		    } else {
+			program = sp.parseProgram();
+		    }
+		} catch (Exception e) {
+		    throw new Error("Unable to parse " + streamFile, e);
+		}
+		return program;
+	    }
 	    return parseProgram(this.topNodes);
 	}
 
@@ -166,6 +232,7 @@ public class PCodeParser {
 				program.archSpec.wordSize = Integer.parseInt(wordSize)/8;
 			}
 		}
+		program.codeSegment.resolveTargets(0);
 		return program;
 	}
 
@@ -196,7 +263,7 @@ public class PCodeParser {
 
 				    if( innerName.equals("addr") ) {
 					String space_name = innerElt.getAttribute("space");
-					BigInteger offset = parseBigHex(innerElt.getAttribute("offset"));
+					long offset = UnsignedLong.parseHex(innerElt.getAttribute("offset"));
 					int size = 1; // FIXME? is this right? does it matter?
 					ret.macroEntryPoint = new Varnode( program, space_name, offset, size );
 				    }
@@ -217,7 +284,7 @@ public class PCodeParser {
 		}
 		if (ret.macroEntryPoint == null) {
 			// external function, most likely
-			ret.macroEntryPoint = new Varnode (program.dataSegment, BigInteger.ZERO, 0);
+			ret.macroEntryPoint = new Varnode (program.dataSegment, 0, 0);
 		}
 		ret.length = program.codeSegment.microIndex - startPC; // a bit hacky, but what else can we do?
 		return ret;
@@ -261,7 +328,7 @@ public class PCodeParser {
 		String space_id = null;
 		NodeList argNodes = op.getChildNodes();
 		ArrayList<Varnode> args = new ArrayList<Varnode>();
-		BigInteger offset = null;
+		long offset = 0;
 		int uniq = -1;
 
 		for (int i = 0; i < argNodes.getLength(); i++) {
@@ -274,7 +341,7 @@ public class PCodeParser {
 					args.add(parseVarnode(argE));
 				} else if (argTag.equals("seqnum")) {
 					uniq = Integer.decode(argE.getAttribute("uniq"));
-					offset = parseBigHex(argE.getAttribute("offset"));
+					offset = UnsignedLong.parseHex(argE.getAttribute("offset"));
 				} else if (argTag.equals("void")){
 				        // skip a slot when we encounter the void tag
    				        args.add(null);
@@ -306,7 +373,7 @@ public class PCodeParser {
 		String size = argNode.getAttribute("size");
 		ret.arch = program.archSpec;
 
-		ret.offset = parseBigHex(offset);
+		ret.offset = UnsignedLong.parseHex(offset);
 		ret.size = Integer.decode(size);
 		ret.space_name = argNode.getAttribute("space");
 		return ret;
@@ -330,7 +397,7 @@ public class PCodeParser {
 		// dataSegment.length = maxAddr; // todo later - check if base + offset would be better
 		for (Iterator<AddrValuePair>i = addrPairs.iterator(); i.hasNext();) {
 			AddrValuePair e = i.next();
-			dataSegment.contents.put(e.address, e.value);
+			dataSegment.writeByte(e.address, e.value);
 			// out.println("@ " + e.address + " -> " + e.value);
 		}
 		dataSegment.wordsize = 8;
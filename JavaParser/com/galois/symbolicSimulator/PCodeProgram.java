@@ -1,10 +1,11 @@
 package com.galois.symbolicSimulator;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.Set;
+import java.util.TreeSet;
 
 // The static state of a PCode program
 public class PCodeProgram {
@@ -13,6 +14,7 @@ public class PCodeProgram {
 	PCodeCodeSpace codeSegment; // code gets parsed into here
 	PCodeSpace     dataSegment; // our RAM segment, "data_segment" gets put here
 	ArrayList <Varnode> varnodes; // we save these for loading later
+	PCodeLazyLoader lazy; // non-null when function bodies are parsed on demand
 	
 	public PCodeProgram() {
 		functions = new Hashtable<String,PCodeFunction>();
@@ -26,17 +28,40 @@ public class PCodeProgram {
 		return archSpec;
         }
 	
+	void setLazyLoader(PCodeLazyLoader loader) {
+		lazy = loader;
+		codeSegment.lazy = loader;
+	}
+
+	// forces every function to be loaded when loading lazily
         public Collection<PCodeFunction> getFunctions() {
+	    if (lazy != null) lazy.loadAll();
 	    return functions.values();
 	}
 
+	// names of all functions, loaded or not
+	public Collection<String> getFunctionNames() {
+		if (lazy == null) return functions.keySet();
+		Set<String> names = new TreeSet<String>(functions.keySet());
+		names.addAll(lazy.byName.keySet());
+		return names;
+	}
+
 	public PCodeFunction lookupFunction(String funcname) {
-		return functions.get(funcname);
+		PCodeFunction f = functions.get(funcname);
+		if (f == null && lazy != null) {
+			f = lazy.load(funcname);
+		}
+		return f;
 	}
 	
-	public String lookupFunctionNameFromAddr(BigInteger addr) {
+	public String lookupFunctionNameFromAddr(long addr) {
+		if (lazy != null) {
+			String name = lazy.nameAt(addr);
+			if (name != null) return name;
+		}
 		for( PCodeFunction f : functions.values() ) {
-		     if (f.macroEntryPoint.offset.equals(addr)) {
+		     if (f.macroEntryPoint.offset == addr) {
 			return f.name;
 		     }
 		}
@@ -52,6 +77,25 @@ public class PCodeProgram {
 		return ret;
 	}
 
+	// bytes to preallocate for the register file
+	synchronized int registerFileSize() {
+		if (archSpec.registerFileSize == 0) {
+			archSpec.registerFileSize = registerExtent();
+		}
+		return archSpec.registerFileSize;
+	}
+
+	// one past the highest register-space byte named by any varnode
+	int registerExtent() {
+		long extent = 0;
+		for (Varnode v : varnodes) {
+			if ("register".equals(v.space_name) && v.offset >= 0 && v.offset + v.size > extent) {
+				extent = v.offset + v.size;
+			}
+		}
+		return (int) Math.min(extent, PCodeRegisterSpace.MAX_SIZE);
+	}
+
 	public void addVarnode(Varnode varnode) {
 		varnodes.add(varnode);
 	}
@@ -0,0 +1,376 @@
+package com.galois.symbolicSimulator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A compact binary image of a parsed PCodeProgram, written next to the
+// XML it came from (foo.xml -> foo.xml.pcache).  The header carries a
+// format version and the SHA-256 of the source file; a cache whose
+// version or hash does not match is ignored and rebuilt.
+//
+// Loading is a single memory-mapped sequential read.  Ops are replayed
+// through PCodeCodeSpace.addOp in document order, so micro-addresses,
+// block boundaries and the program's varnode list come out exactly as
+// the parser would have produced them.
+public class PCodeProgramCache {
+	static final int MAGIC = 0x50436f64; // "PCod"
+	static final int VERSION = 3;
+	static final String SUFFIX = ".pcache";
+
+	// how a function's macroEntryPoint was produced by the parser
+	static final int ENTRY_ADDR = 0;     // from the <addr> inside <function>
+	static final int ENTRY_BLOCK = 1;    // the head of its first basic block
+	static final int ENTRY_EXTERNAL = 2; // dummy varnode in the data segment
+
+	public static File cacheFileFor(String source) {
+		return new File(source + SUFFIX);
+	}
+
+	// Returns the cached program for source, or null if there is no
+	// usable cache (missing, stale, or written by another format version).
+	public static PCodeProgram load(String source) {
+		File cache = cacheFileFor(source);
+		if (!cache.isFile()) return null;
+		try {
+			return load(cache, hashOf(new File(source)));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// null, too, for a cache that is truncated or otherwise corrupt
+	public static PCodeProgram load(File cache, byte[] expectedHash) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(cache, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			if (buf.remaining() < 12 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+				return null;
+			}
+			if (buf.getInt() != expectedHash.length) {
+				return null;
+			}
+			byte[] hash = new byte[expectedHash.length];
+			buf.get(hash);
+			if (!Arrays.equals(hash, expectedHash)) {
+				return null;
+			}
+			return new Reader(buf).readProgram();
+		} catch (RuntimeException e) {
+			// reading past the end (BufferUnderflowException), a count or
+			// index that makes no sense, and the like: rebuild it
+			return null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static void save(PCodeProgram p, String source) throws IOException {
+		save(p, cacheFileFor(source), hashOf(new File(source)));
+	}
+
+	// Writes to a temporary file first and renames it into place, so a
+	// concurrent reader never sees a half-written cache.
+	public static void save(PCodeProgram p, File cache, byte[] sourceHash) throws IOException {
+		File tmp = new File(cache.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(sourceHash.length);
+			out.write(sourceHash);
+			new Writer(out).writeProgram(p);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(cache)) {
+			cache.delete();
+			if (!tmp.renameTo(cache)) {
+				tmp.delete();
+				throw new IOException("Unable to write program cache " + cache);
+			}
+		}
+	}
+
+	public static byte[] hashOf(File f) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		FileInputStream in = new FileInputStream(f);
+		try {
+			byte[] chunk = new byte[1 << 16];
+			int n;
+			while ((n = in.read(chunk)) > 0) {
+				md.update(chunk, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return md.digest();
+	}
+
+	// Functions in the order their bodies appear in the code segment;
+	// external (bodiless) functions go last.
+	static List<PCodeFunction> functionsInCodeOrder(PCodeProgram p) {
+		List<PCodeFunction> fns = new ArrayList<PCodeFunction>(p.getFunctions());
+		final Map<PCodeFunction,Integer> start = new HashMap<PCodeFunction,Integer>();
+		for (int i = p.codeSegment.microIndex - 1; i >= 0; i--) {
+			PCodeFunction f = p.codeSegment.fetch(i).function;
+			if (f != null) start.put(f, i);
+		}
+		Collections.sort(fns, new Comparator<PCodeFunction>() {
+			public int compare(PCodeFunction a, PCodeFunction b) {
+				Integer sa = start.get(a);
+				Integer sb = start.get(b);
+				int ia = sa == null ? Integer.MAX_VALUE : sa.intValue();
+				int ib = sb == null ? Integer.MAX_VALUE : sb.intValue();
+				if (ia != ib) return ia < ib ? -1 : 1;
+				return a.name.compareTo(b.name);
+			}
+		});
+		return fns;
+	}
+
+	static class Writer {
+		DataOutputStream out;
+		Map<String,Integer> strings = new HashMap<String,Integer>();
+
+		Writer(DataOutputStream out) {
+			this.out = out;
+		}
+
+		void writeProgram(PCodeProgram p) throws IOException {
+			out.writeInt(p.archSpec.wordSize);
+			out.writeBoolean(p.archSpec.bigEndianP);
+			out.writeInt(p.dataSegment.wordsize);
+
+			// the data segment is written a page at a time
+			PagedMemory.Page[] pages = p.dataSegment.contents.sortedPages();
+			out.writeInt(pages.length);
+			for (PagedMemory.Page page : pages) {
+				out.writeLong(page.number);
+				for (long bits : page.init) {
+					out.writeLong(bits);
+				}
+				out.write(page.data);
+			}
+
+			List<PCodeFunction> fns = functionsInCodeOrder(p);
+			out.writeInt(fns.size());
+			int pc = 0;
+			for (PCodeFunction f : fns) {
+				writeString(f.name);
+				writeLoc(f.loc);
+				out.writeInt(f.length);
+				if (f.basicBlocks.size() > 0 && f.macroEntryPoint == f.basicBlocks.get(0).blockBegin) {
+					out.writeByte(ENTRY_BLOCK);
+				} else if (f.macroEntryPoint.space == p.dataSegment && f.macroEntryPoint.size == 0) {
+					out.writeByte(ENTRY_EXTERNAL);
+				} else {
+					out.writeByte(ENTRY_ADDR);
+					writeString(f.macroEntryPoint.space_name);
+					out.writeLong(f.macroEntryPoint.offset);
+					out.writeInt(f.macroEntryPoint.size);
+				}
+
+				out.writeInt(f.basicBlocks.size());
+				for (PCodeBasicBlock b : f.basicBlocks) {
+					writeLoc(b.loc);
+					int n = 0;
+					while (pc + n < p.codeSegment.microIndex && (n == 0 || !p.codeSegment.fetch(pc + n).blockStart)) {
+						n++;
+					}
+					out.writeInt(n);
+					for (int i = 0; i < n; i++) {
+						writeOp(p.codeSegment.fetch(pc++));
+					}
+				}
+			}
+		}
+
+		void writeOp(PCodeOp op) throws IOException {
+			out.writeByte(op.opcode.ordinal());
+			writeString(op.space_id);
+			out.writeLong(op.offset);
+			out.writeInt(op.uniq);
+			out.writeBoolean(op.blockStart);
+			out.writeBoolean(op.funcStart);
+			writeLoc(op.loc);
+			writeVarnode(op.output);
+			writeVarnode(op.input0);
+			writeVarnode(op.input1);
+		}
+
+		void writeVarnode(Varnode v) throws IOException {
+			out.writeBoolean(v != null);
+			if (v == null) return;
+			writeString(v.space_name);
+			out.writeLong(v.offset);
+			out.writeInt(v.size);
+		}
+
+		void writeLoc(LocationData loc) throws IOException {
+			out.writeBoolean(loc != null);
+			if (loc == null) return;
+			writeString(loc.getSystemId());
+			out.writeInt(loc.getStartLine());
+			out.writeInt(loc.getStartColumn());
+			out.writeInt(loc.getEndLine());
+			out.writeInt(loc.getEndColumn());
+		}
+
+		// strings are interned: first occurrence is written inline, later ones by index
+		void writeString(String s) throws IOException {
+			if (s == null) {
+				out.writeInt(-1);
+				return;
+			}
+			Integer idx = strings.get(s);
+			if (idx != null) {
+				out.writeInt(idx.intValue());
+				return;
+			}
+			out.writeInt(-2);
+			byte[] bytes = s.getBytes("UTF-8");
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			strings.put(s, strings.size());
+		}
+	}
+
+	static class Reader {
+		ByteBuffer buf;
+		List<String> strings = new ArrayList<String>();
+		PCodeOp.PCodeOpCode[] opcodes = PCodeOp.PCodeOpCode.values();
+		PCodeProgram program;
+
+		Reader(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		PCodeProgram readProgram() throws IOException {
+			program = new PCodeProgram();
+			program.archSpec.wordSize = buf.getInt();
+			program.archSpec.bigEndianP = buf.get() != 0;
+			program.dataSegment.wordsize = buf.getInt();
+
+			int pages = buf.getInt();
+			long[] init = new long[PagedMemory.PAGE_SIZE / 64];
+			byte[] data = new byte[PagedMemory.PAGE_SIZE];
+			for (int i = 0; i < pages; i++) {
+				long number = buf.getLong();
+				for (int w = 0; w < init.length; w++) {
+					init[w] = buf.getLong();
+				}
+				buf.get(data);
+				program.dataSegment.contents.writePage(number, data, init);
+			}
+
+			int nfns = buf.getInt();
+			for (int i = 0; i < nfns; i++) {
+				PCodeFunction f = new PCodeFunction();
+				f.name = readString();
+				f.loc = readLoc();
+				f.length = buf.getInt();
+				int entryKind = buf.get();
+				if (entryKind == ENTRY_ADDR) {
+					String space_name = readString();
+					long offset = buf.getLong();
+					f.macroEntryPoint = new Varnode(program, space_name, offset, buf.getInt());
+				}
+
+				int nblocks = buf.getInt();
+				for (int b = 0; b < nblocks; b++) {
+					PCodeBasicBlock block = new PCodeBasicBlock();
+					block.loc = readLoc();
+					int nops = buf.getInt();
+					for (int o = 0; o < nops; o++) {
+						PCodeOp op = readOp(f);
+						Varnode vn = program.codeSegment.addOp(op, program.codeSegment, program);
+						if (block.blockBegin == null) {
+							block.blockBegin = vn;
+						}
+						if (vn != null) {
+							block.blockEnd = vn;
+						}
+					}
+					f.basicBlocks.add(block);
+				}
+
+				if (entryKind == ENTRY_BLOCK) {
+					f.macroEntryPoint = f.basicBlocks.get(0).blockBegin;
+				} else if (entryKind == ENTRY_EXTERNAL) {
+					f.macroEntryPoint = new Varnode(program.dataSegment, 0, 0);
+				}
+				program.functions.put(f.name, f);
+			}
+			if (buf.hasRemaining()) {
+				throw new IOException("Trailing data in program cache");
+			}
+			program.codeSegment.resolveTargets(0);
+			return program;
+		}
+
+		PCodeOp readOp(PCodeFunction f) throws IOException {
+			PCodeOp.PCodeOpCode opcode = opcodes[buf.get()];
+			String space_id = readString();
+			long offset = buf.getLong();
+			int uniq = buf.getInt();
+			boolean blockStart = buf.get() != 0;
+			boolean funcStart = buf.get() != 0;
+			LocationData loc = readLoc();
+			Varnode o = readVarnode();
+			Varnode i0 = readVarnode();
+			Varnode i1 = readVarnode();
+			PCodeOp op = new PCodeOp(opcode, space_id, o, i0, i1, offset, uniq, blockStart, funcStart, f);
+			op.loc = loc;
+			return op;
+		}
+
+		Varnode readVarnode() throws IOException {
+			if (buf.get() == 0) return null;
+			Varnode ret = new Varnode(program);
+			ret.arch = program.archSpec;
+			ret.space_name = readString();
+			ret.offset = buf.getLong();
+			ret.size = buf.getInt();
+			return ret;
+		}
+
+		LocationData readLoc() throws IOException {
+			if (buf.get() == 0) return null;
+			String systemId = readString();
+			return new LocationData(systemId, buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt());
+		}
+
+		String readString() throws IOException {
+			int idx = buf.getInt();
+			if (idx == -1) return null;
+			if (idx >= 0) return strings.get(idx);
+			byte[] bytes = new byte[buf.getInt()];
+			buf.get(bytes);
+			String s = new String(bytes, "UTF-8");
+			strings.add(s);
+			return s;
+		}
+	}
+}
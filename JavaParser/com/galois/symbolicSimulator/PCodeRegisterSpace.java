@@ -0,0 +1,167 @@
+package com.galois.symbolicSimulator;
+
+// The register space as a flat byte array.  Register offsets are small and
+// dense (x86-64 runs from 0x0 to about 0x300, flags at 0x200, the PC at
+// 0x288), so a preallocated array indexed by offset beats any map.  The
+// array is sized from PCodeArchSpec.registerFileSize and grows if a
+// register beyond it is ever written.  As with PagedMemory, a bitmap
+// records which bytes have been initialized.
+public class PCodeRegisterSpace extends PCodeSpace {
+	// no real register file comes anywhere near this
+	static final int MAX_SIZE = 1 << 20;
+
+	byte[] regs;
+	long[] init;
+
+	public PCodeRegisterSpace(PCodeArchSpec a, int size) {
+		super("register", a);
+		contents = null;
+		allocate(Math.max(size, 64));
+	}
+
+	private void allocate(int size) {
+		byte[] newRegs = new byte[size];
+		long[] newInit = new long[(size + 63) / 64];
+		if (regs != null) {
+			System.arraycopy(regs, 0, newRegs, 0, regs.length);
+			System.arraycopy(init, 0, newInit, 0, init.length);
+		}
+		regs = newRegs;
+		init = newInit;
+	}
+
+	private void ensure(long end) {
+		if (end <= regs.length) return;
+		if (end > MAX_SIZE || end < 0) {
+			throw new IllegalArgumentException("register offset 0x" + Long.toHexString(end - 1) + " out of range");
+		}
+		int size = regs.length;
+		while (size < end) size *= 2;
+		allocate(Math.min(size, MAX_SIZE));
+	}
+
+	// back to every register uninitialized
+	public void clear() {
+		java.util.Arrays.fill(init, 0);
+	}
+
+	// every register initialized to zero, as at the start of a process
+	public void zero() {
+		java.util.Arrays.fill(regs, (byte) 0);
+		java.util.Arrays.fill(init, -1L);
+	}
+
+	private boolean isInit(int i) {
+		return (init[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public int readByte(long addr) {
+		if (memo != null) memo.read(this, addr, 1);
+		return peekByte(addr);
+	}
+
+	int peekByte(long addr) {
+		if (addr < 0 || addr >= regs.length) return -1;
+		int i = (int) addr;
+		return isInit(i) ? regs[i] & 0xff : -1;
+	}
+
+	public void writeByte(long addr, int val) {
+		if (observer != null) observer.beforeWrite(this, addr, 1);
+		if (watch != null) watch.write(addr, 1);
+		if (memo != null) memo.write(this, addr, 1);
+		ensure(addr + 1);
+		int i = (int) addr;
+		regs[i] = (byte) val;
+		init[i >>> 6] |= 1L << i;
+	}
+
+	void restoreByte(long addr, int val) {
+		if (val < 0 && (addr < 0 || addr >= regs.length)) return;
+		ensure(addr + 1);
+		int i = (int) addr;
+		if (val < 0) {
+			init[i >>> 6] &= ~(1L << i);
+		} else {
+			regs[i] = (byte) val;
+			init[i >>> 6] |= 1L << i;
+		}
+	}
+
+	Object save() {
+		return new Object[] { regs.clone(), init.clone() };
+	}
+
+	void restore(Object saved) {
+		Object[] s = (Object[]) saved;
+		regs = ((byte[]) s[0]).clone();
+		init = ((long[]) s[1]).clone();
+	}
+
+	public long loadLong(long addr, int size) {
+		if (watch != null) watch.read(addr, size);
+		if (memo != null) memo.read(this, addr, size);
+		if (addr < 0 || addr + size > regs.length) {
+			return loadBytes(addr, size);
+		}
+		int base = (int) addr;
+		for (int i = base; i < base + size; i++) {
+			if (!isInit(i)) {
+				return loadBytes(addr, size); // counts the read as uninitialized
+			}
+		}
+		long ret = 0;
+		if (arch.bigEndianP) {
+			for (int i = base; i < base + size; i++) {
+				ret = (ret << 8) | (regs[i] & 0xff);
+			}
+		} else {
+			for (int i = base + size - 1; i >= base; i--) {
+				ret = (ret << 8) | (regs[i] & 0xff);
+			}
+		}
+		return ret;
+	}
+
+	public void storeLong(long addr, int size, long val) {
+		if (observer != null) observer.beforeWrite(this, addr, size);
+		if (watch != null) watch.write(addr, size);
+		if (memo != null) memo.write(this, addr, size);
+		ensure(addr + size);
+		int base = (int) addr;
+		if (arch.bigEndianP) {
+			for (int i = base + size - 1; i >= base; i--) {
+				regs[i] = (byte) val;
+				init[i >>> 6] |= 1L << i;
+				val >>= 8;
+			}
+		} else {
+			for (int i = base; i < base + size; i++) {
+				regs[i] = (byte) val;
+				init[i >>> 6] |= 1L << i;
+				val >>= 8;
+			}
+		}
+	}
+
+	PagedMemory.Cursor cursor() {
+		return new PagedMemory.Cursor() {
+			int i = -1;
+
+			public boolean next() {
+				while (++i < regs.length) {
+					if (isInit(i)) return true;
+				}
+				return false;
+			}
+
+			public long address() {
+				return i;
+			}
+
+			public int value() {
+				return regs[i] & 0xff;
+			}
+		};
+	}
+}
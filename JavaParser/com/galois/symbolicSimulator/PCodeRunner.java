@@ -0,0 +1,396 @@
+package com.galois.symbolicSimulator;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs functions of a program without the interactive prompt: set the
+// arguments, any other registers and memory, and an instruction budget,
+// then run() calls the function and hands back how it ended, its result
+// and how much it executed.  Nothing is traced, so runs are as fast as
+// the interpreter (and, with setJitThreshold, the compiler) go.
+//
+//   PCodeRunner r = new PCodeRunner(program);
+//   r.setArgs(7);
+//   PCodeRunner.Result res = r.run("_fib");
+//   res.returnValue // 13
+//
+// The function is called with a made-up return address that has no code,
+// so returning from it ends the run; calls it makes to library functions
+// run as Java stubs (PCodeStubs).  One machine state is reused from
+// run to run, with its registers cleared and its RAM put back to the
+// program's data segment each time.  A runner is for one thread at a
+// time; PCodeExecutor runs inputs on several, a runner on each.
+public class PCodeRunner {
+	// where the function returns to; nothing lives up there
+	public static final long RETURN_ADDRESS = 0xfffffff0L;
+	static final long DEFAULT_STACK_TOP = 0x7fff0000L;
+
+	public enum Status {
+		RETURNED,  // came back to the return address
+		EXITED,    // jumped to some other address with no code (an external call, say)
+		BUDGET,    // ran out of instructions
+		ERROR      // the interpreter threw
+	}
+
+	public static class Result {
+		public Status status;
+		public long returnValue;     // the result register, once RETURNED
+		public long exitAddress;     // where it went, if RETURNED or EXITED
+		public long ops;             // micro-ops executed
+		public long instructions;    // machine instructions executed
+		public long nanos;           // wall-clock time of the run
+		public Exception error;      // what went wrong, if ERROR
+		public long uninitializedReads; // reads of never-written bytes (policy RECORD)
+		public PCodeMachineState state; // final state (the runner's own, so copy out what you need before the next run)
+
+		public String toString() {
+			String s = status + " after " + instructions + " instructions (" + ops + " ops)";
+			if (status == Status.RETURNED) {
+				s += ", result 0x" + Long.toHexString(returnValue);
+			} else if (status == Status.EXITED) {
+				s += " to 0x" + Long.toHexString(exitAddress);
+			} else if (status == Status.ERROR) {
+				s += ": " + error.getMessage();
+			}
+			if (uninitializedReads > 0) {
+				s += ", " + uninitializedReads + " uninitialized reads";
+			}
+			return s;
+		}
+	}
+
+	PCodeProgram program;
+	PCodeMachineState state;
+	PCodeInterpreter interp;
+	PCodeCallingConvention convention;
+
+	long[] args = new long[0];
+	List<long[]> registers = new ArrayList<long[]>(); // { offset, size, value }
+	Map<Long,byte[]> memory = new LinkedHashMap<Long,byte[]>();
+	long budget = Long.MAX_VALUE;
+	long stackTop = DEFAULT_STACK_TOP;
+	boolean zeroRegisters = true;
+	PCodeCoverage coverage; // null unless counting
+
+	public PCodeRunner(PCodeProgram program) throws Exception {
+		this(program, System.out);
+	}
+
+	// out is where the interpreter reports anything it has to say
+	public PCodeRunner(PCodeProgram program, PrintStream out) throws Exception {
+		this.program = program;
+		state = new PCodeMachineState(program);
+		state.initMachineState();
+		interp = new PCodeInterpreter(state, out);
+		interp.setTrace(false);
+		convention = PCodeCallingConvention.forArch(program.archSpec);
+		setStubs(PCodeStubs.standard(out));
+	}
+
+	// arguments, passed as the calling convention says
+	public void setArgs(long... args) {
+		this.args = args;
+	}
+
+	// any other register, by register-space offset; set after the arguments
+	public void setRegister(long offset, int size, long value) {
+		registers.add(new long[] { offset, size, value });
+	}
+
+	// bytes to put in RAM at addr before the call
+	public void setMemory(long addr, byte[] bytes) {
+		memory.put(addr, bytes);
+	}
+
+	// forget every setArgs, setRegister and setMemory
+	public void clearInitializers() {
+		args = new long[0];
+		registers.clear();
+		memory.clear();
+	}
+
+	// Stop after this many machine instructions.  The check is made between
+	// steps, so a compiled block may take a run a little past it.
+	public void setBudget(long instructions) {
+		budget = instructions;
+	}
+
+	public void setStackTop(long addr) {
+		stackTop = addr;
+	}
+
+	// Registers start out zero (the default), or uninitialized, so reading
+	// one that wasn't set warns
+	public void setZeroRegisters(boolean zero) {
+		zeroRegisters = zero;
+	}
+
+	public void setCallingConvention(PCodeCallingConvention c) {
+		convention = c;
+		if (interp.stubs != null) interp.stubs.setCallingConvention(c);
+	}
+
+	// Java stubs for library calls; PCodeStubs.standard unless set, and
+	// null to end the run at a call to a function with no body
+	public void setStubs(PCodeStubs s) {
+		if (s != null) s.setCallingConvention(convention);
+		interp.setStubs(s);
+	}
+
+	public void setBlockObserver(PCodeBlockObserver o) {
+		interp.setBlockObserver(o);
+	}
+
+	// see PCodeInterpreter.setTraceWriter
+	public void setTraceWriter(PCodeTraceWriter w) {
+		interp.setTraceWriter(w);
+	}
+
+	// count block and edge coverage into c across runs; null stops counting
+	public void setCoverage(PCodeCoverage c) {
+		coverage = c;
+		interp.setBlockObserver(c);
+	}
+
+	// see PCodeInterpreter.setJitThreshold
+	public void setJitThreshold(int threshold) {
+		interp.setJitThreshold(threshold);
+	}
+
+	// see PCodeInterpreter.setOptimize; off unless turned on
+	public void setOptimize(boolean on) {
+		interp.setOptimize(on);
+	}
+
+	// Cache calls to pure functions across runs (see PCodeMemo); null stops
+	public void setMemo(PCodeMemo m) {
+		interp.setMemo(m);
+	}
+
+	// see PCodeUninitializedReads; counts start afresh with each run
+	public void setUninitializedPolicy(PCodeUninitializedReads.Policy p) {
+		state.getUninitializedReads().setPolicy(p);
+	}
+
+	public PCodeMachineState getState() {
+		return state;
+	}
+
+	public Result run(String function) throws Exception {
+		PCodeFunction f = program.lookupFunction(function);
+		if (f == null) {
+			throw new Exception("Unable to locate function " + function);
+		}
+		state.clearRegisters(zeroRegisters);
+		state.resetRAM();
+		state.getUninitializedReads().clear();
+		if (interp.memo != null) {
+			interp.memo.abandon(); // anything the last run left half recorded
+		}
+		convention.setUpCall(state, stackTop, RETURN_ADDRESS, args);
+		PCodeSpace regs = state.getSpace("register");
+		for (long[] r : registers) {
+			regs.storeLong(r[0], (int) r[1], r[2]);
+		}
+		PCodeSpace ram = state.getRAMspace();
+		for (Map.Entry<Long,byte[]> e : memory.entrySet()) {
+			byte[] bytes = e.getValue();
+			for (int i = 0; i < bytes.length; i++) {
+				ram.writeByte(e.getKey() + i, bytes[i] & 0xff);
+			}
+		}
+		state.microPC = program.codeSegment.microAddrOfVarnode(f.macroEntryPoint);
+
+		if (coverage != null) {
+			coverage.newRun();
+		}
+		Result res = new Result();
+		res.state = state;
+		interp.ops = 0;
+		interp.instructions = 0;
+		long start = System.nanoTime();
+		try {
+			while (interp.instructions < budget) {
+				interp.step(state);
+			}
+			res.status = Status.BUDGET;
+		} catch (PCodeExitException e) {
+			res.exitAddress = e.getTarget();
+			if (e.getTarget() == RETURN_ADDRESS) {
+				res.status = Status.RETURNED;
+				res.returnValue = convention.result(state);
+			} else {
+				res.status = Status.EXITED;
+			}
+		} catch (Exception e) {
+			res.status = Status.ERROR;
+			res.error = e;
+		}
+		res.nanos = System.nanoTime() - start;
+		res.ops = interp.ops;
+		res.instructions = interp.instructions;
+		res.uninitializedReads = state.getUninitializedReads().total();
+		return res;
+	}
+
+	private static long parseNumber(String s) {
+		if (s.startsWith("0x")) {
+			return UnsignedLong.parseHex(s.substring(2));
+		}
+		return Long.parseLong(s);
+	}
+
+	private static byte[] parseBytes(String hex) {
+		if (hex.startsWith("0x")) hex = hex.substring(2);
+		byte[] b = new byte[hex.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return b;
+	}
+
+	static void usage() {
+		System.out.println("Usage: PCodeRunner pcodefile.xml function [arg ...] [options]");
+		System.out.println("  --reg offset=value[:size]   set a register (size in bytes, default the word size)");
+		System.out.println("  --mem addr=hexbytes         put bytes in RAM");
+		System.out.println("  --budget n                  stop after n instructions");
+		System.out.println("  --stack addr                top of the stack");
+		System.out.println("  --jit n                     compile blocks entered n times");
+		System.out.println("  --repeat n                  run n times, for timing");
+		System.out.println("  --trace file                record the last million ops to file, for PCodeTraceReader");
+		System.out.println("  --coverage file             write block and edge coverage (lcov if file ends .info, else JSON)");
+		System.out.println("  --uninit zero|fail|record   what reading never-written bytes does (default record)");
+		System.out.println("  --no-stubs                  interpret library functions, and stop at ones with no body");
+		System.out.println("  --opt                       run the ops as PCodeOptimizer leaves them, not as parsed");
+		System.out.println("  --memo pure|f,g,...         cache calls to functions that write no global and store only by push, or to the ones named");
+		System.out.println("  --dump                      print the final machine state, and where uninitialized reads were");
+	}
+
+	// Runs one function and prints how it went, e.g.
+	//   java com.galois.symbolicSimulator.PCodeRunner fib.xml _fib 7
+	// Numbers are decimal, or hex with 0x.
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			usage();
+			return;
+		}
+		PCodeProgram p = PCodeParser.loadProgram(args[0], System.out);
+		PCodeRunner r = new PCodeRunner(p);
+		List<Long> callArgs = new ArrayList<Long>();
+		int repeat = 1;
+		boolean dump = false;
+		String coverageFile = null;
+		PCodeTraceWriter tracer = null;
+		PCodeMemo memo = null;
+		for (int i = 2; i < args.length; i++) {
+			String a = args[i];
+			if (!a.startsWith("--")) {
+				callArgs.add(parseNumber(a));
+				continue;
+			}
+			if (a.equals("--dump")) {
+				dump = true;
+				continue;
+			}
+			if (a.equals("--no-stubs")) {
+				r.setStubs(null);
+				continue;
+			}
+			if (a.equals("--opt")) {
+				r.setOptimize(true);
+				continue;
+			}
+			if (i + 1 == args.length) {
+				usage();
+				return;
+			}
+			String v = args[++i];
+			if ((a.equals("--reg") || a.equals("--mem")) && v.indexOf('=') < 0) {
+				usage();
+				return;
+			}
+			if (a.equals("--reg")) {
+				int eq = v.indexOf('=');
+				int colon = v.indexOf(':', eq);
+				int size = colon < 0 ? p.archSpec.wordSize : Integer.parseInt(v.substring(colon + 1));
+				String value = colon < 0 ? v.substring(eq + 1) : v.substring(eq + 1, colon);
+				r.setRegister(parseNumber(v.substring(0, eq)), size, parseNumber(value));
+			} else if (a.equals("--mem")) {
+				int eq = v.indexOf('=');
+				r.setMemory(parseNumber(v.substring(0, eq)), parseBytes(v.substring(eq + 1)));
+			} else if (a.equals("--budget")) {
+				r.setBudget(parseNumber(v));
+			} else if (a.equals("--stack")) {
+				r.setStackTop(parseNumber(v));
+			} else if (a.equals("--jit")) {
+				r.setJitThreshold((int) parseNumber(v));
+			} else if (a.equals("--repeat")) {
+				repeat = (int) parseNumber(v);
+				if (repeat < 1) {
+					usage();
+					return;
+				}
+			} else if (a.equals("--trace")) {
+				tracer = new PCodeTraceWriter(new java.io.File(v), PCodeTraceWriter.DEFAULT_CAPACITY, r.state);
+				r.setTraceWriter(tracer);
+			} else if (a.equals("--memo")) {
+				memo = new PCodeMemo(p, r.convention);
+				if (v.equals("pure")) {
+					System.out.println("Memoizing " + memo.addProven());
+				} else {
+					for (String f : v.split(",")) {
+						if (!memo.declare(f)) {
+							System.out.println("No function " + f + " to memoize");
+						}
+					}
+				}
+				r.setMemo(memo);
+			} else if (a.equals("--uninit")) {
+				try {
+					r.setUninitializedPolicy(PCodeUninitializedReads.Policy.valueOf(v.toUpperCase()));
+				} catch (IllegalArgumentException e) {
+					usage();
+					return;
+				}
+			} else if (a.equals("--coverage")) {
+				coverageFile = v;
+				r.setCoverage(new PCodeCoverage(p));
+			} else {
+				usage();
+				return;
+			}
+		}
+		long[] argv = new long[callArgs.size()];
+		for (int i = 0; i < argv.length; i++) {
+			argv[i] = callArgs.get(i);
+		}
+		r.setArgs(argv);
+
+		Result res = null;
+		long nanos = 0;
+		for (int i = 0; i < repeat; i++) {
+			res = r.run(args[1]);
+			nanos += res.nanos;
+		}
+		System.out.println(args[1] + ": " + res);
+		System.out.println(repeat + " run(s) in " + nanos / 1000000 + " ms");
+		if (memo != null) {
+			System.out.println("memo: " + memo);
+		}
+		if (dump) {
+			System.out.println(res.state);
+			if (res.uninitializedReads > 0) {
+				System.out.print(res.state.getUninitializedReads());
+			}
+		}
+		if (tracer != null) {
+			tracer.close();
+		}
+		if (coverageFile != null) {
+			r.coverage.write(new java.io.File(coverageFile));
+		}
+	}
+}
@@ -1,44 +1,53 @@
 package com.galois.symbolicSimulator;
 
-import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 public class PCodeSpace {
 	String name;
 	int length;
 	int wordsize;
 	PCodeArchSpec arch;
-	SortedMap<BigInteger,Integer> contents;
+	PagedMemory contents;
 	boolean constSpace = false;
+	PCodeWriteObserver observer; // null unless someone keeps an undo log
+	PCodeUninitializedReads uninit; // what to do about never-written bytes; null reads them as zero
+	PCodeWatchpoints watch; // null unless the debugger is watching this space
+	PCodeMemo memo; // null unless a memoized call is being recorded
 
 	public PCodeSpace(String n, PCodeArchSpec a) {
 		name = n;
 		if (n.equals("const")) constSpace = true;
-		else contents = new TreeMap<BigInteger,Integer>();
+		else contents = new PagedMemory();
 		arch = a;
 	}
 	
+	// A space of our own that starts out with this one's contents, copying
+	// pages from it only as they are written; see PagedMemory
+	public PCodeSpace overlay() {
+		PCodeSpace s = new PCodeSpace(name, arch);
+		s.length = length;
+		s.wordsize = wordsize;
+		s.contents = new PagedMemory(contents);
+		return s;
+	}
+
 	public String toString() {
 		String ret = "Space " + name + ", length = " + length + ":\n";
 		String asciiCol = "";
 		if (name.equals("register")) {
 			int count = 0;
 			int lastKey = 0;
-			for (Iterator<BigInteger> ks = contents.keySet().iterator() ; ks.hasNext(); ) {
-				BigInteger k = ks.next();
-				int thisKey = k.intValue();
+			for (PagedMemory.Cursor c = cursor(); c.next(); ) {
+				long k = c.address();
+				int thisKey = (int) k;
 				if (count % 8 == 0) {
-					ret += "0x" + k.toString(16) + ":\t";
+					ret += "0x" + Long.toHexString(k) + ":\t";
 				} else if (thisKey > lastKey + 1) {
-					ret += "0x" + k.toString(16) + ":\t";
+					ret += "0x" + Long.toHexString(k) + ":\t";
 					count++; // make space for these tags
 				}
-				Integer next = contents.get(k);
-				ret += Integer.toHexString(0xff & next.intValue()) + "\t";
+				ret += Integer.toHexString(c.value()) + "\t";
 				if (++count % 8 == 0) {
 					ret += "\n";
 				}
@@ -46,11 +55,10 @@ public class PCodeSpace {
 			}
 		} else {
 			int count = 0;
-			for (Iterator<BigInteger> ks = contents.keySet().iterator() ; ks.hasNext(); ) {
-				BigInteger k = ks.next();
-				Integer next = contents.get(k) & 0xff;
-				int val = next.intValue() & 0xff;
-				ret += "0x" + k.toString(16) + ": " + Integer.toHexString(val);
+			for (PagedMemory.Cursor c = cursor(); c.next(); ) {
+				long k = c.address();
+				int val = c.value();
+				ret += "0x" + Long.toHexString(k) + ": " + Integer.toHexString(val);
 				if (val >= 32 && val <= 176) {
 					asciiCol += String.valueOf((char)val);
 				} // else { asciiCol += "."; }
@@ -66,24 +74,126 @@ public class PCodeSpace {
 		return ret;
 	}
 	
-	public Integer getByte(BigInteger base, int offset) throws Exception {
+	// the byte at addr, or -1 if it has never been written
+	public int readByte(long addr) {
+		if (memo != null) memo.read(this, addr, 1);
+		return peekByte(addr);
+	}
+
+	// readByte without telling anyone of the read, for tools looking on
+	int peekByte(long addr) {
+		return contents.read(addr);
+	}
+
+	public void writeByte(long addr, int val) {
+		if (observer != null) observer.beforeWrite(this, addr, 1);
+		if (watch != null) watch.write(addr, 1);
+		if (memo != null) memo.write(this, addr, 1);
+		contents.write(addr, val);
+	}
+
+	// Puts back a byte as an undo log saw it, -1 meaning never written,
+	// without telling the observer
+	void restoreByte(long addr, int val) {
+		if (val < 0) {
+			contents.erase(addr);
+		} else {
+			contents.write(addr, val);
+		}
+	}
+
+	// A copy of the contents, for restore() to go back to
+	Object save() {
+		return contents.copy();
+	}
+
+	void restore(Object saved) {
+		contents = ((PagedMemory) saved).copy(); // saved may be restored again
+	}
+
+	// initialized bytes in address order
+	PagedMemory.Cursor cursor() {
+		return contents.cursor();
+	}
+
+	// Reads size (at most 8) bytes at addr as one word in the space's
+	// byte order; uninitialized bytes read as zero, or as the policy says.
+	public long loadLong(long addr, int size) {
+		if (watch != null) watch.read(addr, size);
+		if (memo != null) memo.read(this, addr, size);
+		return loadBytes(addr, size);
+	}
+
+	// loadLong once the read has been reported to the watch and memo:
+	// a byte at a time, counting one uninitialized read if any is missing
+	long loadBytes(long addr, int size) {
+		long ret = 0;
+		boolean missing = false;
+		for (int i = 0; i < size; i++) {
+			int index = arch.bigEndianP ? i : size - i - 1;
+			int v = peekByte(addr + index);
+			if (v < 0) {
+				missing = true;
+				v = 0;
+			}
+			ret = (ret << 8) | v;
+		}
+		if (missing) uninitialized(addr, size);
+		return ret;
+	}
+
+	// loadLong for tools looking on: no watchpoints, memo or uninitialized
+	// reads, and never-written bytes are zero
+	long peekLong(long addr, int size) {
+		long ret = 0;
+		for (int i = 0; i < size; i++) {
+			int index = arch.bigEndianP ? i : size - i - 1;
+			int v = peekByte(addr + index);
+			ret = (ret << 8) | (v < 0 ? 0 : v);
+		}
+		return ret;
+	}
+
+	// a read of size bytes at addr found some never written
+	void uninitialized(long addr, int size) {
+		if (uninit != null) uninit.read(this, addr, size);
+	}
+
+	// Writes the low size (at most 8) bytes of val at addr in the space's byte order
+	public void storeLong(long addr, int size, long val) {
+		if (watch != null) watch.write(addr, size); // as one write, before each byte's
+		if (arch.bigEndianP) {
+			for (int i = size - 1; i >= 0; i--) {
+				writeByte(addr + i, (int) (val & 0xff));
+				val >>= 8;
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				writeByte(addr + i, (int) (val & 0xff));
+				val >>= 8;
+			}
+		}
+	}
+
+	public int getByte(long base, int offset) throws Exception {
 		if (constSpace) {
 			long retVal = 0;
-			long baseVal = base.longValue();
+			long baseVal = base;
 			// base is our number, offset is the "ith" byte we're after
 			if (arch.bigEndianP) {
 				retVal = 0xffl & (baseVal >> (7-offset) * 8);
 			} else {
 				retVal = 0xffl & (baseVal >> (offset * 8));
 			}
-			return new Integer((int)(retVal & 0xff));
+			return (int)(retVal & 0xff);
 		} else {
-			Integer ret = contents.get(base.add(BigInteger.valueOf(offset)));
-			if (ret != null) {
+			if (watch != null) watch.read(base + offset, 1);
+			int ret = readByte(base + offset);
+			if (ret >= 0) {
 				return ret;
 			} else {
-				throw new Exception("fetch from unitialized memory @ " + 
-						base.add(BigInteger.valueOf(offset)).toString(16));
+				uninitialized(base + offset, 1);
+				return 0;
 			}
 		}
 	}
@@ -94,9 +204,11 @@ public class PCodeSpace {
 // the microOps list is all of the micro instructions
 class PCodeCodeSpace extends PCodeSpace {
 	List<PCodeOp> microOps;
-	// "contents" indexes into the above list for the beginning of each macroOp
+	// indexes into the above list for the beginning of each macroOp
+	LongIntMap macroToMicro = new LongIntMap(1024);
 	int microIndex = 0;
 	PCodeSpace ram;
+	PCodeLazyLoader lazy; // set when function bodies are loaded on demand
 	
 	public PCodeCodeSpace(PCodeArchSpec a, PCodeSpace ram) {
 		super("data_segment", a);
@@ -111,30 +223,64 @@ class PCodeCodeSpace extends PCodeSpace {
 	public int microAddrOfVarnode(Varnode v) throws Exception {
 		return microAddrOfMacroInstr(v.offset);
 	}
-	public int microAddrOfMacroInstr(BigInteger macroOffset) throws Exception {
-		if (contents == null) {
-			throw new Exception ("Null contents in varnode " + this.toString());
+	public int microAddrOfMacroInstr(long macroOffset) throws Exception {
+		int micro = macroToMicro.get(macroOffset);
+		if (micro < 0 && lazy != null) {
+			lazy.loadContaining(macroOffset);
+			micro = macroToMicro.get(macroOffset);
 		}
-		if (macroOffset == null) {
-			throw new Exception ("Null PC in fetch instruction");
-		}
-		if (contents.containsKey(macroOffset))
-			return contents.get(macroOffset);
+		if (micro >= 0)
+			return micro;
 		else {
-			if (ram.contents.get(macroOffset) != null) {
-				throw new Exception("Fetching non-decoded instruction @0x" + macroOffset.toString(16));
+			if (ram.readByte(macroOffset) >= 0) {
+				// data, or an external function's placeholder
+				throw new PCodeExitException(macroOffset, "Fetching non-decoded instruction @0x" + Long.toHexString(macroOffset));
 			}
-			throw new Exception ("Fetch outside code space @0x" + macroOffset.toString(16));
+			throw new PCodeExitException(macroOffset);
 
 		}
 	}
 	
+	// Points each direct branch from micro PC first on at the micro PC it
+	// goes to, so taking the branch needs no lookup.  Relative branches
+	// (a constant destination) count micro-ops within the instruction.
+	// Targets that aren't loaded yet are left for branchTarget to find.
+	void resolveTargets(int first) {
+		for (int pc = first; pc < microOps.size(); pc++) {
+			PCodeOp op = microOps.get(pc);
+			if (op.target >= 0 || op.input0 == null) continue;
+			switch (op.opcode) {
+				case BRANCH:
+				case CBRANCH:
+				case CALL:
+					if ("const".equals(op.input0.space_name)) {
+						op.target = pc + (int) PCodeInterpreter.signExtend(op.input0.offset, op.input0.size);
+					} else {
+						op.target = macroToMicro.get(op.input0.offset);
+					}
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	// the micro PC a direct branch goes to
+	public int branchTarget(PCodeOp op) throws Exception {
+		int t = op.target;
+		if (t < 0) {
+			t = microAddrOfMacroInstr(op.input0.offset);
+			op.target = t;
+		}
+		return t;
+	}
+
 	public Varnode addOp(PCodeOp op, PCodeSpace space, PCodeProgram prog) {
 		// TODO: grow when needed
 		Varnode ret = null;
 		microOps.add(microIndex, op);
 		if (op.uniq == 0) {
-			contents.put(op.offset, new Integer(microIndex));
+			macroToMicro.put(op.offset, microIndex);
 			ret = new Varnode(prog);
 			ret.offset = op.offset;
 			ret.space = space;
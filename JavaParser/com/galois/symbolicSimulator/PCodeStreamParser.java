@@ -0,0 +1,425 @@
+package com.galois.symbolicSimulator;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// Parses PCode XML straight from a StAX event stream into a PCodeProgram.
+// Unlike the DOM path in PCodeParser, no document tree is ever built:
+// each function_description, basicblock and op is turned into IR as soon
+// as its closing tag is seen, so peak heap is roughly the size of the IR.
+// Source locations are taken from the stream reader and attached to
+// functions, blocks and ops exactly as LocationAnnotator would have done.
+//
+// A function_description is first parsed into a FunctionBuffer, which
+// touches nothing shared, and then linked into the program's code space.
+// The serial parser links each buffer as soon as it is complete; the
+// parallel parser fills all the buffers from a pool of threads and then links
+// them in document order, so both produce exactly the same program.
+public class PCodeStreamParser {
+	String file;
+	PrintStream out;
+	PCodeProgram program;
+	XMLStreamReader xml;
+
+	// added to stream locations when parsing a fragment of the file
+	int lineBase = 0;
+	int columnBase = 0;
+
+	public PCodeStreamParser(String file, PrintStream o) {
+		this.file = file;
+		out = o;
+	}
+
+	// a parsed function_description that has not been added to the program yet
+	static class FunctionBuffer {
+		PCodeFunction function = new PCodeFunction();
+		Varnode entry; // from <addr> inside <function>, if any
+		List<BlockBuffer> blocks = new ArrayList<BlockBuffer>();
+	}
+
+	static class BlockBuffer {
+		PCodeBasicBlock block = new PCodeBasicBlock();
+		List<PCodeOp> ops = new ArrayList<PCodeOp>();
+		// every varnode created while parsing each op, in creation order
+		List<Varnode[]> varnodes = new ArrayList<Varnode[]>();
+	}
+
+	public PCodeProgram parseProgram() throws Exception {
+		program = new PCodeProgram();
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		try {
+			parseTopLevel(in);
+		} finally {
+			in.close();
+		}
+		program.codeSegment.resolveTargets(0);
+		return program;
+	}
+
+	// Parses each function_description on its own stream reader, spread
+	// over the given number of threads, then links the results into the
+	// program in document order.
+	public PCodeProgram parseProgramParallel(int parallelism) throws Exception {
+		final PCodeFunctionIndex index = new PCodeFunctionIndex(file);
+		program = new PCodeProgram();
+
+		final FunctionBuffer[] buffers = new FunctionBuffer[index.size()];
+		final AtomicInteger next = new AtomicInteger();
+		int n = Math.max(1, Math.min(parallelism, buffers.length));
+		ExecutorService pool = Executors.newFixedThreadPool(n);
+		try {
+			List<Future<Void>> workers = new ArrayList<Future<Void>>();
+			for (int t = 0; t < n; t++) {
+				workers.add(pool.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						for (int i; (i = next.getAndIncrement()) < buffers.length; ) {
+							PCodeFunctionIndex.Entry e = index.entries.get(i);
+							try {
+								buffers[i] = parseEntry(index, e);
+							} catch (Exception ex) {
+								throw new Exception("Unable to parse function at line " + e.startLine + " of " + file, ex);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> w : workers) {
+				try {
+					w.get();
+				} catch (ExecutionException e) {
+					next.set(buffers.length); // the others needn't go on
+					if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		// what is left once the functions are cut out: arch spec and data segment
+		parseSkeleton(index);
+
+		for (FunctionBuffer fb : buffers) {
+			link(fb);
+		}
+		program.codeSegment.resolveTargets(0);
+		return program;
+	}
+
+	// Sets up the program with its arch spec and data segment only; function
+	// bodies are parsed by a PCodeLazyLoader when first referenced.
+	public PCodeProgram parseProgramLazy() throws Exception {
+		PCodeFunctionIndex index = new PCodeFunctionIndex(file);
+		program = new PCodeProgram();
+		parseSkeleton(index);
+		program.setLazyLoader(new PCodeLazyLoader(program, index, this));
+		return program;
+	}
+
+	private void parseSkeleton(PCodeFunctionIndex index) throws Exception {
+		InputStream in = index.skeleton();
+		try {
+			parseTopLevel(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Parse and link a single indexed function_description
+	PCodeFunction parseFunctionAt(PCodeFunctionIndex index, PCodeFunctionIndex.Entry e) throws Exception {
+		FunctionBuffer fb = parseEntry(index, e);
+		link(fb);
+		return fb.function;
+	}
+
+	// Parse one indexed function_description on a parser of its own, so
+	// that this may be called from several threads at once.
+	private FunctionBuffer parseEntry(PCodeFunctionIndex index, PCodeFunctionIndex.Entry e) throws Exception {
+		PCodeStreamParser fragment = new PCodeStreamParser(file, out);
+		fragment.program = program;
+		fragment.lineBase = e.startLine - 1;
+		fragment.columnBase = e.startColumn - 1;
+		InputStream in = index.fragment(e);
+		try {
+			return fragment.parseFragment(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private XMLStreamReader open(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		return factory.createXMLStreamReader(file, in);
+	}
+
+	private void toFirstElement() throws XMLStreamException {
+		while (xml.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			xml.next();
+		}
+	}
+
+	private void parseTopLevel(InputStream in) throws XMLStreamException {
+		xml = open(in);
+		try {
+			// find the document element, normally <executable>
+			toFirstElement();
+			while (nextChildElement()) {
+				String tag = xml.getLocalName();
+				if (tag.startsWith("data_segment")) {
+					parseDataSegment(program.dataSegment);
+				} else if (tag.startsWith("function_description")) {
+					link(parseFunction());
+				} else if (tag.startsWith("endian")) {
+					String isBig = attr("isBigEndian");
+					program.archSpec.bigEndianP = isBig.toLowerCase().startsWith("true");
+					skipElement();
+				} else if (tag.startsWith("wordSize")) {
+					String wordSize = attr("bits");
+					program.archSpec.wordSize = Integer.parseInt(wordSize)/8;
+					skipElement();
+				} else {
+					skipElement();
+				}
+			}
+		} finally {
+			xml.close();
+		}
+	}
+
+	private FunctionBuffer parseFragment(InputStream in) throws XMLStreamException {
+		xml = open(in);
+		try {
+			toFirstElement();
+			return parseFunction();
+		} finally {
+			xml.close();
+		}
+	}
+
+	// Add a parsed function to the program: its ops go into the code space
+	// and its varnodes into the program's varnode list.
+	private void link(FunctionBuffer fb) {
+		PCodeFunction ret = fb.function;
+		out.println("Parsing function " + ret.name);
+
+		int startPC = program.codeSegment.microIndex;
+		if (fb.entry != null) {
+			program.addVarnode(fb.entry);
+			ret.macroEntryPoint = fb.entry;
+		}
+		for (BlockBuffer bb : fb.blocks) {
+			PCodeBasicBlock block = bb.block;
+			for (int i = 0; i < bb.ops.size(); i++) {
+				for (Varnode v : bb.varnodes.get(i)) {
+					program.addVarnode(v);
+				}
+				Varnode vn = program.codeSegment.addOp(bb.ops.get(i), program.codeSegment, program);
+				if (block.blockBegin == null) {
+					block.blockBegin = vn;
+				}
+				if (vn != null) {
+					block.blockEnd = vn;
+				}
+			}
+			if (block.blockBegin == null) {
+				throw new Error("Empty basic block at " + block.loc.toString());
+			}
+			ret.basicBlocks.add(block);
+			if (ret.macroEntryPoint == null) {
+				ret.macroEntryPoint = block.blockBegin;
+			}
+		}
+		if (ret.macroEntryPoint == null) {
+			// external function, most likely
+			ret.macroEntryPoint = new Varnode(program.dataSegment, 0, 0);
+		}
+		ret.length = program.codeSegment.microIndex - startPC;
+		program.functions.put(ret.name, ret);
+	}
+
+	// Advance to the next child element of the element we are currently inside.
+	// Returns false (positioned on the parent's END_ELEMENT) when there are no more.
+	private boolean nextChildElement() throws XMLStreamException {
+		while (xml.hasNext()) {
+			int ev = xml.next();
+			if (ev == XMLStreamConstants.START_ELEMENT) return true;
+			if (ev == XMLStreamConstants.END_ELEMENT) return false;
+		}
+		return false;
+	}
+
+	// Skip over the remainder of the current element, including all of its children.
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && xml.hasNext()) {
+			int ev = xml.next();
+			if (ev == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (ev == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	private String attr(String name) {
+		String v = xml.getAttributeValue(null, name);
+		return v == null ? "" : v;
+	}
+
+	private int line(Location l) {
+		return l.getLineNumber() + lineBase;
+	}
+
+	private int column(Location l) {
+		return l.getLineNumber() == 1 ? l.getColumnNumber() + columnBase : l.getColumnNumber();
+	}
+
+	private Location here() {
+		Location l = xml.getLocation();
+		return new LocationImpl(line(l), column(l));
+	}
+
+	// Must be called while positioned on the END_ELEMENT matching "start"
+	private LocationData locationFrom(Location start) {
+		Location end = xml.getLocation();
+		return new LocationData(file,
+				start.getLineNumber(), start.getColumnNumber(),
+				line(end), column(end));
+	}
+
+	private FunctionBuffer parseFunction() throws XMLStreamException {
+		FunctionBuffer fb = new FunctionBuffer();
+		PCodeFunction ret = fb.function;
+		Location start = here();
+
+		boolean firstBlock = true;
+		while (nextChildElement()) {
+			String eltName = xml.getLocalName();
+			// at this level, the element will be function, parameter_description, or basicblock
+			if (eltName.startsWith("function")) {
+				ret.name = attr("name");
+
+				while (nextChildElement()) {
+					if (xml.getLocalName().equals("addr")) {
+						String space_name = attr("space");
+						long offset = UnsignedLong.parseHex(attr("offset"));
+						int size = 1; // FIXME? is this right? does it matter?
+						fb.entry = new Varnode(program.archSpec, space_name, offset, size);
+					}
+					skipElement();
+				}
+			} else if (eltName.startsWith("basicblock")) {
+				fb.blocks.add(parseBlock(firstBlock, ret));
+				firstBlock = false;
+			} else {
+				skipElement();
+			}
+		}
+		ret.loc = locationFrom(start);
+		return fb;
+	}
+
+	private BlockBuffer parseBlock(boolean firstBlock, PCodeFunction function) throws XMLStreamException {
+		BlockBuffer bb = new BlockBuffer();
+		Location start = here();
+
+		boolean firstOp = true;
+		List<Varnode> created = new ArrayList<Varnode>(4);
+		while (nextChildElement()) {
+			created.clear();
+			bb.ops.add(parseOp(firstOp, firstBlock, function, created));
+			bb.varnodes.add(created.toArray(new Varnode[created.size()]));
+			firstOp = false;
+		}
+		bb.block.loc = locationFrom(start);
+		return bb;
+	}
+
+	private PCodeOp parseOp(boolean firstInBlock, boolean firstInFunction, PCodeFunction f,
+				List<Varnode> created) throws XMLStreamException {
+		Location start = here();
+		String opcode = attr("mnemonic");
+		String space_id = null;
+		ArrayList<Varnode> args = new ArrayList<Varnode>(3);
+		long offset = 0;
+		int uniq = -1;
+
+		while (nextChildElement()) {
+			String argTag = xml.getLocalName();
+			if (argTag.equals("addr")) {
+				Varnode v = parseVarnode();
+				created.add(v);
+				args.add(v);
+			} else if (argTag.equals("seqnum")) {
+				uniq = Integer.decode(attr("uniq"));
+				offset = UnsignedLong.parseHex(attr("offset"));
+			} else if (argTag.equals("void")) {
+				// skip a slot when we encounter the void tag
+				args.add(null);
+			} else if (argTag.equals("spaceid")) {
+				space_id = attr("name");
+			} else {
+				out.println("unexpected tag " + argTag + " where opcode arg belongs " + opcode);
+			}
+			skipElement();
+		}
+
+		final Varnode arg0 = args.size() > 0 ? args.get(0) : null;
+		final Varnode arg1 = args.size() > 1 ? args.get(1) : null;
+		final Varnode arg2 = args.size() > 2 ? args.get(2) : null;
+
+		PCodeOp ret = new PCodeOp(PCodeOp.PCodeOpCode.valueOf(opcode),
+					  space_id, arg0, arg1, arg2,
+					  offset, uniq, firstInBlock, firstInFunction, f);
+		ret.loc = locationFrom(start);
+		return ret;
+	}
+
+	private Varnode parseVarnode() {
+		return new Varnode(program.archSpec, attr("space"),
+				   UnsignedLong.parseHex(attr("offset")),
+				   Integer.decode(attr("size")));
+	}
+
+	private void parseDataSegment(PCodeSpace dataSegment) throws XMLStreamException {
+		while (nextChildElement()) {
+			AddrValuePair avp = new AddrValuePair(attr("address"), attr("value"));
+			dataSegment.writeByte(avp.address, avp.value);
+			skipElement();
+		}
+		dataSegment.wordsize = 8;
+	}
+
+	// The stream reader's Location is only valid until the next event,
+	// so we copy out the parts we need.
+	private static class LocationImpl implements Location {
+		private final int line;
+		private final int column;
+
+		LocationImpl(int line, int column) {
+			this.line = line;
+			this.column = column;
+		}
+
+		public int getLineNumber() { return line; }
+		public int getColumnNumber() { return column; }
+		public int getCharacterOffset() { return -1; }
+		public String getPublicId() { return null; }
+		public String getSystemId() { return null; }
+	}
+}
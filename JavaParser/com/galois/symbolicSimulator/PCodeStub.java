@@ -0,0 +1,11 @@
+package com.galois.symbolicSimulator;
+
+// A Java implementation of a function the program calls, run in place of
+// interpreting it (or of stopping, when the dump has no body for it).
+// Arguments come from c.arg(n) and memory goes through c, so watchpoints,
+// history and uninitialized reads see the stub's accesses like any other.
+// What it returns is the function's result; PCodeStubs then returns to
+// the caller as the calling convention says.
+public interface PCodeStub {
+	long call(PCodeStubs.Call c) throws Exception;
+}
@@ -0,0 +1,434 @@
+package com.galois.symbolicSimulator;
+
+import java.io.PrintStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Java stubs for the library functions a program calls, keyed by function
+// name or by macro address.  A dump has no body for an external function
+// (_printf in fib.xml is just a name at 0x1000), so a call to one used to
+// end the run; and the library routines that are in the dump are slow to
+// interpret a byte at a time.  With stubs, the interpreter runs either
+// kind in Java and returns to the caller as the calling convention says.
+//
+// Names match with or without the leading underscore Mach-O adds, so
+// "memcpy" covers _memcpy.  Calls to a function with a body are caught on
+// entry to it (a bit per micro PC, as for breakpoints); calls to one
+// without are caught where they would have left the code space.
+//
+//   PCodeStubs stubs = PCodeStubs.standard(System.out);
+//   stubs.register("rand", new PCodeStub() {
+//       public long call(PCodeStubs.Call c) { return 4; }
+//   });
+//   interp.setStubs(stubs);
+public class PCodeStubs {
+	// where malloc's heap starts; the word there is the next free address
+	public static final long HEAP_BASE = 0x10000000L;
+	// the most bytes a standard stub will touch in one call, unless set
+	public static final long DEFAULT_LIMIT = 1L << 24;
+
+	// What a stub has to work with: the arguments, and the machine's memory
+	public static class Call {
+		public final PCodeMachineState m;
+		public final PCodeSpace ram;
+		public final PCodeCallingConvention convention;
+		final PCodeStubs stubs;
+
+		Call(PCodeStubs stubs, PCodeMachineState m, PCodeCallingConvention convention) {
+			this.stubs = stubs;
+			this.m = m;
+			this.ram = m.getRAMspace();
+			this.convention = convention;
+		}
+
+		public long arg(int n) {
+			return convention.arg(m, n);
+		}
+
+		public int wordSize() {
+			return convention.wordSize;
+		}
+
+		public int read(long addr) {
+			return (int) ram.loadLong(addr, 1);
+		}
+
+		public void write(long addr, int b) {
+			ram.writeByte(addr, b & 0xff);
+		}
+
+		// the NUL-terminated string at addr, a char per byte
+		public String readString(long addr) throws Exception {
+			StringBuilder s = new StringBuilder();
+			for (int b; (b = read(addr)) != 0; addr++) {
+				s.append((char) b);
+				check(s.length() + 1, "string");
+			}
+			return s.toString();
+		}
+
+		// A length from the program, which may be garbage: one over the
+		// limit ends the run rather than tying it up for hours
+		public void check(long n, String what) throws Exception {
+			if (UnsignedLong.compare(n, stubs.limit) > 0) {
+				throw new Exception(what + " of 0x" + Long.toHexString(n) + " bytes, over the stubs' limit of 0x"
+						+ Long.toHexString(stubs.limit));
+			}
+		}
+
+		// program output, unless it is being replayed
+		public void print(String s) {
+			if (!stubs.quiet) {
+				stubs.out.print(s);
+				stubs.out.flush();
+			}
+		}
+	}
+
+	static class Binding {
+		final String name;
+		final PCodeStub stub;
+
+		Binding(String name, PCodeStub stub) {
+			this.name = name;
+			this.stub = stub;
+		}
+	}
+
+	Map<String,PCodeStub> byName = new LinkedHashMap<String,PCodeStub>();
+	Map<Long,PCodeStub> byAddress = new LinkedHashMap<Long,PCodeStub>();
+	PCodeCallingConvention convention; // null: the one for the machine's arch
+	PrintStream out;
+	boolean quiet; // set while history replays, so output isn't repeated
+	long limit = DEFAULT_LIMIT;
+
+	// filled in by bind(), for a program
+	PCodeProgram program;
+	BitSet entries = new BitSet(); // micro PCs of stubbed functions with bodies
+	Map<Integer,Binding> byMicro = new HashMap<Integer,Binding>();
+	Map<Long,Binding> external = new HashMap<Long,Binding>(); // by exit address, null if no stub
+
+	public PCodeStubs(PrintStream out) {
+		this.out = out;
+	}
+
+	public void register(String name, PCodeStub s) {
+		byName.put(name, s);
+		program = null;
+	}
+
+	public void register(long macroAddr, PCodeStub s) {
+		byAddress.put(macroAddr, s);
+		program = null;
+	}
+
+	public void setCallingConvention(PCodeCallingConvention c) {
+		convention = c;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	// the most bytes memset, memcpy and the like will touch, or strlen scan
+	public void setLimit(long bytes) {
+		limit = bytes;
+	}
+
+	// Finds the stubbed functions in p that have bodies, to be caught on entry
+	void bind(PCodeProgram p) {
+		if (program == p) return;
+		program = p;
+		entries.clear();
+		byMicro.clear();
+		external.clear();
+		for (Map.Entry<String,PCodeStub> e : byName.entrySet()) {
+			for (String name : new String[] { e.getKey(), "_" + e.getKey() }) {
+				PCodeFunction f = p.lookupFunction(name);
+				if (f != null && !f.basicBlocks.isEmpty()) {
+					bindEntry(p, f.macroEntryPoint.offset, new Binding(name, e.getValue()));
+				}
+			}
+		}
+		for (Map.Entry<Long,PCodeStub> e : byAddress.entrySet()) {
+			bindEntry(p, e.getKey(), new Binding("0x" + Long.toHexString(e.getKey()), e.getValue()));
+		}
+	}
+
+	private void bindEntry(PCodeProgram p, long macroAddr, Binding b) {
+		try {
+			int micro = p.codeSegment.microAddrOfMacroInstr(macroAddr);
+			entries.set(micro);
+			byMicro.put(micro, b);
+		} catch (Exception e) {
+			// no code there; caught on the way out instead
+		}
+	}
+
+	// the stub to run on entry to the op at micro PC pc, or null
+	Binding atEntry(PCodeProgram p, int pc) {
+		bind(p);
+		return entries.get(pc) ? byMicro.get(pc) : null;
+	}
+
+	// the stub for a jump to macroAddr, where there is no code, or null
+	Binding atExit(PCodeProgram p, long macroAddr) {
+		bind(p);
+		if (external.containsKey(macroAddr)) {
+			return external.get(macroAddr);
+		}
+		Binding b = null;
+		PCodeStub s = byAddress.get(macroAddr);
+		String name = p.lookupFunctionNameFromAddr(macroAddr);
+		if (s != null) {
+			b = new Binding("0x" + Long.toHexString(macroAddr), s);
+		} else if ((s = byName.get(name)) != null) {
+			b = new Binding(name, s);
+		} else if (name.startsWith("_") && (s = byName.get(name.substring(1))) != null) {
+			b = new Binding(name, s);
+		}
+		external.put(macroAddr, b);
+		return b;
+	}
+
+	// Runs b's stub as a call just made, and returns from it
+	void call(Binding b, PCodeMachineState m) throws Exception {
+		PCodeCallingConvention c = convention != null ? convention : PCodeCallingConvention.forArch(m.program.archSpec);
+		long result = b.stub.call(new Call(this, m, c));
+		long ret = c.returnFrom(m, result);
+		m.microPC = m.program.codeSegment.microAddrOfMacroInstr(ret);
+	}
+
+	// memset, memcpy, memmove, strlen, memcmp, printf, malloc and free
+	public static PCodeStubs standard(PrintStream out) {
+		PCodeStubs s = new PCodeStubs(out);
+		s.register("memset", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				long dst = c.arg(0);
+				int v = (int) c.arg(1);
+				long n = c.arg(2);
+				c.check(n, "memset");
+				for (long i = 0; i < n; i++) {
+					c.write(dst + i, v);
+				}
+				return dst;
+			}
+		});
+		s.register("memcpy", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				long dst = c.arg(0);
+				long src = c.arg(1);
+				long n = c.arg(2);
+				c.check(n, "memcpy");
+				for (long i = 0; i < n; i++) {
+					c.write(dst + i, c.read(src + i));
+				}
+				return dst;
+			}
+		});
+		s.register("memmove", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				long dst = c.arg(0);
+				long src = c.arg(1);
+				long n = c.arg(2);
+				c.check(n, "memmove");
+				if (UnsignedLong.compare(dst - src, n) < 0) {
+					// dst is inside the source, so copy from the top down
+					for (long i = n - 1; i >= 0; i--) {
+						c.write(dst + i, c.read(src + i));
+					}
+				} else {
+					for (long i = 0; i < n; i++) {
+						c.write(dst + i, c.read(src + i));
+					}
+				}
+				return dst;
+			}
+		});
+		s.register("strlen", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				long p = c.arg(0);
+				long n = 0;
+				while (c.read(p + n) != 0) {
+					n++;
+					c.check(n + 1, "strlen");
+				}
+				return n;
+			}
+		});
+		s.register("memcmp", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				long a = c.arg(0);
+				long b = c.arg(1);
+				long n = c.arg(2);
+				c.check(n, "memcmp");
+				for (long i = 0; i < n; i++) {
+					int d = c.read(a + i) - c.read(b + i);
+					if (d != 0) return d;
+				}
+				return 0;
+			}
+		});
+		s.register("printf", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				String text = format(c, c.readString(c.arg(0)), 1);
+				c.print(text);
+				return text.length();
+			}
+		});
+		// A bump allocator: free gives nothing back.  The next free address
+		// lives in RAM, so it starts afresh with RAM and goes back with history.
+		s.register("malloc", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				int w = c.wordSize();
+				long top = c.ram.readByte(HEAP_BASE) < 0 ? HEAP_BASE + 16 : c.ram.loadLong(HEAP_BASE, w);
+				long p = (top + 15) & ~15L;
+				c.ram.storeLong(HEAP_BASE, w, p + c.arg(0));
+				return p;
+			}
+		});
+		s.register("free", new PCodeStub() {
+			public long call(Call c) throws Exception {
+				return 0;
+			}
+		});
+		return s;
+	}
+
+	// C's printf formatting of fmt, taking arguments from argument next on.
+	// Integers, characters, strings and pointers; floating point arguments
+	// travel in registers the conventions here don't describe, so those
+	// conversions are copied out as they stand.
+	static String format(Call c, String fmt, int next) throws Exception {
+		StringBuilder s = new StringBuilder();
+		int i = 0;
+		while (i < fmt.length()) {
+			char ch = fmt.charAt(i++);
+			if (ch != '%') {
+				s.append(ch);
+				continue;
+			}
+			int start = i - 1;
+			String flags = "";
+			while (i < fmt.length() && "-+ #0".indexOf(fmt.charAt(i)) >= 0) {
+				flags += fmt.charAt(i++);
+			}
+			int width = 0;
+			if (i < fmt.length() && fmt.charAt(i) == '*') {
+				width = (int) c.arg(next++);
+				i++;
+			}
+			while (i < fmt.length() && Character.isDigit(fmt.charAt(i))) {
+				width = width * 10 + fmt.charAt(i++) - '0';
+			}
+			int precision = -1;
+			if (i < fmt.length() && fmt.charAt(i) == '.') {
+				i++;
+				precision = 0;
+				if (i < fmt.length() && fmt.charAt(i) == '*') {
+					precision = (int) c.arg(next++);
+					i++;
+				}
+				while (i < fmt.length() && Character.isDigit(fmt.charAt(i))) {
+					precision = precision * 10 + fmt.charAt(i++) - '0';
+				}
+			}
+			int size = 4; // int, unless a length says otherwise
+			int hs = 0;
+			int ls = 0;
+			while (i < fmt.length() && "hlqjzt".indexOf(fmt.charAt(i)) >= 0) {
+				char l = fmt.charAt(i++);
+				if (l == 'h') {
+					hs++;
+				} else if (l == 'l') {
+					ls++;
+				} else if (l == 'q') {
+					ls = 2; // BSD's ll
+				} else {
+					size = c.wordSize(); // intmax_t, size_t, ptrdiff_t
+				}
+			}
+			if (ls >= 2) {
+				size = 8;
+			} else if (ls == 1) {
+				size = c.wordSize(); // long
+			} else if (hs > 0) {
+				size = hs == 1 ? 2 : 1;
+			}
+			if (i == fmt.length()) {
+				s.append(fmt.substring(start));
+				break;
+			}
+			char conv = fmt.charAt(i++);
+			switch (conv) {
+				case '%':
+					s.append('%');
+					break;
+				case 'd':
+				case 'i': {
+					long v = c.arg(next++) << (64 - 8 * size) >> (64 - 8 * size);
+					String sign = v < 0 ? "-" : flags.indexOf('+') >= 0 ? "+" : flags.indexOf(' ') >= 0 ? " " : "";
+					String digits = v < 0 ? UnsignedLong.toBigInteger(-v).toString() : Long.toString(v);
+					s.append(pad(sign, digits, flags, width, precision));
+					break;
+				}
+				case 'u':
+				case 'x':
+				case 'X':
+				case 'o': {
+					long v = c.arg(next++);
+					if (size < 8) v &= (1L << 8 * size) - 1;
+					String digits = conv == 'u' ? UnsignedLong.toBigInteger(v).toString()
+							: conv == 'o' ? Long.toOctalString(v) : Long.toHexString(v);
+					String prefix = "";
+					if (flags.indexOf('#') >= 0 && v != 0) {
+						prefix = conv == 'o' ? "0" : "0x";
+					}
+					if (conv == 'X') {
+						digits = digits.toUpperCase();
+						prefix = prefix.toUpperCase();
+					}
+					s.append(pad(prefix, digits, flags, width, precision));
+					break;
+				}
+				case 'p':
+					s.append(pad("0x", Long.toHexString(c.arg(next++)), flags, width, precision));
+					break;
+				case 'c':
+					s.append(pad("", String.valueOf((char) (c.arg(next++) & 0xff)), flags.replace("0", ""), width, -1));
+					break;
+				case 's': {
+					String str = c.readString(c.arg(next++));
+					if (precision >= 0 && precision < str.length()) {
+						str = str.substring(0, precision);
+					}
+					s.append(pad("", str, flags.replace("0", ""), width, -1));
+					break;
+				}
+				default:
+					s.append(fmt.substring(start, i));
+					break;
+			}
+		}
+		return s.toString();
+	}
+
+	// prefix (a sign, say) and digits, at least precision digits and width chars
+	private static String pad(String prefix, String digits, String flags, int width, int precision) {
+		if (precision >= 0) {
+			if (precision == 0 && digits.equals("0")) digits = "";
+			while (digits.length() < precision) digits = "0" + digits;
+		}
+		StringBuilder s = new StringBuilder(prefix).append(digits);
+		if (flags.indexOf('-') >= 0) {
+			while (s.length() < width) s.append(' ');
+		} else if (flags.indexOf('0') >= 0 && precision < 0) {
+			while (s.length() < width) s.insert(prefix.length(), '0');
+		} else {
+			while (s.length() < width) s.insert(0, ' ');
+		}
+		return s.toString();
+	}
+}
@@ -0,0 +1,135 @@
+package com.galois.symbolicSimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.galois.symbolicSimulator.PCodeOp.PCodeOpCode;
+
+// Reads back a trace file written by PCodeTraceWriter, oldest surviving
+// record first, and decodes records against the program that was run
+// into the same form the interpreter's own trace prints:
+//
+//   PCodeTraceReader r = new PCodeTraceReader(new File("run.trace"), program);
+//   for (long i = r.first(); i < r.count(); i++) System.out.println(r.format(r.get(i)));
+public class PCodeTraceReader {
+	public static class Record {
+		public int microPC;
+		public PCodeOpCode opcode;
+		public int size; // of the value, in bytes
+		public long value;
+		public long address;
+		int flags;
+
+		public boolean hasValue() {
+			return (flags & PCodeTraceWriter.HAS_VALUE) != 0;
+		}
+
+		public boolean hasAddress() {
+			return (flags & PCodeTraceWriter.HAS_ADDRESS) != 0;
+		}
+
+		// if so, address is the micro PC control went to (-1 if it left the code)
+		public boolean branched() {
+			return (flags & PCodeTraceWriter.BRANCHED) != 0;
+		}
+	}
+
+	static final PCodeOpCode[] OPCODES = PCodeOpCode.values();
+
+	PCodeProgram program;
+	MappedByteBuffer buf;
+	int capacity;
+	long count;
+
+	public PCodeTraceReader(File f, PCodeProgram program) throws IOException {
+		this.program = program;
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.capacity() < PCodeTraceWriter.HEADER_SIZE || buf.getInt(0) != PCodeTraceWriter.MAGIC) {
+			throw new IOException(f + " is not a PCode trace");
+		}
+		if (buf.getInt(4) != PCodeTraceWriter.VERSION || buf.getInt(8) != PCodeTraceWriter.RECORD_SIZE) {
+			throw new IOException(f + " is a trace of another version");
+		}
+		capacity = buf.getInt(12);
+		count = buf.getLong(PCodeTraceWriter.COUNT);
+	}
+
+	// records ever written; the ones before first() have been overwritten
+	public long count() {
+		return count;
+	}
+
+	public long first() {
+		return Math.max(0, count - capacity);
+	}
+
+	public Record get(long i) {
+		if (i < first() || i >= count) {
+			throw new IndexOutOfBoundsException("record " + i + " of " + first() + " to " + count);
+		}
+		int at = PCodeTraceWriter.HEADER_SIZE + (int) (i % capacity) * PCodeTraceWriter.RECORD_SIZE;
+		Record r = new Record();
+		r.microPC = buf.getInt(at);
+		r.opcode = OPCODES[buf.getShort(at + 4)];
+		r.flags = buf.get(at + 6);
+		r.size = buf.get(at + 7) & 0xff;
+		r.value = buf.getLong(at + 8);
+		r.address = buf.getLong(at + 16);
+		return r;
+	}
+
+	// the op as the interpreter prints it, then what it did
+	public String format(Record r) {
+		PCodeCodeSpace code = program.codeSegment;
+		String ret;
+		if (r.microPC >= 0 && r.microPC < code.microOps.size() && code.fetch(r.microPC).opcode == r.opcode) {
+			ret = code.fetch(r.microPC).toString(program);
+		} else {
+			// traced from some other program, or one loaded differently
+			ret = "  ?? micro 0x" + Integer.toHexString(r.microPC) + ": " + r.opcode.name();
+		}
+		if (r.hasValue()) {
+			ret += "  = 0x" + Long.toHexString(r.value);
+		}
+		if (r.branched()) {
+			if (r.address >= 0 && r.address < code.microOps.size()) {
+				ret += "  -> 0x" + Long.toHexString(code.fetch((int) r.address).offset);
+			} else {
+				ret += "  -> out of code";
+			}
+		} else if (r.hasAddress()) {
+			ret += "  @ram 0x" + Long.toHexString(r.address);
+		}
+		return ret;
+	}
+
+	// Prints a trace: PCodeTraceReader pcodefile.xml tracefile [last n]
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: PCodeTraceReader pcodefile.xml tracefile [records]");
+			return;
+		}
+		PrintStream out = System.out;
+		PCodeProgram p = PCodeParser.loadProgram(args[0], out);
+		PCodeTraceReader r = new PCodeTraceReader(new File(args[1]), p);
+		long from = r.first();
+		if (args.length > 2) {
+			from = Math.max(from, r.count() - Long.parseLong(args[2]));
+		}
+		out.println(r.count() + " ops traced, showing " + (r.count() - from));
+		for (long i = from; i < r.count(); i++) {
+			out.println(r.format(r.get(i)));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.galois.symbolicSimulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import com.galois.symbolicSimulator.PCodeOp.PCodeOpCode;
+
+// Records every op a machine state runs as a fixed-width binary record in
+// a memory-mapped file used as a ring buffer, so a run of any length keeps
+// its last capacity ops at the cost of a few stores each; there is no
+// formatting until PCodeTraceReader decodes the file afterwards.
+//
+// The file is a HEADER_SIZE-byte header followed by capacity records:
+//
+//   header:  int magic, int version, int record size, int capacity,
+//            long records written so far (the next goes at count % capacity;
+//            kept up to date every few thousand records, and on close)
+//   record:  int micro PC, short opcode, byte flags, byte output size,
+//            long value, long address
+//
+// The value is what the op wrote (for STORE, what it stored); the address
+// is the RAM address of a LOAD or STORE, or the micro PC a branch went to.
+// Values wider than 8 bytes keep their low 8.
+public class PCodeTraceWriter {
+	static final int MAGIC = 0x50435452; // "PCTR"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 64;
+	static final int RECORD_SIZE = 24;
+	static final int COUNT = 16; // header offset of the record count
+
+	static final int HAS_VALUE = 1;
+	static final int HAS_ADDRESS = 2;
+	static final int BRANCHED = 4; // the address is a micro PC
+
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	PCodeMachineState m;
+	MappedByteBuffer buf;
+	int capacity;
+	long count = 0;
+	int pos = HEADER_SIZE; // where the next record goes
+	int end;
+
+	// spaces of each op's output, pointer and stored value, by micro PC,
+	// looked up the first time the op runs
+	boolean[] bound = new boolean[0];
+	PCodeSpace[] outSpaces = new PCodeSpace[0];
+	PCodeSpace[] ptrSpaces = new PCodeSpace[0];
+	PCodeSpace[] valSpaces = new PCodeSpace[0];
+
+	public PCodeTraceWriter(File f, int capacity, PCodeMachineState m) throws IOException {
+		if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+			throw new IllegalArgumentException("trace capacity " + capacity);
+		}
+		this.m = m;
+		this.capacity = capacity;
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+			raf.setLength(size);
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close(); // the mapping outlives the channel
+		}
+		end = HEADER_SIZE + capacity * RECORD_SIZE;
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(0, MAGIC);
+		buf.putInt(4, VERSION);
+		buf.putInt(8, RECORD_SIZE);
+		buf.putInt(12, capacity);
+		buf.putLong(COUNT, 0);
+	}
+
+	private void bind(int pc, PCodeOp op) {
+		if (pc >= bound.length) {
+			int size = Math.max(pc + 1, m.program.codeSegment.microOps.size());
+			bound = Arrays.copyOf(bound, size);
+			outSpaces = Arrays.copyOf(outSpaces, size);
+			ptrSpaces = Arrays.copyOf(ptrSpaces, size);
+			valSpaces = Arrays.copyOf(valSpaces, size);
+		}
+		if (op.output != null) outSpaces[pc] = m.getSpace(op.output.space_name);
+		if (op.opcode == PCodeOpCode.LOAD || op.opcode == PCodeOpCode.STORE) {
+			ptrSpaces[pc] = m.getSpace(op.input0.space_name);
+		}
+		if (op.opcode == PCodeOpCode.STORE) {
+			valSpaces[pc] = m.getSpace(op.input1.space_name);
+		}
+		bound[pc] = true;
+	}
+
+	private static long read(PCodeSpace s, Varnode v) {
+		if (s.constSpace) return v.constValue();
+		return s.peekLong(v.offset, Math.min(v.size, 8)); // the run mustn't see it
+	}
+
+	// The RAM address a LOAD or STORE at pc is about to use; called before
+	// the op runs, as a LOAD can overwrite its own pointer
+	long address(int pc, PCodeOp op) {
+		if (op.opcode != PCodeOpCode.LOAD && op.opcode != PCodeOpCode.STORE) return 0;
+		if (pc >= bound.length || !bound[pc]) bind(pc, op);
+		return read(ptrSpaces[pc], op.input0);
+	}
+
+	// Records the op at pc, which has just run; next is where it went
+	void record(int pc, PCodeOp op, long address, int next) {
+		if (pc >= bound.length || !bound[pc]) bind(pc, op);
+		int flags = 0;
+		int size = 0;
+		long value = 0;
+		if (op.output != null && outSpaces[pc] != null) {
+			flags |= HAS_VALUE;
+			size = op.output.size;
+			value = read(outSpaces[pc], op.output);
+		}
+		switch (op.opcode) {
+			case STORE:
+				flags |= HAS_VALUE | HAS_ADDRESS;
+				size = op.input1.size;
+				value = read(valSpaces[pc], op.input1);
+				break;
+			case LOAD:
+				flags |= HAS_ADDRESS;
+				break;
+			case BRANCH:
+			case CBRANCH:
+			case BRANCHIND:
+			case CALL:
+			case CALLIND:
+			case RETURN:
+				flags |= HAS_ADDRESS | BRANCHED;
+				address = next;
+				break;
+			default:
+				break;
+		}
+		int at = pos;
+		pos += RECORD_SIZE;
+		if (pos == end) pos = HEADER_SIZE;
+		buf.putInt(at, pc);
+		buf.putShort(at + 4, (short) op.opcode.ordinal());
+		buf.put(at + 6, (byte) flags);
+		buf.put(at + 7, (byte) Math.min(size, 255));
+		buf.putLong(at + 8, value);
+		buf.putLong(at + 16, address);
+		if ((++count & 0xfff) == 0) {
+			buf.putLong(COUNT, count);
+		}
+	}
+
+	// records written so far, including any that have been overwritten
+	public long count() {
+		return count;
+	}
+
+	// flushes the file; the writer can't be used after this
+	public void close() {
+		buf.putLong(COUNT, count);
+		buf.force();
+		buf = null;
+	}
+}
@@ -0,0 +1,26 @@
+package com.galois.symbolicSimulator;
+
+// Thrown by a read of never-written bytes when the machine state's policy
+// is FAIL (see PCodeUninitializedReads).  Unchecked, as any read of a
+// space can raise it; it ends the run like any other interpreter error.
+public class PCodeUninitializedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	final String space;
+	final long address;
+
+	public PCodeUninitializedException(String space, long address, int size) {
+		super("fetch from uninitialized " + space + " @ 0x" + Long.toHexString(address)
+				+ (size > 1 ? " (" + size + " bytes)" : ""));
+		this.space = space;
+		this.address = address;
+	}
+
+	public String getSpace() {
+		return space;
+	}
+
+	public long getAddress() {
+		return address;
+	}
+}
@@ -0,0 +1,137 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// What a machine state does when a read touches bytes that were never
+// written.  Every space already keeps a bitmap of its initialized bytes
+// (PagedMemory pages, the register file and unique words each have one),
+// so a read only ends up here when the bitmap says a byte is missing;
+// such reads are rare enough to be worth a table lookup.
+//
+//   ZERO    missing bytes read as zero, and that's all
+//   FAIL    the read throws a PCodeUninitializedException
+//   RECORD  (the default) missing bytes read as zero, and the read is
+//           counted against the space and address it started at
+//
+// Programs that read stack slots before writing them do so over and over,
+// so RECORD keeps one counter per address rather than reporting each read.
+public class PCodeUninitializedReads {
+	public enum Policy { ZERO, FAIL, RECORD }
+
+	Policy policy = Policy.RECORD;
+
+	// open-addressing table of counts keyed by (space, address)
+	PCodeSpace[] spaces = new PCodeSpace[64]; // null if empty
+	long[] addrs = new long[64];
+	long[] counts = new long[64];
+	int used = 0;
+	long total = 0;
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(Policy p) {
+		policy = p;
+	}
+
+	// A read of size bytes at addr in s found some of them uninitialized
+	void read(PCodeSpace s, long addr, int size) {
+		switch (policy) {
+			case ZERO:
+				break;
+			case FAIL:
+				throw new PCodeUninitializedException(s.name, addr, size);
+			case RECORD:
+				counts[slot(s, addr)]++;
+				total++;
+				break;
+		}
+	}
+
+	private static int hash(PCodeSpace s, long addr) {
+		long k = (addr ^ ((long) System.identityHashCode(s) << 32)) * 0x9e3779b97f4a7c15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	private int slot(PCodeSpace s, long addr) {
+		int mask = spaces.length - 1;
+		for (int i = hash(s, addr) & mask; ; i = (i + 1) & mask) {
+			if (spaces[i] == s && addrs[i] == addr) return i;
+			if (spaces[i] == null) {
+				if ((used + 1) * 2 > spaces.length) {
+					grow();
+					return slot(s, addr);
+				}
+				spaces[i] = s;
+				addrs[i] = addr;
+				used++;
+				return i;
+			}
+		}
+	}
+
+	private void grow() {
+		PCodeSpace[] oldSpaces = spaces;
+		long[] oldAddrs = addrs;
+		long[] oldCounts = counts;
+		spaces = new PCodeSpace[oldSpaces.length * 2];
+		addrs = new long[oldSpaces.length * 2];
+		counts = new long[oldSpaces.length * 2];
+		used = 0;
+		for (int i = 0; i < oldSpaces.length; i++) {
+			if (oldSpaces[i] != null) {
+				counts[slot(oldSpaces[i], oldAddrs[i])] = oldCounts[i];
+			}
+		}
+	}
+
+	// uninitialized reads recorded so far
+	public long total() {
+		return total;
+	}
+
+	// addresses they were at
+	public int addresses() {
+		return used;
+	}
+
+	// reads recorded at addr in the named space
+	public long count(String space, long addr) {
+		for (int i = 0; i < spaces.length; i++) {
+			if (spaces[i] != null && addrs[i] == addr && spaces[i].name.equals(space)) return counts[i];
+		}
+		return 0;
+	}
+
+	public void clear() {
+		Arrays.fill(spaces, null);
+		Arrays.fill(counts, 0);
+		used = 0;
+		total = 0;
+	}
+
+	// one line per address, most reads first
+	public String toString() {
+		Integer[] order = new Integer[used];
+		int n = 0;
+		for (int i = 0; i < spaces.length; i++) {
+			if (spaces[i] != null) order[n++] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (counts[a] != counts[b]) return counts[a] > counts[b] ? -1 : 1;
+				int c = spaces[a].name.compareTo(spaces[b].name);
+				return c != 0 ? c : UnsignedLong.compare(addrs[a], addrs[b]);
+			}
+		});
+		StringBuilder s = new StringBuilder();
+		s.append(total).append(" uninitialized reads at ").append(used).append(" addresses\n");
+		for (int i : order) {
+			s.append("  ").append(spaces[i].name).append(" 0x").append(Long.toHexString(addrs[i]))
+				.append(": ").append(counts[i]).append('\n');
+		}
+		return s.toString();
+	}
+}
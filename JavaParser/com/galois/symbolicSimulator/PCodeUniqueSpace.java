@@ -0,0 +1,229 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+
+// The unique space: scratch temporaries that only live for the length of
+// one machine instruction.  Sleigh hands out unique offsets sparsely
+// (0x100, 0x1c30, 0x12580, ...) but an instruction only touches a few of
+// them, so this is a small open-addressing table of 8-byte words keyed by
+// offset / 8, with a bitmask per word of which bytes are initialized.
+//
+// Every slot is stamped with the generation that wrote it, and only slots
+// from the current generation are live.  reset() starts a new generation,
+// which empties the space in constant time without clearing the table; the
+// interpreter calls it at each macro-instruction boundary.  With retain set
+// the temporaries are kept around instead, which is handy when debugging.
+public class PCodeUniqueSpace extends PCodeSpace {
+	long[] keys;
+	long[] words;
+	int[] marks;
+	int[] gens;
+	int generation = 1;
+	int live = 0; // slots in the current generation
+	boolean retain = false;
+
+	public PCodeUniqueSpace(PCodeArchSpec a) {
+		super("unique", a);
+		contents = null;
+		allocate(64);
+	}
+
+	private void allocate(int cap) {
+		keys = new long[cap];
+		words = new long[cap];
+		marks = new int[cap];
+		gens = new int[cap];
+	}
+
+	private static int hash(long k) {
+		k *= 0x9e3779b97f4a7c15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	// forget every temporary, unless they are being retained
+	public void reset() {
+		if (retain) return;
+		if (observer != null) observer.beforeReset(this);
+		clear();
+	}
+
+	public void clear() {
+		live = 0;
+		if (++generation == 0) {
+			// wrapped around; old stamps could look current again
+			Arrays.fill(gens, 0);
+			generation = 1;
+		}
+	}
+
+	// the slot holding word, or -1
+	private int find(long word) {
+		int mask = keys.length - 1;
+		for (int i = hash(word) & mask; ; i = (i + 1) & mask) {
+			if (gens[i] != generation) return -1;
+			if (keys[i] == word) return i;
+		}
+	}
+
+	private int findOrAdd(long word) {
+		int mask = keys.length - 1;
+		for (int i = hash(word) & mask; ; i = (i + 1) & mask) {
+			if (gens[i] != generation) {
+				if ((live + 1) * 2 > keys.length) {
+					grow();
+					return findOrAdd(word);
+				}
+				keys[i] = word;
+				words[i] = 0;
+				marks[i] = 0;
+				gens[i] = generation;
+				live++;
+				return i;
+			}
+			if (keys[i] == word) return i;
+		}
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldWords = words;
+		int[] oldMarks = marks;
+		int[] oldGens = gens;
+		allocate(oldKeys.length * 2);
+		live = 0;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldGens[j] != generation) continue;
+			int i = findOrAdd(oldKeys[j]);
+			words[i] = oldWords[j];
+			marks[i] = oldMarks[j];
+		}
+	}
+
+	public int readByte(long addr) {
+		return peekByte(addr);
+	}
+
+	int peekByte(long addr) {
+		int i = find(addr >>> 3);
+		int b = (int) addr & 7;
+		if (i < 0 || (marks[i] & (1 << b)) == 0) return -1;
+		return (int) (words[i] >>> (8 * b)) & 0xff;
+	}
+
+	public void writeByte(long addr, int val) {
+		if (observer != null) observer.beforeWrite(this, addr, 1);
+		if (watch != null) watch.write(addr, 1);
+		int i = findOrAdd(addr >>> 3);
+		int b = (int) addr & 7;
+		words[i] = (words[i] & ~(0xffL << (8 * b))) | ((long) (val & 0xff) << (8 * b));
+		marks[i] |= 1 << b;
+	}
+
+	void restoreByte(long addr, int val) {
+		int b = (int) addr & 7;
+		if (val >= 0) {
+			int i = findOrAdd(addr >>> 3);
+			words[i] = (words[i] & ~(0xffL << (8 * b))) | ((long) val << (8 * b));
+			marks[i] |= 1 << b;
+		} else {
+			int i = find(addr >>> 3);
+			if (i >= 0) marks[i] &= ~(1 << b);
+		}
+	}
+
+	// the live temporaries only; restoring starts a new generation
+	Object save() {
+		PCodeUniqueSpace s = new PCodeUniqueSpace(arch);
+		s.keys = keys.clone();
+		s.words = words.clone();
+		s.marks = marks.clone();
+		s.gens = gens.clone();
+		s.generation = generation;
+		s.live = live;
+		return s;
+	}
+
+	void restore(Object saved) {
+		PCodeUniqueSpace s = (PCodeUniqueSpace) saved;
+		clear();
+		for (int j = 0; j < s.keys.length; j++) {
+			if (s.gens[j] != s.generation) continue;
+			int i = findOrAdd(s.keys[j]);
+			words[i] = s.words[j];
+			marks[i] = s.marks[j];
+		}
+	}
+
+	// Words are kept little-endian, so a temporary that doesn't straddle
+	// a word boundary is a shift and a mask away.
+	public long loadLong(long addr, int size) {
+		if (watch != null) watch.read(addr, size);
+		int b = (int) addr & 7;
+		if (b + size > 8) return loadBytes(addr, size);
+		int i = find(addr >>> 3);
+		int want = ((1 << size) - 1) << b;
+		if (i < 0 || (marks[i] & want) != want) {
+			return loadBytes(addr, size); // counts the read as uninitialized
+		}
+		long v = words[i] >>> (8 * b);
+		if (arch.bigEndianP) {
+			return Long.reverseBytes(v) >>> (64 - 8 * size);
+		}
+		return size == 8 ? v : v & ((1L << (8 * size)) - 1);
+	}
+
+	public void storeLong(long addr, int size, long val) {
+		int b = (int) addr & 7;
+		if (b + size > 8) {
+			super.storeLong(addr, size, val);
+			return;
+		}
+		if (arch.bigEndianP) {
+			val = Long.reverseBytes(val) >>> (64 - 8 * size);
+		}
+		if (observer != null) observer.beforeWrite(this, addr, size);
+		if (watch != null) watch.write(addr, size);
+		long mask = size == 8 ? -1L : (1L << (8 * size)) - 1;
+		int i = findOrAdd(addr >>> 3);
+		words[i] = (words[i] & ~(mask << (8 * b))) | ((val & mask) << (8 * b));
+		marks[i] |= ((1 << size) - 1) << b;
+	}
+
+	PagedMemory.Cursor cursor() {
+		// flip the sign bits so a signed sort gives unsigned order
+		final long[] order = new long[live];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (gens[i] == generation) order[n++] = keys[i] ^ Long.MIN_VALUE;
+		}
+		Arrays.sort(order);
+		return new PagedMemory.Cursor() {
+			int w = 0;
+			int slot = -1;
+			int b = 8;
+
+			public boolean next() {
+				while (w < order.length) {
+					if (slot < 0) {
+						slot = find(order[w] ^ Long.MIN_VALUE);
+						b = -1;
+					}
+					while (++b < 8) {
+						if ((marks[slot] & (1 << b)) != 0) return true;
+					}
+					w++;
+					slot = -1;
+				}
+				return false;
+			}
+
+			public long address() {
+				return (keys[slot] << 3) | b;
+			}
+
+			public int value() {
+				return (int) (words[slot] >>> (8 * b)) & 0xff;
+			}
+		};
+	}
+}
@@ -0,0 +1,79 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+
+// The watchpoints on one space.  A space with any has its watch field set
+// and reports each read and write here.  Most accesses are nowhere near a
+// watchpoint, so we first look at which pages are being watched (rarely
+// more than a few), and only look at the watchpoints themselves when the
+// access lands on one of them.
+class PCodeWatchpoints {
+	static final int READ = 1;
+	static final int WRITE = 2;
+
+	PCodeBreakpoints owner;
+	PCodeSpace space;
+	long[] pages = new long[0]; // page numbers with a watchpoint on them
+	long[] addrs = new long[0];
+	int[] sizes = new int[0];
+	int[] kinds = new int[0]; // READ, WRITE or both
+
+	PCodeWatchpoints(PCodeBreakpoints owner, PCodeSpace space) {
+		this.owner = owner;
+		this.space = space;
+	}
+
+	void add(long addr, int size, int kind) {
+		int n = addrs.length;
+		addrs = Arrays.copyOf(addrs, n + 1);
+		sizes = Arrays.copyOf(sizes, n + 1);
+		kinds = Arrays.copyOf(kinds, n + 1);
+		addrs[n] = addr;
+		sizes[n] = size;
+		kinds[n] = kind;
+		for (long p = addr >>> PagedMemory.PAGE_BITS; ; p++) {
+			if (!watched(p)) {
+				pages = Arrays.copyOf(pages, pages.length + 1);
+				pages[pages.length - 1] = p;
+			}
+			if (p == (addr + size - 1) >>> PagedMemory.PAGE_BITS) break;
+		}
+	}
+
+	private boolean watched(long page) {
+		for (long p : pages) {
+			if (p == page) return true;
+		}
+		return false;
+	}
+
+	void read(long addr, int size) {
+		// an access is far smaller than a page (a word, or a varnode of a
+		// few words), so touches at most two pages
+		if (watched(addr >>> PagedMemory.PAGE_BITS) || watched((addr + size - 1) >>> PagedMemory.PAGE_BITS)) {
+			check(addr, size, READ);
+		}
+	}
+
+	void write(long addr, int size) {
+		if (watched(addr >>> PagedMemory.PAGE_BITS) || watched((addr + size - 1) >>> PagedMemory.PAGE_BITS)) {
+			check(addr, size, WRITE);
+		}
+	}
+
+	private void check(long addr, int size, int kind) {
+		for (int i = 0; i < addrs.length; i++) {
+			if ((kinds[i] & kind) == 0) continue;
+			// [addr, addr + size) and [addrs[i], addrs[i] + sizes[i]) overlap
+			if (UnsignedLong.compare(addr - addrs[i], sizes[i]) < 0
+					|| UnsignedLong.compare(addrs[i] - addr, size) < 0) {
+				owner.triggered(this, i, addr, size, kind);
+			}
+		}
+	}
+
+	String describe(int i) {
+		String kind = kinds[i] == READ ? "read" : kinds[i] == WRITE ? "write" : "access";
+		return kind + " " + space.name + " 0x" + Long.toHexString(addrs[i]) + ":" + sizes[i];
+	}
+}
@@ -0,0 +1,11 @@
+package com.galois.symbolicSimulator;
+
+// Told before a space's bytes change, while they still hold their old
+// values: before size bytes at addr are written, and before the unique
+// space throws its temporaries away at an instruction boundary.  The
+// undo log of PCodeHistory hangs off this.
+public interface PCodeWriteObserver {
+	void beforeWrite(PCodeSpace s, long addr, int size);
+
+	void beforeReset(PCodeUniqueSpace u);
+}
@@ -0,0 +1,284 @@
+package com.galois.symbolicSimulator;
+
+import java.util.Arrays;
+
+// Sparse byte-addressed memory for a PCodeSpace.  Addresses are unsigned
+// 64-bit; memory is split into 4 KB pages that are allocated on first
+// write and found through an open-addressing table keyed by page number.
+// Each page keeps a bitmap of the bytes that have been written, so reads
+// of never-written memory can still be told apart from zeroes.
+//
+// Loads and stores are constant time.  The most recently used page is
+// cached, which catches nearly all accesses in straight-line code.
+//
+// A memory can also be a copy-on-write overlay of a base memory, as each
+// machine state's RAM is of the program's data segment: reads fall
+// through to the base's pages, and a page is copied on the first write
+// to it.  The base is never written through an overlay, so any number of
+// overlays (on any number of threads) can share one, as long as nothing
+// else writes to it meanwhile.
+public class PagedMemory {
+	static final int PAGE_BITS = 12;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	static final class Page {
+		final long number;
+		final byte[] data = new byte[PAGE_SIZE];
+		final long[] init = new long[PAGE_SIZE / 64];
+		int count; // initialized bytes in this page
+
+		Page(long number) {
+			this.number = number;
+		}
+
+		boolean isInit(int i) {
+			return (init[i >>> 6] & (1L << i)) != 0;
+		}
+
+		Page copy() {
+			Page p = new Page(number);
+			System.arraycopy(data, 0, p.data, 0, PAGE_SIZE);
+			System.arraycopy(init, 0, p.init, 0, init.length);
+			p.count = count;
+			return p;
+		}
+	}
+
+	Page[] table = new Page[16];
+	int pages = 0; // our own, not counting the base's
+	int size = 0; // initialized bytes overall
+	Page last;
+	PagedMemory base; // read-only memory underneath, or null
+	Page lastBase;
+
+	public PagedMemory() {
+	}
+
+	public PagedMemory(PagedMemory base) {
+		if (base.base != null) {
+			throw new IllegalArgumentException("overlays don't stack");
+		}
+		this.base = base;
+		size = base.size;
+	}
+
+	private static int hash(long pageNumber) {
+		long k = pageNumber * 0x9e3779b97f4a7c15L;
+		return (int) (k ^ (k >>> 32));
+	}
+
+	// the page to read pageNumber from, ours or the base's
+	Page page(long pageNumber) {
+		Page p = own(pageNumber);
+		if (p != null || base == null) return p;
+		p = lastBase;
+		if (p != null && p.number == pageNumber) return p;
+		p = base.find(pageNumber);
+		if (p != null) lastBase = p;
+		return p;
+	}
+
+	private Page own(long pageNumber) {
+		Page p = last;
+		if (p != null && p.number == pageNumber) return p;
+		p = find(pageNumber);
+		if (p != null) last = p;
+		return p;
+	}
+
+	// looks in the table only, so a base is never written by reading it
+	private Page find(long pageNumber) {
+		int mask = table.length - 1;
+		for (int i = hash(pageNumber) & mask; ; i = (i + 1) & mask) {
+			Page p = table[i];
+			if (p == null || p.number == pageNumber) return p;
+		}
+	}
+
+	private Page pageForWrite(long pageNumber) {
+		Page p = own(pageNumber);
+		if (p != null) return p;
+		if ((pages + 1) * 2 > table.length) {
+			grow();
+		}
+		Page under = base == null ? null : base.find(pageNumber);
+		// the base's bytes are already counted in size
+		p = under == null ? new Page(pageNumber) : under.copy();
+		insert(p);
+		pages++;
+		last = p;
+		return p;
+	}
+
+	private void insert(Page p) {
+		int mask = table.length - 1;
+		int i = hash(p.number) & mask;
+		while (table[i] != null) i = (i + 1) & mask;
+		table[i] = p;
+	}
+
+	private void grow() {
+		Page[] old = table;
+		table = new Page[old.length * 2];
+		for (Page p : old) {
+			if (p != null) insert(p);
+		}
+	}
+
+	// the byte at addr, or -1 if it has never been written
+	public int read(long addr) {
+		Page p = page(addr >>> PAGE_BITS);
+		if (p == null) return -1;
+		int i = (int) addr & PAGE_MASK;
+		return p.isInit(i) ? p.data[i] & 0xff : -1;
+	}
+
+	public boolean isInitialized(long addr) {
+		return read(addr) >= 0;
+	}
+
+	public void write(long addr, int val) {
+		Page p = pageForWrite(addr >>> PAGE_BITS);
+		int i = (int) addr & PAGE_MASK;
+		long bit = 1L << i;
+		if ((p.init[i >>> 6] & bit) == 0) {
+			p.init[i >>> 6] |= bit;
+			p.count++;
+			size++;
+		}
+		p.data[i] = (byte) val;
+	}
+
+	// back to never written
+	public void erase(long addr) {
+		if (page(addr >>> PAGE_BITS) == null) return;
+		Page p = pageForWrite(addr >>> PAGE_BITS);
+		int i = (int) addr & PAGE_MASK;
+		long bit = 1L << i;
+		if ((p.init[i >>> 6] & bit) != 0) {
+			p.init[i >>> 6] &= ~bit;
+			p.count--;
+			size--;
+		}
+	}
+
+	// An independent memory with the same bytes, over the same base
+	PagedMemory copy() {
+		PagedMemory m = new PagedMemory();
+		m.base = base;
+		m.table = new Page[table.length];
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] != null) m.table[i] = table[i].copy();
+		}
+		m.pages = pages;
+		m.size = size;
+		return m;
+	}
+
+	// Overwrite the whole of page pageNumber; init marks which bytes of
+	// data are initialized.  Used to load memory images a page at a time.
+	void writePage(long pageNumber, byte[] data, long[] init) {
+		Page p = pageForWrite(pageNumber);
+		size -= p.count;
+		p.count = 0;
+		System.arraycopy(data, 0, p.data, 0, PAGE_SIZE);
+		for (int w = 0; w < p.init.length; w++) {
+			p.init[w] = init[w];
+			p.count += Long.bitCount(init[w]);
+		}
+		size += p.count;
+	}
+
+	// number of initialized bytes
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	// allocated pages, in unsigned address order
+	Page[] sortedPages() {
+		Page[] ps = new Page[pages + (base == null ? 0 : base.pages)];
+		int n = 0;
+		for (Page p : table) {
+			if (p != null) ps[n++] = p;
+		}
+		if (base != null) {
+			for (Page p : base.table) {
+				if (p != null && find(p.number) == null) ps[n++] = p;
+			}
+			ps = Arrays.copyOf(ps, n);
+		}
+		Arrays.sort(ps, new java.util.Comparator<Page>() {
+			public int compare(Page a, Page b) {
+				return UnsignedLong.compare(a.number, b.number);
+			}
+		});
+		return ps;
+	}
+
+	// Walks the initialized bytes in unsigned address order:
+	//   for (PagedMemory.Cursor c = mem.cursor(); c.next(); ) { c.address(); c.value(); }
+	public Cursor cursor() {
+		return new Cursor(sortedPages());
+	}
+
+	public static class Cursor {
+		Page[] ps;
+		int page = 0;
+		int index = -1;
+
+		Cursor(Page[] ps) {
+			this.ps = ps;
+		}
+
+		// for spaces that are not paged but are walked the same way
+		protected Cursor() {
+			this(new Page[0]);
+		}
+
+		public boolean next() {
+			while (page < ps.length) {
+				Page p = ps[page];
+				while (++index < PAGE_SIZE) {
+					if (p.isInit(index)) return true;
+				}
+				page++;
+				index = -1;
+			}
+			return false;
+		}
+
+		public long address() {
+			return (ps[page].number << PAGE_BITS) | index;
+		}
+
+		public int value() {
+			return ps[page].data[index] & 0xff;
+		}
+	}
+
+	// Two memories are equal when they have the same initialized bytes
+	// with the same values, however their pages were allocated.
+	public boolean equals(Object o) {
+		if (!(o instanceof PagedMemory)) return false;
+		PagedMemory other = (PagedMemory) o;
+		if (other.size != size) return false;
+		for (Cursor c = cursor(); c.next(); ) {
+			if (other.read(c.address()) != c.value()) return false;
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		int h = 0;
+		for (Cursor c = cursor(); c.next(); ) {
+			long a = c.address();
+			h += (int) (a ^ (a >>> 32)) ^ c.value();
+		}
+		return h;
+	}
+}
@@ -1,6 +1,10 @@
 package com.galois.symbolicSimulator;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
 
 import org.junit.*;
@@ -28,6 +32,278 @@ public class TestParser {
 		assertNotNull("Unable to find _fib", fibFun);
 	}
 
+	@Test
+	public void testStreamParser() {
+		PCodeParser streamParser = new PCodeParser("fib.xml", System.out, true);
+		PCodeProgram streamed = streamParser.parseProgram();
+		assertNotNull("Stream parser failed to produce a program", streamed);
+		assertEquals("function count", program.functions.keySet(), streamed.functions.keySet());
+		assertEquals("word size", program.archSpec.wordSize, streamed.archSpec.wordSize);
+		assertEquals("endianness", program.archSpec.bigEndianP, streamed.archSpec.bigEndianP);
+		assertEquals("data segment", program.dataSegment.contents, streamed.dataSegment.contents);
+		assertEquals("op count", program.codeSegment.microOps.size(), streamed.codeSegment.microOps.size());
+		for (int i = 0; i < program.codeSegment.microOps.size(); i++) {
+			PCodeOp expected = program.codeSegment.fetch(i);
+			PCodeOp actual = streamed.codeSegment.fetch(i);
+			assertEquals("op " + i, expected.toString(), actual.toString());
+			assertEquals("op line " + i, expected.loc.getStartLine(), actual.loc.getStartLine());
+		}
+		for (PCodeFunction f : program.getFunctions()) {
+			PCodeFunction g = streamed.lookupFunction(f.name);
+			assertEquals("entry of " + f.name, f.macroEntryPoint.offset, g.macroEntryPoint.offset);
+			assertEquals("length of " + f.name, f.length, g.length);
+			assertEquals("blocks of " + f.name, f.basicBlocks.size(), g.basicBlocks.size());
+		}
+	}
+
+	@Test
+	public void testParallelParser() {
+		PCodeProgram serial = new PCodeParser("fib.xml", System.out, true).parseProgram();
+		PCodeParser parallelParser = new PCodeParser("fib.xml", System.out, true);
+		parallelParser.setParallelism(4);
+		PCodeProgram parallel = parallelParser.parseProgram();
+		assertEquals("functions", serial.functions.keySet(), parallel.functions.keySet());
+		assertEquals("word size", serial.archSpec.wordSize, parallel.archSpec.wordSize);
+		assertEquals("data segment", serial.dataSegment.contents, parallel.dataSegment.contents);
+		assertEquals("varnodes", serial.varnodes.size(), parallel.varnodes.size());
+		assertEquals("op count", serial.codeSegment.microOps.size(), parallel.codeSegment.microOps.size());
+		for (int i = 0; i < serial.codeSegment.microOps.size(); i++) {
+			assertEquals("op " + i, serial.codeSegment.fetch(i).toString(), parallel.codeSegment.fetch(i).toString());
+			assertEquals("op loc " + i, serial.codeSegment.fetch(i).loc.toString(), parallel.codeSegment.fetch(i).loc.toString());
+		}
+	}
+
+	@Test
+	public void testLazyLoading() throws Exception {
+		PCodeParser lazyParser = new PCodeParser("fib.xml", System.out, true);
+		lazyParser.setLazy(true);
+		PCodeProgram lazy = lazyParser.parseProgram();
+		PCodeProgram serial = new PCodeParser("fib.xml", System.out, true).parseProgram();
+		assertTrue("nothing loaded up front", lazy.functions.isEmpty());
+		assertTrue("names known up front", lazy.getFunctionNames().containsAll(serial.functions.keySet()));
+		assertEquals("data segment", serial.dataSegment.contents, lazy.dataSegment.contents);
+
+		PCodeFunction fib = lazy.lookupFunction("_fib");
+		assertNotNull("Unable to find _fib", fib);
+		assertEquals("only _fib loaded", 1, lazy.functions.size());
+		PCodeFunction expected = serial.lookupFunction("_fib");
+		assertEquals("length of _fib", expected.length, fib.length);
+		int pc = serial.codeSegment.microAddrOfVarnode(expected.macroEntryPoint);
+		int lazyPc = lazy.codeSegment.microAddrOfVarnode(fib.macroEntryPoint);
+		for (int i = 0; i < fib.length; i++) {
+			assertEquals("op " + i, serial.codeSegment.fetch(pc + i).toString(), lazy.codeSegment.fetch(lazyPc + i).toString());
+			assertEquals("op loc " + i, serial.codeSegment.fetch(pc + i).loc.toString(), lazy.codeSegment.fetch(lazyPc + i).loc.toString());
+		}
+
+		// _main is found by its address
+		long mainEntry = serial.lookupFunction("_main").macroEntryPoint.offset;
+		lazy.codeSegment.microAddrOfMacroInstr(mainEntry);
+		assertNotNull("_main loaded by address", lazy.functions.get("_main"));
+
+		lazy.getFunctions();
+		assertEquals("functions", serial.functions.keySet(), lazy.functions.keySet());
+		assertEquals("varnodes", serial.varnodes.size(), lazy.varnodes.size());
+
+		// 0x3c is past _fib's last instruction, at 0x38, and short of _main
+		PCodeParser gapParser = new PCodeParser("fib.xml", System.out, true);
+		gapParser.setLazy(true);
+		PCodeProgram gap = gapParser.parseProgram();
+		try {
+			gap.codeSegment.microAddrOfMacroInstr(0x3c);
+			fail("code found in the gap");
+		} catch (Exception e) {
+			assertTrue("nothing loaded for the gap", gap.functions.isEmpty());
+		}
+	}
+
+	@Test
+	public void testFunctionIndex() throws Exception {
+		PCodeFunctionIndex plain = new PCodeFunctionIndex("fib.xml");
+		assertEquals(3, plain.size());
+		assertEquals("_fib", plain.entries.get(0).name);
+		assertEquals(Long.valueOf(0x0), plain.entries.get(0).entry);
+		assertEquals(Long.valueOf(0x38), plain.entries.get(0).last);
+		assertEquals(4, plain.entries.get(0).startLine);
+
+		// function tags in a comment or CDATA section aren't functions
+		java.io.File fib = new java.io.File("fib.xml");
+		byte[] bytes = new byte[(int) fib.length()];
+		java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(fib));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		String xml = new String(bytes, "ISO-8859-1");
+		xml = xml.replaceFirst("<executable>\n", "<executable>\n<!-- <function_description><function name=\"_a\"> -->"
+				+ "<![CDATA[<function_description></function_description>]]>\n");
+		java.io.File f = java.io.File.createTempFile("commented", ".xml");
+		try {
+			java.io.FileOutputStream out = new java.io.FileOutputStream(f);
+			try {
+				out.write(xml.getBytes("ISO-8859-1"));
+			} finally {
+				out.close();
+			}
+			PCodeFunctionIndex commented = new PCodeFunctionIndex(f.getPath());
+			assertEquals(3, commented.size());
+			assertEquals("_fib", commented.entries.get(0).name);
+			assertEquals(5, commented.entries.get(0).startLine);
+			PCodeParser p = new PCodeParser(f.getPath(), System.out, true);
+			p.setParallelism(2);
+			PCodeProgram parsed = p.parseProgram();
+			assertEquals(program.functions.keySet(), parsed.functions.keySet());
+			assertEquals(program.dataSegment.contents, parsed.dataSegment.contents);
+		} finally {
+			f.delete();
+		}
+	}
+
+	@Test
+	public void testProgramCache() throws Exception {
+		java.io.File cache = java.io.File.createTempFile("fib", PCodeProgramCache.SUFFIX);
+		try {
+			byte[] hash = PCodeProgramCache.hashOf(new java.io.File("fib.xml"));
+			PCodeProgramCache.save(program, cache, hash);
+			PCodeProgram cached = PCodeProgramCache.load(cache, hash);
+			assertNotNull("Cache failed to load", cached);
+			assertNull("Stale cache accepted", PCodeProgramCache.load(cache, new byte[hash.length]));
+			assertNull("Short hash accepted", PCodeProgramCache.load(cache, new byte[4]));
+
+			assertEquals("functions", program.functions.keySet(), cached.functions.keySet());
+			assertEquals("data segment", program.dataSegment.contents, cached.dataSegment.contents);
+			assertEquals("varnodes", program.varnodes.size(), cached.varnodes.size());
+			assertEquals("op count", program.codeSegment.microOps.size(), cached.codeSegment.microOps.size());
+			for (int i = 0; i < program.codeSegment.microOps.size(); i++) {
+				assertEquals("op " + i, program.codeSegment.fetch(i).toString(), cached.codeSegment.fetch(i).toString());
+				assertEquals("op loc " + i, program.codeSegment.fetch(i).loc.toString(), cached.codeSegment.fetch(i).loc.toString());
+			}
+			for (PCodeFunction f : program.getFunctions()) {
+				PCodeFunction g = cached.lookupFunction(f.name);
+				assertEquals("entry of " + f.name, f.macroEntryPoint.offset, g.macroEntryPoint.offset);
+				assertEquals("length of " + f.name, f.length, g.length);
+				assertEquals("blocks of " + f.name, f.basicBlocks.size(), g.basicBlocks.size());
+			}
+
+			// a write cut short leaves a cache that's no use, not an exception
+			java.io.RandomAccessFile raf = new java.io.RandomAccessFile(cache, "rw");
+			try {
+				raf.setLength(raf.length() / 2);
+			} finally {
+				raf.close();
+			}
+			assertNull("Truncated cache accepted", PCodeProgramCache.load(cache, hash));
+		} finally {
+			cache.delete();
+		}
+	}
+
+	@Test
+	public void testPagedMemory() {
+		PagedMemory mem = new PagedMemory();
+		assertEquals("fresh memory", -1, mem.read(0x1000));
+		mem.write(0xfff, 0xab); // last byte of page 0
+		mem.write(0x1000, 0);   // first byte of page 1
+		mem.write(0xfffffffffffffff0L, 0x7f);
+		assertEquals("end of page", 0xab, mem.read(0xfff));
+		assertEquals("written zero is initialized", 0, mem.read(0x1000));
+		assertEquals("neighbour uninitialized", -1, mem.read(0x1001));
+		assertEquals("top of address space", 0x7f, mem.read(0xfffffffffffffff0L));
+		assertEquals("initialized bytes", 3, mem.size());
+
+		PagedMemory.Cursor c = mem.cursor();
+		assertTrue(c.next());
+		assertEquals("unsigned order", 0xfff, c.address());
+		assertTrue(c.next());
+		assertEquals("unsigned order", 0x1000, c.address());
+		assertTrue(c.next());
+		assertEquals("unsigned order", 0xfffffffffffffff0L, c.address());
+		assertFalse(c.next());
+
+		PagedMemory overlay = new PagedMemory(mem);
+		assertEquals("reads through", 0xab, overlay.read(0xfff));
+		overlay.write(0xffe, 0xcd);
+		overlay.write(0x2000, 1);
+		assertEquals("copied page", 0xab, overlay.read(0xfff));
+		assertEquals("base untouched", -1, mem.read(0xffe));
+		assertEquals("initialized bytes", 5, overlay.size());
+		assertEquals("base size", 3, mem.size());
+	}
+
+	@Test
+	public void testRegisterSpace() {
+		PCodeArchSpec little = new PCodeArchSpec();
+		PCodeRegisterSpace regs = new PCodeRegisterSpace(little, 0x300);
+		regs.storeLong(0x20, 8, 0x1122334455667788L);
+		assertEquals("little-endian low byte", 0x88, regs.readByte(0x20));
+		assertEquals("word read", 0x1122334455667788L, regs.loadLong(0x20, 8));
+		assertEquals("narrow read", 0x7788L, regs.loadLong(0x20, 2));
+		assertEquals("untouched", -1, regs.readByte(0x28));
+
+		PCodeArchSpec big = new PCodeArchSpec();
+		big.bigEndianP = true;
+		regs = new PCodeRegisterSpace(big, 0x60);
+		regs.storeLong(0x20, 4, 0xcafef00dL);
+		assertEquals("big-endian high byte", 0xca, regs.readByte(0x20));
+		assertEquals("word read", 0xcafef00dL, regs.loadLong(0x20, 4));
+
+		regs.storeLong(0x400, 8, -1L); // beyond the preallocated size
+		assertEquals("grown", -1L, regs.loadLong(0x400, 8));
+
+		// a read with bytes missing is still one read
+		final int[] reads = new int[1];
+		regs.storeLong(0x40, 4, 0x1234);
+		regs.watch = new PCodeWatchpoints(null, regs) {
+			void read(long addr, int size) {
+				reads[0]++;
+			}
+		};
+		assertEquals("half written", 0x1234L << 32, regs.loadLong(0x40, 8));
+		assertEquals("reported once", 1, reads[0]);
+	}
+
+	@Test
+	public void testUniqueSpace() {
+		PCodeUniqueSpace u = new PCodeUniqueSpace(new PCodeArchSpec());
+		u.storeLong(0x1c30, 8, 0x1122334455667788L);
+		u.storeLong(0x12586, 4, 0xcafef00dL); // straddles two words
+		assertEquals("word read", 0x1122334455667788L, u.loadLong(0x1c30, 8));
+		assertEquals("narrow read", 0x5566L, u.loadLong(0x1c32, 2));
+		assertEquals("straddling read", 0xcafef00dL, u.loadLong(0x12586, 4));
+		for (int i = 0; i < 1000; i++) {
+			u.writeByte(0x20000 + i * 8, i); // forces the table to grow
+		}
+		assertEquals("after growing", 0x1122334455667788L, u.loadLong(0x1c30, 8));
+
+		u.reset();
+		assertEquals("reset", -1, u.readByte(0x1c30));
+		assertFalse("empty after reset", u.cursor().next());
+		u.writeByte(0x1c30, 0x42);
+		assertEquals("new generation", 0x42, u.readByte(0x1c30));
+		assertEquals("only the new write", -1, u.readByte(0x1c31));
+
+		u.retain = true;
+		u.reset();
+		assertEquals("retained", 0x42, u.readByte(0x1c30));
+
+		PCodeArchSpec big = new PCodeArchSpec();
+		big.bigEndianP = true;
+		u = new PCodeUniqueSpace(big);
+		u.storeLong(0x100, 4, 0xcafef00dL);
+		assertEquals("big-endian high byte", 0xca, u.readByte(0x100));
+		assertEquals("big-endian read", 0xcafef00dL, u.loadLong(0x100, 4));
+
+		// a read with bytes missing is still one read
+		final int[] reads = new int[1];
+		u.watch = new PCodeWatchpoints(null, u) {
+			void read(long addr, int size) {
+				reads[0]++;
+			}
+		};
+		assertEquals("half written", 0xcafef00d00000000L, u.loadLong(0x100, 8));
+		assertEquals("reported once", 1, reads[0]);
+	}
+
 	@Test
 	public void testVarnodes() {
 		try {
@@ -174,9 +450,696 @@ public class TestParser {
 
 	}
 	
+	// the long fast path at the edges of each size
+	@Test
+	public void testLongOpcodes() {
+		try {
+			m.initMachineState();
+			PCodeInterpreter interpreter = new PCodeInterpreter(program);
+			PCodeSpace regs = m.spaces.get("register");
+			PCodeSpace c = m.spaces.get("const");
+
+			Varnode r0 = new Varnode(regs, 0L, 8);
+			Varnode b0 = new Varnode(regs, 0x10L, 1);
+			Varnode allOnes = new Varnode(c, -1L, 8);
+			Varnode minLong = new Varnode(c, Long.MIN_VALUE, 8);
+			Varnode c1 = new Varnode(c, 1L, 8);
+			Varnode c3 = new Varnode(c, 3L, 8);
+			Varnode c7f = new Varnode(c, 0x7fL, 1);
+			Varnode c80 = new Varnode(c, 0x80L, 1);
+			Varnode c01 = new Varnode(c, 1L, 1);
+			Varnode cShift = new Varnode(c, 70L, 8);
+
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_CARRY, b0, allOnes, c1));
+			assertEquals("INT_CARRY", 1L, b0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_CARRY, b0, c7f, c01));
+			assertEquals("INT_CARRY no carry", 0L, b0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SCARRY, b0, c7f, c01));
+			assertEquals("INT_SCARRY", 1L, b0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SBORROW, b0, c80, c01));
+			assertEquals("INT_SBORROW", 1L, b0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SBORROW, b0, c7f, c01));
+			assertEquals("INT_SBORROW no borrow", 0L, b0.fetchLong());
+
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_LESS, b0, c1, allOnes));
+			assertEquals("INT_LESS is unsigned", 1L, b0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SLESS, b0, c80, c7f));
+			assertEquals("INT_SLESS", 1L, b0.fetchLong());
+
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_DIV, r0, allOnes, c3));
+			assertEquals("INT_DIV is unsigned", 0x5555555555555555L, r0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_REM, r0, minLong, c3));
+			assertEquals("INT_REM is unsigned", 2L, r0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SDIV, r0, allOnes, c3));
+			assertEquals("INT_SDIV truncates", 0L, r0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SREM, r0, minLong, c3));
+			assertEquals("INT_SREM takes the dividend's sign", -2L, r0.fetchLong());
+
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_LEFT, r0, c1, cShift));
+			assertEquals("INT_LEFT past the width", 0L, r0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SRIGHT, r0, minLong, cShift));
+			assertEquals("INT_SRIGHT past the width", -1L, r0.fetchLong());
+			interpreter.doOp(new PCodeOp(PCodeOpCode.INT_SEXT, r0, c80, null));
+			assertEquals("INT_SEXT", -128L, r0.fetchLong());
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail("Error in long opcode test: ");
+		}
+	}
+
+	// runs fib(7) through the decoded nodes, to the return to 0xcafe
 	@Test
-	public void testControlFlow() {
-		// TODO: BRANCH, CBRANCH, BRANCHIND, CALL, RETURN, CALLIND
+	public void testDecodedRun() throws Exception {
+		runFib(0);
+	}
+
+	// the same, compiling every block the first time it is entered
+	@Test
+	public void testJit() throws Exception {
+		PCodeInterpreter interpreter = runFib(1);
+		assertTrue("compiled blocks", interpreter.jit.compiledBlocks() > 0);
+	}
+
+	// a relative branch to later in the same instruction has to leave the
+	// temporaries it set where the ops it lands on can read them
+	@Test
+	public void testJitRelativeBranch() throws Exception {
+		PCodeProgram rel = relativeBranchProgram();
+		for (int jit = 0; jit <= 1; jit++) {
+			for (int opt = 0; opt <= 1; opt++) {
+				PCodeRunner r = new PCodeRunner(rel);
+				r.setJitThreshold(jit);
+				r.setOptimize(opt == 1);
+				PCodeRunner.Result res = r.run("_rel");
+				String how = "jit " + jit + ", opt " + opt;
+				assertEquals(how, PCodeRunner.Status.RETURNED, res.status);
+				assertEquals(how, 5L, res.returnValue);
+				assertEquals(how, 0, res.uninitializedReads);
+			}
+		}
+	}
+
+	// _rel at 0x0: u = 5, skip u = 7 by a branch 2 ops on, return u
+	private static PCodeProgram relativeBranchProgram() throws Exception {
+		String u = "<addr space=\"unique\" offset=\"0x100\" size=\"8\"/>";
+		String rsp = "<addr space=\"register\" offset=\"0x20\" size=\"8\"/>";
+		String ret = "<addr space=\"register\" offset=\"0x288\" size=\"8\"/>";
+		String xml = "<executable>\n<endian isBigEndian=\"false\"/>\n<wordSize bits=\"64\"/>\n"
+			+ "<function_description>\n<function name=\"_rel\" size=\"1\">\n<addr space=\"ram\" offset=\"0x0\"/>\n</function>\n"
+			+ "<basicblock>\n"
+			+ op("COPY", 1, 0x0, 0, u + "<addr space=\"const\" offset=\"0x5\" size=\"8\"/>")
+			+ op("CBRANCH", 5, 0x0, 1, "<void/><addr space=\"const\" offset=\"0x2\" size=\"8\"/><addr space=\"const\" offset=\"0x1\" size=\"1\"/>")
+			+ op("COPY", 1, 0x0, 2, u + "<addr space=\"const\" offset=\"0x7\" size=\"8\"/>")
+			+ op("COPY", 1, 0x0, 3, "<addr space=\"register\" offset=\"0x0\" size=\"8\"/>" + u)
+			+ op("LOAD", 2, 0x4, 0, ret + "<spaceid name=\"ram\"/>" + rsp)
+			+ op("INT_ADD", 19, 0x4, 1, rsp + rsp + "<addr space=\"const\" offset=\"0x8\" size=\"8\"/>")
+			+ op("RETURN", 10, 0x4, 2, "<void/>" + ret)
+			+ "</basicblock>\n</function_description>\n"
+			+ "<data_segment>\n<byte address=\"0x10\" value=\"0x00\"/>\n</data_segment>\n</executable>\n";
+		java.io.File f = java.io.File.createTempFile("relative", ".xml");
+		try {
+			java.io.FileOutputStream out = new java.io.FileOutputStream(f);
+			try {
+				out.write(xml.getBytes("ISO-8859-1"));
+			} finally {
+				out.close();
+			}
+			return new PCodeParser(f.getPath(), System.out, true).parseProgram();
+		} finally {
+			f.delete();
+		}
+	}
+
+	private static String op(String mnemonic, int code, long offset, int uniq, String operands) {
+		return "<op mnemonic=\"" + mnemonic + "\" code=\"" + code + "\"><seqnum space=\"ram\" offset=\"0x"
+			+ Long.toHexString(offset) + "\" uniq=\"0x" + Integer.toHexString(uniq) + "\"/>" + operands + "</op>\n";
+	}
+
+	@Test
+	public void testCompiledProgram() throws Exception {
+		java.io.File jar = java.io.File.createTempFile("fib", PCodeCompiledProgram.SUFFIX);
+		try {
+			byte[] hash = PCodeProgramCache.hashOf(new java.io.File("fib.xml"));
+			PCodeCompiledProgram.compile(program, jar, hash);
+			assertNull("Stale jar accepted", PCodeCompiledProgram.load(program, jar, new byte[hash.length]));
+			PCodeCompiledProgram compiled = PCodeCompiledProgram.load(program, jar, hash);
+			assertTrue("compiled blocks", compiled.size() > 0);
+
+			PCodeMachineState s = new PCodeMachineState(program);
+			s.initMachineState();
+			s.initMachineStateForFunctionCall();
+			compiled.run("_fib", s);
+			assertEquals("fib(7)", 13L, new Varnode(s.getSpace("register"), 0L, 8).fetchLong());
+
+			// the blocks of a taken relative branch, as in testJitRelativeBranch
+			PCodeProgram rel = relativeBranchProgram();
+			PCodeCompiledProgram.compile(rel, jar, hash);
+			s = new PCodeMachineState(rel);
+			s.initMachineState();
+			s.initMachineStateForFunctionCall();
+			PCodeCompiledProgram.load(rel, jar, hash).run("_rel", s);
+			assertEquals("relative branch", 5L, new Varnode(s.getSpace("register"), 0L, 8).fetchLong());
+			assertEquals(0, s.getUninitializedReads().total());
+		} finally {
+			jar.delete();
+		}
+	}
+
+	private PCodeInterpreter runFib(int jitThreshold) throws Exception {
+		PCodeInterpreter interpreter = new PCodeInterpreter(program);
+		interpreter.setTrace(false);
+		interpreter.setJitThreshold(jitThreshold);
+		PCodeMachineState s = interpreter.m;
+		s.initMachineState();
+		s.initMachineStateForFunctionCall();
+		s.microPC = s.program.codeSegment.microAddrOfVarnode(program.lookupFunction("_fib").macroEntryPoint);
+		try {
+			for (int i = 0; i < 100000; i++) {
+				interpreter.step(s);
+			}
+			fail("fib(7) didn't return");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("0xcafe"));
+		}
+		assertEquals("fib(7)", 13L, new Varnode(s.getSpace("register"), 0L, 8).fetchLong());
+		return interpreter;
+	}
+
+	@Test
+	public void testRunner() throws Exception {
+		PCodeRunner r = new PCodeRunner(program);
+		long[] fibs = { 0, 1, 1, 2, 3, 5, 8, 13, 21, 34 };
+		for (int n = 0; n < fibs.length; n++) {
+			r.setArgs(n);
+			PCodeRunner.Result res = r.run("_fib");
+			assertEquals("fib(" + n + ")", PCodeRunner.Status.RETURNED, res.status);
+			assertEquals("fib(" + n + ")", fibs[n], res.returnValue);
+			assertTrue("instructions counted", res.instructions > 0 && res.ops >= res.instructions);
+		}
+		r.setArgs(20);
+		r.setBudget(100);
+		PCodeRunner.Result res = r.run("_fib");
+		assertEquals(PCodeRunner.Status.BUDGET, res.status);
+		assertEquals(100, res.instructions);
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		List<long[]> inputs = new ArrayList<long[]>();
+		for (long n = 0; n < 20; n++) {
+			inputs.add(new long[] { n });
+		}
+		List<PCodeRunner.Result> results = new PCodeExecutor(program, 4).runAll("_fib", inputs);
+		long a = 0, b = 1;
+		for (int n = 0; n < 20; n++) {
+			assertEquals("fib(" + n + ")", a, results.get(n).returnValue);
+			b += a;
+			a = b - a;
+		}
+		// every run's stack went to its own copy of RAM
+		assertEquals(-1, program.dataSegment.readByte(PCodeRunner.DEFAULT_STACK_TOP - 1));
+	}
+
+	@Test
+	public void testFuzzer() throws Exception {
+		java.io.File corpus = java.io.File.createTempFile("corpus", "");
+		corpus.delete();
+		try {
+			PCodeFuzzer f = new PCodeFuzzer(program, "_fib", corpus);
+			f.setArgCount(1);
+			f.setTarget(0x16); // "return 1", so x >= 1; the zero seed doesn't get there
+			f.setBudget(2000);
+			f.setSeed(1);
+			assertTrue("reached x == 1: " + f, f.fuzz(10000));
+			assertTrue("x", (int) PCodeFuzzer.word(f.hit, 0, 8) >= 1);
+			assertEquals("saved", 1, new java.io.File(corpus, "hits").list().length);
+
+			// a second run adds to the hits the first saved, rather than overwriting them
+			PCodeFuzzer again = new PCodeFuzzer(program, "_fib", corpus);
+			again.setArgCount(1);
+			again.setTarget(0x16);
+			again.setBudget(2000);
+			again.setSeed(1);
+			assertTrue(again.fuzz(10000));
+			assertEquals("both hits kept", 2, new java.io.File(corpus, "hits").list().length);
+		} finally {
+			for (java.io.File dir : corpus.listFiles()) {
+				for (java.io.File input : dir.listFiles()) input.delete();
+				dir.delete();
+			}
+			corpus.delete();
+		}
+	}
+
+	@Test
+	public void testCoverage() throws Exception {
+		PCodeRunner r = new PCodeRunner(program);
+		PCodeCoverage cov = new PCodeCoverage(program);
+		r.setCoverage(cov);
+		r.setArgs(7);
+		assertEquals(13, r.run("_fib").returnValue);
+		assertEquals("calls to _fib", 41, cov.blockHits(0x0));
+		assertEquals("fib(1) leaves", 13, cov.blockHits(0x16));
+		assertEquals("x == 1 taken", 13, cov.edgeHits(0xf, 0x16));
+		assertEquals("_main", 0, cov.blockHits(program.lookupFunction("_main").macroEntryPoint.offset));
+		assertTrue(cov.toJson().contains("{\"function\": \"_fib\", \"start\": \"0x16\""));
+		assertTrue(cov.toLcov().contains("FNDA:41,_fib\n"));
+	}
+
+	@Test
+	public void testTrace() throws Exception {
+		java.io.File file = java.io.File.createTempFile("fib", ".trace");
+		try {
+			PCodeRunner r = new PCodeRunner(program);
+			PCodeTraceWriter w = new PCodeTraceWriter(file, 100, r.getState());
+			r.setTraceWriter(w);
+			r.setArgs(7);
+			PCodeRunner.Result res = r.run("_fib");
+			w.close();
+
+			PCodeTraceReader reader = new PCodeTraceReader(file, program);
+			assertEquals("every op", res.ops, reader.count());
+			assertEquals("the last 100 kept", res.ops - 100, reader.first());
+			PCodeTraceReader.Record last = reader.get(reader.count() - 1);
+			assertEquals(PCodeOpCode.RETURN, last.opcode);
+			assertTrue(reader.format(last).endsWith("-> out of code"));
+			// the LOAD that pops the return address
+			PCodeTraceReader.Record pop = reader.get(reader.count() - 3);
+			assertEquals(PCodeOpCode.LOAD, pop.opcode);
+			assertEquals(PCodeRunner.RETURN_ADDRESS, pop.value);
+			assertEquals(PCodeRunner.DEFAULT_STACK_TOP - 8, pop.address);
+
+			// recording an op's result is no read as far as the run can tell
+			PCodeMachineState fresh = new PCodeMachineState(program);
+			fresh.initMachineState();
+			fresh.getUninitializedReads().setPolicy(PCodeUninitializedReads.Policy.FAIL);
+			PCodeBreakpoints bps = new PCodeBreakpoints();
+			bps.watch(fresh.getSpace("register"), 0, 8, true, false);
+			PCodeTraceWriter quiet = new PCodeTraceWriter(file, 10, fresh);
+			for (int pc = 0; pc < program.codeSegment.microOps.size(); pc++) {
+				PCodeOp op = program.codeSegment.fetch(pc);
+				if (op.output != null && op.output.space_name.equals("register") && op.output.offset == 0) {
+					quiet.record(pc, op, 0, pc + 1); // rax, never written
+					break;
+				}
+			}
+			quiet.close();
+			assertNull(bps.triggered);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testHistory() throws Exception {
+		PCodeMachineState m = new PCodeMachineState(program);
+		PCodeInterpreter interp = new PCodeInterpreter(m, System.out);
+		interp.setTrace(false);
+		m.initMachineState();
+		m.initMachineStateForFunctionCall(); // fib(7), stack at 0x4000
+		m.microPC = program.codeSegment.microAddrOfVarnode(program.lookupFunction("_fib").macroEntryPoint);
+		// a small interval, so going back crosses checkpoints
+		PCodeHistory h = new PCodeHistory(interp, 50, 100);
+		String at120 = null;
+		for (int i = 0; i < 400; i++) {
+			if (i == 120) at120 = m.microPC + "\n" + m;
+			interp.step(m);
+		}
+		h.goTo(120);
+		assertEquals(at120, m.microPC + "\n" + m);
+		h.back();
+		interp.step(m);
+		assertEquals(120, h.step());
+		assertEquals(at120, m.microPC + "\n" + m);
+
+		// the STORE that pushes rbp, the third op of the first call
+		assertEquals(2, h.backToWrite(m.getRAMspace(), 0x3ff8));
+		assertEquals(PCodeOpCode.STORE, program.codeSegment.fetch(m.microPC).opcode);
+		BitSet bps = new BitSet();
+		bps.set(program.codeSegment.microAddrOfMacroInstr(0x16)); // return 1
+		assertEquals("none before", -1, h.backToBreakpoint(bps));
+		assertEquals(2, h.step());
+		h.goTo(400);
+		long hit = h.backToBreakpoint(bps);
+		assertTrue(hit > 0 && hit < 400);
+		assertEquals(program.codeSegment.microAddrOfMacroInstr(0x16), m.microPC);
+		h.detach();
+	}
+
+	@Test
+	public void testHistoryKeepsEdits() throws Exception {
+		PCodeMachineState m = new PCodeMachineState(program);
+		PCodeInterpreter interp = new PCodeInterpreter(m, System.out);
+		interp.setTrace(false);
+		m.initMachineState();
+		m.initMachineStateForFunctionCall();
+		m.microPC = program.codeSegment.microAddrOfVarnode(program.lookupFunction("_fib").macroEntryPoint);
+		PCodeHistory h = new PCodeHistory(interp, 50, 100);
+		for (int i = 0; i < 400; i++) {
+			interp.step(m);
+		}
+		// as the prompt's "set" does it
+		m.getRAMspace().storeLong(0x2000, 8, 0x1234);
+		h.checkpoint();
+		String edited = m.microPC + "\n" + m;
+
+		// a search back through every interval that finds nothing
+		BitSet bps = new BitSet();
+		bps.set(program.codeSegment.microAddrOfVarnode(program.lookupFunction("_main").macroEntryPoint));
+		assertEquals(-1, h.backToBreakpoint(bps));
+		assertEquals(400, h.step());
+		assertEquals(0x1234, m.getRAMspace().loadLong(0x2000, 8));
+		assertEquals(edited, m.microPC + "\n" + m);
+
+		// and going back past the edit and forward again undoes it, as it should
+		h.goTo(100);
+		h.goTo(400);
+		assertEquals(0, m.getRAMspace().loadLong(0x2000, 8));
+		h.detach();
+	}
+
+	@Test
+	public void testBreakpoints() throws Exception {
+		PCodeMachineState m = new PCodeMachineState(program);
+		PCodeInterpreter interp = new PCodeInterpreter(m, System.out);
+		interp.setTrace(false);
+		m.initMachineState();
+		m.initMachineStateForFunctionCall(); // fib(7), stack at 0x4000
+		int entry = program.codeSegment.microAddrOfVarnode(program.lookupFunction("_fib").macroEntryPoint);
+		m.microPC = entry;
+
+		// the first push of rbp writes just below the top of the stack
+		interp.breakpoints.watch(m.getRAMspace(), 0x3ff8, 8, false, true);
+		interp.cont();
+		assertTrue(interp.breakpoints.reason().contains("write of 8 at 0x3ff8"));
+		assertEquals(PCodeOpCode.STORE, program.codeSegment.fetch(m.microPC - 1).opcode);
+		interp.breakpoints.clear();
+		assertNull(m.getRAMspace().watch);
+
+		// _fib(2), called from _fib(3), from _fib(4) ...
+		interp.breakpoints.add(entry, PCodeBreakpoints.parseCondition("register 0x38 == 2", program.archSpec));
+		interp.cont();
+		assertEquals(entry, m.microPC);
+		assertEquals(2, m.getSpace("register").loadLong(0x38, 8));
+		assertNull("no watchpoints", interp.breakpoints.reason());
+
+		// checking the condition isn't a read a memo would record
+		final int[] reads = new int[1];
+		m.getSpace("register").memo = new PCodeMemo(program, PCodeCallingConvention.X86_64) {
+			void read(PCodeSpace s, long addr, int size) {
+				reads[0]++;
+			}
+		};
+		assertTrue(PCodeBreakpoints.parseCondition("register 0x38 == 2", program.archSpec).holds(m));
+		assertEquals(0, reads[0]);
+		m.getSpace("register").memo = null;
+	}
+
+	@Test
+	public void testUniqueWatchpoints() throws Exception {
+		PCodeMachineState m = new PCodeMachineState(program);
+		m.initMachineState();
+		PCodeSpace unique = m.getSpace("unique");
+		PCodeBreakpoints bps = new PCodeBreakpoints();
+		bps.watch(unique, 0x100, 8, true, true);
+
+		// a word at a time, as most temporaries are
+		unique.storeLong(0x100, 8, 5);
+		assertTrue(bps.reason(), bps.reason().contains("write of 8 at 0x100"));
+		bps.resume();
+		assertEquals(5, unique.loadLong(0x100, 8));
+		assertTrue(bps.reason(), bps.reason().contains("read of 8 at 0x100"));
+		bps.resume();
+
+		// wider than a word, a byte at a time
+		Varnode wide = new Varnode(unique, 0xf8, 16);
+		wide.storeImmediateUnsigned(7);
+		assertTrue(bps.reason(), bps.reason().contains("write"));
+		bps.resume();
+		assertEquals(BigInteger.valueOf(7), wide.fetchUnsigned());
+		assertTrue(bps.reason(), bps.reason().contains("read of 16 at 0xf8"));
+		bps.resume();
+		wide.fetchSigned();
+		assertTrue(bps.reason(), bps.reason().contains("read of 16 at 0xf8"));
+		bps.resume();
+
+		// nowhere near it
+		unique.storeLong(0x200, 8, 1);
+		unique.loadLong(0x200, 8);
+		assertNull(bps.reason());
+	}
+
+	@Test
+	public void testUninitializedReads() throws Exception {
+		PCodeRunner r = new PCodeRunner(program);
+		r.setZeroRegisters(false);
+		r.setArgs(7);
+		PCodeRunner.Result res = r.run("_fib");
+		assertEquals("recorded, and read as zero", PCodeRunner.Status.RETURNED, res.status);
+		assertEquals(13, res.returnValue);
+		PCodeUninitializedReads u = r.getState().getUninitializedReads();
+		assertTrue(res.uninitializedReads > 0);
+		assertEquals(res.uninitializedReads, u.total());
+		assertTrue("counted per address", u.addresses() < u.total());
+		assertTrue("r14, saved by each call", u.count("register", 0xb0) > 1);
+
+		r.setUninitializedPolicy(PCodeUninitializedReads.Policy.FAIL);
+		res = r.run("_fib");
+		assertEquals(PCodeRunner.Status.ERROR, res.status);
+		assertTrue(res.error instanceof PCodeUninitializedException);
+
+		r.setUninitializedPolicy(PCodeUninitializedReads.Policy.ZERO);
+		res = r.run("_fib");
+		assertEquals(13, res.returnValue);
+		assertEquals(0, res.uninitializedReads);
+	}
+
+	@Test
+	public void testStubs() throws Exception {
+		java.io.ByteArrayOutputStream printed = new java.io.ByteArrayOutputStream();
+		PCodeRunner r = new PCodeRunner(program, new java.io.PrintStream(printed));
+		// _printf has no body; its stub prints and returns to _main, which
+		// then goes astray as the object file's call to _fib isn't relocated
+		PCodeRunner.Result res = r.run("_main");
+		assertEquals("Fibonacci of 45 is:  0.\n", printed.toString());
+		assertEquals(PCodeRunner.Status.EXITED, res.status);
+		assertFalse("got past _printf", res.exitAddress == 0x1000);
+
+		// a stub takes over a function that does have a body
+		PCodeStubs stubs = PCodeStubs.standard(new java.io.PrintStream(printed));
+		stubs.register("fib", new PCodeStub() {
+			public long call(PCodeStubs.Call c) {
+				return c.arg(0) * 2;
+			}
+		});
+		r.setStubs(stubs);
+		r.setArgs(7);
+		res = r.run("_fib");
+		assertEquals(PCodeRunner.Status.RETURNED, res.status);
+		assertEquals(14, res.returnValue);
+		assertEquals("just the stub", 1, res.instructions);
+
+		printed.reset();
+		stubs.register("fib", stubs.byName.get("printf"));
+		r.setMemory(0x2000, "%5d|%-4x|%s|%03u|%c%%".getBytes());
+		r.setMemory(0x2100, "ok\0".getBytes());
+		r.setArgs(0x2000, -5, 255, 0x2100, 7, 'z');
+		res = r.run("_fib");
+		assertEquals("   -5|ff  |ok|007|z%", printed.toString());
+		assertEquals(printed.size(), res.returnValue);
+
+		stubs.register("fib", stubs.byName.get("memmove"));
+		r.clearInitializers();
+		r.setMemory(0x2000, "abcdef".getBytes());
+		r.setArgs(0x2002, 0x2000, 4);
+		res = r.run("_fib");
+		assertEquals(0x2002, res.returnValue);
+		PCodeSpace ram = res.state.getRAMspace();
+		String moved = "";
+		for (int i = 0; i < 6; i++) {
+			moved += (char) ram.readByte(0x2000 + i);
+		}
+		assertEquals("overlapping copy", "ababcd", moved);
+
+		// a length that is garbage ends the run, rather than running on
+		stubs.setLimit(16);
+		stubs.register("fib", stubs.byName.get("memset"));
+		r.setArgs(0x2000, 0, -1);
+		res = r.run("_fib");
+		assertEquals(PCodeRunner.Status.ERROR, res.status);
+		assertTrue(res.error.getMessage().contains("memset"));
+		r.setMemory(0x2000, "0123456789abcdefg".getBytes());
+		stubs.register("fib", stubs.byName.get("strlen"));
+		r.setArgs(0x2000);
+		assertEquals(PCodeRunner.Status.ERROR, r.run("_fib").status);
+		stubs.setLimit(PCodeStubs.DEFAULT_LIMIT);
+		r.clearInitializers();
+
+		// one l is a long, the word size: 4 bytes on ARM
+		PCodeMachineState arm = new PCodeMachineState(program);
+		arm.initMachineState();
+		PCodeCallingConvention.ARM.setUpCall(arm, 0x4000, 0, new long[] { 0, -5, 0x1ffff, 0x1ff });
+		PCodeStubs.Call c = new PCodeStubs.Call(stubs, arm, PCodeCallingConvention.ARM);
+		assertEquals("-5 -1 -1", PCodeStubs.format(c, "%ld %hd %hhd", 1));
+		PCodeMachineState x86 = new PCodeMachineState(program);
+		x86.initMachineState();
+		PCodeCallingConvention.X86_64.setUpCall(x86, 0x4000, 0, new long[] { 0, -5, 0xfffffffbL, 0xfffffffbL });
+		c = new PCodeStubs.Call(stubs, x86, PCodeCallingConvention.X86_64);
+		assertEquals("-5 -5 4294967291", PCodeStubs.format(c, "%ld %d %lld", 1));
+
+		r.setStubs(null);
+		res = r.run("_main");
+		assertEquals("no stubs: stops at the call", 0x1000, res.exitAddress);
+	}
+
+	@Test
+	public void testMemo() throws Exception {
+		PCodeRunner r = new PCodeRunner(program, System.out);
+		r.setArgs(15);
+		PCodeRunner.Result plain = r.run("_fib");
+		assertEquals(PCodeRunner.Status.RETURNED, plain.status);
+
+		// _fib stores only to its stack and calls only itself; _main
+		// calls _printf, which has no body
+		PCodeMemo memo = new PCodeMemo(program, r.convention);
+		assertEquals(Arrays.asList("_fib"), memo.addProven());
+		r.setMemo(memo);
+		PCodeRunner.Result res = r.run("_fib");
+		assertEquals(PCodeRunner.Status.RETURNED, res.status);
+		assertEquals(plain.returnValue, res.returnValue);
+		assertTrue("linear, not exponential", res.instructions * 20 < plain.instructions);
+		// _fib(n) looks up n-1 (a miss, recorded) then n-2 (a hit) for n down to 2
+		assertEquals(13, memo.hits());
+		res = r.run("_fib");
+		assertEquals(plain.returnValue, res.returnValue);
+		// the outermost call is never cached, returning out of the run; both its calls are
+		assertEquals(15, memo.hits());
+
+		memo = new PCodeMemo(program, r.convention, 2);
+		assertTrue(memo.declare("_fib"));
+		assertFalse(memo.declare("_printf"));
+		r.setMemo(memo);
+		res = r.run("_fib");
+		assertEquals(plain.returnValue, res.returnValue);
+		assertEquals(2, memo.size());
+		assertTrue(memo.evictions() > 0);
+	}
+
+	@Test
+	public void testOptimizer() throws Exception {
+		PCodeOptimizer o = new PCodeOptimizer(program);
+		int entry = program.codeSegment.microAddrOfVarnode(program.lookupFunction("_fib").macroEntryPoint);
+		int push = -1, xor = -1;
+		for (int pc = entry; pc < entry + program.lookupFunction("_fib").length; pc++) {
+			PCodeOp op = program.codeSegment.fetch(pc);
+			if (op.offset == 0x4 && op.uniq == 0) push = pc;
+			if (op.offset == 0xb && op.uniq == 2) xor = pc;
+		}
+		// push r14 copies it through a temporary, which the STORE now reads
+		// in its place; the copy is dropped, but keeps its micro PC
+		assertNull(o.fetch(push));
+		assertEquals("(register8)0xb0", o.fetch(push + 2).input1.toString());
+		assertEquals(PCodeOpCode.STORE, program.codeSegment.fetch(push + 2).opcode);
+		assertEquals(push + 1, o.next(push - 1));
+		// xor eax,eax is a constant, and so is its zero extension
+		assertEquals(PCodeOpCode.INT_XOR, program.codeSegment.fetch(xor).opcode);
+		assertEquals(PCodeOpCode.COPY, o.fetch(xor).opcode);
+		assertEquals("(const4)0x0", o.fetch(xor).input0.toString());
+		assertEquals("(const8)0x0", o.fetch(xor + 1).input0.toString());
+		assertTrue(o.removed() > 0);
+
+		PCodeRunner plain = new PCodeRunner(program, System.out);
+		PCodeRunner optimized = new PCodeRunner(program, System.out);
+		optimized.setOptimize(true);
+		plain.setArgs(12);
+		optimized.setArgs(12);
+		PCodeRunner.Result expected = plain.run("_fib");
+		PCodeRunner.Result res = optimized.run("_fib");
+		assertEquals(PCodeRunner.Status.RETURNED, res.status);
+		assertEquals(expected.returnValue, res.returnValue);
+		assertEquals("same instructions", expected.instructions, res.instructions);
+		assertTrue("fewer ops", res.ops < expected.ops);
+		assertEquals("same registers", expected.state.getSpace("register").toString(),
+				res.state.getSpace("register").toString());
+	}
+
+	@Test
+	public void testConstantOutput() throws Exception {
+		PCodeInterpreter interp = new PCodeInterpreter(program, System.out);
+		PCodeOp bad = new PCodeOp(PCodeOpCode.COPY, new Varnode(program.archSpec, "const", 0x5, 8),
+				new Varnode(program.archSpec, "register", 0x0, 8), null);
+		try {
+			interp.decoder.decode(bad);
+			fail("decoded a COPY into a constant");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("COPY at 0x0 (0) stores into constant space"));
+		}
+	}
+
+	@Test
+	public void testControlFlow() throws Exception {
+		// direct branches are resolved when the program is parsed
+		int direct = 0;
+		for (PCodeOp op : program.codeSegment.microOps) {
+			switch (op.opcode) {
+				case BRANCH:
+				case CBRANCH:
+				case CALL:
+					if (op.input0.offset == 0x1000) continue; // _printf is external
+					assertEquals("target of " + op, program.codeSegment.microAddrOfMacroInstr(op.input0.offset), op.target);
+					direct++;
+					break;
+				default:
+					break;
+			}
+		}
+		assertTrue("direct branches", direct > 0);
+
+		// indirect ones are left to run time; fib.xml has RETURNs but no
+		// BRANCHIND or CALLIND, so those are made up below
+		int returns = 0;
+		for (PCodeOp op : program.codeSegment.microOps) {
+			switch (op.opcode) {
+				case RETURN:
+					returns++;
+					// fall through
+				case BRANCHIND:
+				case CALLIND:
+					assertEquals("target of " + op, -1, op.target);
+					assertFalse("constant destination in " + op, op.input0.space_name.equals("const"));
+					break;
+				default:
+					break;
+			}
+		}
+		assertTrue("returns", returns > 0);
+
+		// each goes wherever its input says, as a macro address
+		PCodeInterpreter interp = new PCodeInterpreter(program, System.out);
+		Varnode dest = new Varnode(interp.m.getSpace("register"), 0x288, 8);
+		long fib = program.lookupFunction("_fib").macroEntryPoint.offset;
+		long main = program.lookupFunction("_main").macroEntryPoint.offset;
+		PCodeOpCode[] indirect = { PCodeOpCode.BRANCHIND, PCodeOpCode.CALLIND, PCodeOpCode.RETURN };
+		for (PCodeOpCode opcode : indirect) {
+			for (long to : new long[] { fib, main }) {
+				PCodeOp op = new PCodeOp(opcode, null, dest, null);
+				assertTrue(interp.decoder.decode(op) instanceof PCodeDecoder.IndirectJump);
+				dest.storeImmediateUnsigned(to);
+				interp.m.microPC = 0;
+				interp.doOp(op);
+				assertEquals(opcode + " to 0x" + Long.toHexString(to),
+						program.codeSegment.microAddrOfMacroInstr(to), interp.m.microPC);
+			}
+		}
+		// and an address with no code there is an error, as in the sample
+		// run in the README
+		dest.storeImmediateUnsigned(0xcafe);
+		try {
+			interp.doOp(new PCodeOp(PCodeOpCode.RETURN, null, dest, null));
+			fail("returned to 0xcafe");
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("cafe"));
+		}
 	}
 	
 	@Test
@@ -0,0 +1,78 @@
+package com.galois.symbolicSimulator;
+
+import java.math.BigInteger;
+import java.util.Comparator;
+
+// Offsets in the IR are held in plain longs and are always treated as
+// unsigned 64-bit quantities: 0xffffffffffffffff is the top of a space,
+// not -1.  These helpers do the unsigned comparisons and conversions that
+// java.lang.Long only grew in Java 8.
+public final class UnsignedLong {
+	static final BigInteger TWO_64 = BigInteger.ONE.shiftLeft(64);
+
+	// orders Long keys as unsigned values
+	public static final Comparator<Long> ORDER = new Comparator<Long>() {
+		public int compare(Long a, Long b) {
+			return UnsignedLong.compare(a.longValue(), b.longValue());
+		}
+	};
+
+	private UnsignedLong() {}
+
+	public static int compare(long a, long b) {
+		a ^= Long.MIN_VALUE;
+		b ^= Long.MIN_VALUE;
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
+	// unsigned quotient and remainder; divide by shifting down one bit so
+	// the signed division can't see a negative dividend
+	public static long divide(long a, long b) {
+		if (b < 0) {
+			return compare(a, b) < 0 ? 0 : 1;
+		}
+		if (a >= 0) {
+			return a / b;
+		}
+		long q = ((a >>> 1) / b) << 1;
+		long r = a - q * b;
+		return q + (compare(r, b) >= 0 ? 1 : 0);
+	}
+
+	public static long remainder(long a, long b) {
+		if (b < 0) {
+			return compare(a, b) < 0 ? a : a - b;
+		}
+		if (a >= 0) {
+			return a % b;
+		}
+		long q = ((a >>> 1) / b) << 1;
+		long r = a - q * b;
+		return compare(r, b) >= 0 ? r - b : r;
+	}
+
+	public static BigInteger toBigInteger(long v) {
+		BigInteger b = BigInteger.valueOf(v);
+		return v >= 0 ? b : b.add(TWO_64);
+	}
+
+	// the low 64 bits of v
+	public static long fromBigInteger(BigInteger v) {
+		return v.longValue();
+	}
+
+	public static String toHexString(long v) {
+		return Long.toHexString(v);
+	}
+
+	// hex digits, with or without a leading 0x, up to 64 bits
+	public static long parseHex(String s) {
+		if (s.startsWith("0x")) {
+			s = s.substring(2);
+		}
+		if (s.length() < 16) {
+			return Long.parseLong(s, 16);
+		}
+		return new BigInteger(s, 16).longValue();
+	}
+}
@@ -8,7 +8,7 @@ public class Varnode {
 	PCodeProgram p;
 	String space_name;
 	PCodeSpace space;
-	BigInteger offset;
+	long offset; // unsigned 64-bit; see UnsignedLong
 	int size;
 	
 	static BigInteger minLongValue = new BigInteger(Long.toString(Long.MIN_VALUE));
@@ -17,34 +17,59 @@ public class Varnode {
 	public Varnode (PCodeProgram p) {
 		arch = null;
 		space_name = null;
-		offset = null;
+		offset = 0;
 		size = -1;
 		p.addVarnode(this); 
 	}
 	
-	// When the parser constructs a varnode, its space is saved by name,
-	// later, if we want to run the program, the interpreter calls "loadVarnodes"
-	// to save the PCodeSpaces in the "space" field
-	public Varnode (PCodeProgram p, String spn, BigInteger off, int sz) {
+	// When the parser constructs a varnode, its space is saved by name;
+	// the program is shared by every machine state that runs it, so
+	// "space" is left null and each state binds its own copy (see bind)
+	public Varnode (PCodeProgram p, String spn, long off, int sz) {
 		arch = p.archSpec;
 		space_name = spn;
 		offset = off;
 		size = sz;
 		p.addVarnode(this);
 	}
+	public Varnode (PCodeProgram p, String spn, BigInteger off, int sz) {
+		this(p, spn, UnsignedLong.fromBigInteger(off), sz);
+	}
+	// The parallel parser builds varnodes off to the side and adds them
+	// to the program's varnode list itself, in document order
+	Varnode (PCodeArchSpec a, String spn, long off, int sz) {
+		arch = a;
+		space_name = spn;
+		offset = off;
+		size = sz;
+	}
 	// This variant creates a Varnode when we have the PCodeSpace in hand,
 	// so doesn't bother adding it to the program's varnode list
-	public Varnode (PCodeSpace sp, BigInteger destOffset, int sz) {
+	public Varnode (PCodeSpace sp, long destOffset, int sz) {
 		arch = sp.arch;
 		space = sp;
 		space_name = sp.name;
 		offset = destOffset;
 		size = sz;
 	}
+	public Varnode (PCodeSpace sp, BigInteger destOffset, int sz) {
+		this(sp, UnsignedLong.fromBigInteger(destOffset), sz);
+	}
+
+	// this varnode in s's copy of its space
+	Varnode bind(PCodeMachineState s) {
+		PCodeSpace sp = s.getSpace(space_name);
+		return sp == null ? this : new Varnode(sp, offset, size);
+	}
+
+	// offset as a non-negative BigInteger, for callers that need one
+	public BigInteger bigOffset() {
+		return UnsignedLong.toBigInteger(offset);
+	}
 
 	public String toString() {
 		// TODO: should include the contents here - iterate through size bytes @ offset
-		return "(" + space_name + size +")" + "0x" + offset.toString(16);
+		return "(" + space_name + size +")" + "0x" + Long.toHexString(offset);
 	}
 	
 	int fetchByte(int i) throws Exception {
@@ -56,15 +81,52 @@ public class Varnode {
 			System.err.println("storeByte to Const Space?");
 			// TODO - should exit here? won't happen with proper PCode...
 		}
-		space.contents.put(offset.add(BigInteger.valueOf(i)), val & 0xff);
+		space.writeByte(offset + i, val & 0xff);
+	}
+
+	// a constant is its offset, cut down to the varnode's size
+	long constValue() {
+		return size >= 8 ? offset : offset & ((1L << (8 * size)) - 1);
+	}
+
+	// The low 64 bits of this varnode's value, without allocating; this is
+	// what addresses (LOAD/STORE pointers, indirect branch targets) use.
+	long fetchLong() {
+		if (space.constSpace) {
+			return constValue();
+		}
+		if (size <= 8) {
+			return space.loadLong(offset, size);
+		}
+		// only the low 8 bytes survive the shifts
+		if (space.watch != null) space.watch.read(offset, size);
+		long ret = 0;
+		boolean missing = false;
+		for (int i = 0; i < size; i++) {
+			int index = arch.bigEndianP ? i : size - i - 1;
+			int v = space.readByte(offset + index);
+			if (v < 0) {
+				missing = true;
+				v = 0;
+			}
+			ret = (ret << 8) | v;
+		}
+		if (missing) space.uninitialized(offset, size);
+		return ret;
 	}
 
 	// this varnode is an array of bytes within a space.
 	BigInteger fetchUnsigned() {
 		if (space.constSpace) {
-			return offset;
+			return UnsignedLong.toBigInteger(constValue());
+		}
+		if (size <= 8) {
+			return UnsignedLong.toBigInteger(space.loadLong(offset, size));
 		}
+		// byte by byte, so tell any watchpoints of the read as a whole
+		if (space.watch != null) space.watch.read(offset, size);
 		BigInteger ret = BigInteger.ZERO;
+		boolean missing = false;
 		// in terms of fenceposts, the final + is not followed by a shift
 		// so if we do the shifts first then the +, that should do the trick
 		int index = 0;
@@ -75,21 +137,24 @@ public class Varnode {
 				index = size - i - 1;
 			}
 			ret = ret.shiftLeft(8);
-			Integer v = space.contents.get(offset.add(BigInteger.valueOf(index)));
-			if (v == null) {
-				System.err.println("Warning: fetching uninitialized word");
+			int v = space.readByte(offset + index);
+			if (v < 0) {
+				missing = true;
 			} else {
-				ret = ret.add(BigInteger.valueOf(v.intValue()));
+				ret = ret.add(BigInteger.valueOf(v));
 			}
 		}
+		if (missing) space.uninitialized(offset, size);
 		return ret;
 	}
 	
 	BigInteger fetchSigned() {
 		if (space.constSpace) {
-			return offset;
+			return UnsignedLong.toBigInteger(constValue());
 		}
+		if (space.watch != null) space.watch.read(offset, size);
 		BigInteger ret = BigInteger.ZERO;
+		boolean missing = false;
 		boolean gotSignBit = false;
 		int signBit = 0;
 		int index = 0;
@@ -100,15 +165,15 @@ public class Varnode {
 				index = size - i - 1;
 			}
 			ret = ret.shiftLeft(8);
-			Integer v = space.contents.get(offset.add(BigInteger.valueOf(index)));
-			if (v == null) {
-				System.err.println("Warning: fetching uninitialized word");
+			int v = space.readByte(offset + index);
+			if (v < 0) {
+				missing = true;
 			} else {
 				if (!gotSignBit) {
-					signBit = (v.intValue() >> 7) & 1;
+					signBit = (v >> 7) & 1;
 					gotSignBit = true;
 				}
-				int bitValue = v.intValue();
+				int bitValue = v;
 				if (signBit > 0) {
 					bitValue = ~bitValue;
 				}
@@ -119,6 +184,7 @@ public class Varnode {
 			// two's complement the resulting magnitude
 			ret = ret.negate().subtract(BigInteger.ONE);
 		}
+		if (missing) space.uninitialized(offset, size);
 		return ret;
 	}
 
@@ -138,15 +204,19 @@ public class Varnode {
 		if (space.constSpace) {
 			throw new Exception("storing into constant-space");
 		}
+		if (size <= 8) {
+			destSpace.storeLong(offset, size, val);
+			return;
+		}
 		if (arch.bigEndianP) {
 			// for (long b = offset + size - 1; b >= offset; b--) {
 			for (int i = size - 1; i >= 0; i--) {
-				destSpace.contents.put(offset.add(BigInteger.valueOf(i)), (int) (val & 0xff));
+				destSpace.writeByte(offset + i, (int) (val & 0xff));
 				val = val >> 8;
 			}
 		} else {
 			for (int i = 0; i < size; i++) {
-				destSpace.contents.put(offset.add(BigInteger.valueOf(i)), (int) (val & 0xff));
+				destSpace.writeByte(offset + i, (int) (val & 0xff));
 				val = val >> 8;
 			}
 		}
@@ -166,13 +236,13 @@ public class Varnode {
 			// for (long b = offset + size - 1; b >= offset; b--) {
 			for (int i = size - 1; i >= 0; i--) {
 				int byteVal = (int) (negativeP ? (~val & 0xff) : val & 0xff);
-				destSpace.contents.put(offset.add(BigInteger.valueOf(i)), byteVal);
+				destSpace.writeByte(offset + i, byteVal);
 				val = val >> 8;
 			}
 		} else {
 			for (int i = 0; i < size; i++) {
 				int byteVal = (int) (negativeP ? (~val & 0xff) : val & 0xff);
-				destSpace.contents.put(offset.add(BigInteger.valueOf(i)), byteVal);
+				destSpace.writeByte(offset + i, byteVal);
 				val = val >> 8;
 			}
 		}
@@ -182,7 +252,7 @@ public class Varnode {
 	//    [this] <- src
 	void storeIndirect(Varnode src, PCodeSpace destSpace) throws Exception {
 		// assert(this.isRegister);
-		BigInteger destOffset = this.fetchUnsigned();
+		long destOffset = this.fetchLong();
 		Varnode ramPointer = new Varnode(destSpace, destOffset, src.size);
 		src.copyTo(ramPointer);
 	}
@@ -194,7 +264,7 @@ public class Varnode {
 		// NOPE - this can be a unique pseudo-register (weird)
 		// also interesting, sizes don't necessarily match - so this.size is the
 		// number of bytes we want.
-		Varnode ramPointer = new Varnode(sourceSpace, src.fetchUnsigned(), this.size);
+		Varnode ramPointer = new Varnode(sourceSpace, src.fetchLong(), this.size);
 		ramPointer.copyTo(this);
 	}
 
@@ -207,14 +277,9 @@ public class Varnode {
 			throw new Exception("mismatched size in copy");
 		}
 		// TODO: won't work for copying from Const space...which doesn't yet support byte access
-		for (long i = 0; i < size; i++) {
-			Integer srcVal = space.getByte(this.offset, (int) i);
-			if (srcVal == null) {
-				srcVal = new Integer((int) 0);
-				System.err.println("Warning: copyTo from uninitialized word @0x" +
-						offset.add(BigInteger.valueOf(i)).toString(16));
-			}
-			dest.space.contents.put(dest.offset.add(BigInteger.valueOf(i)), srcVal);
+		for (int i = 0; i < size; i++) {
+			int srcVal = space.getByte(this.offset, i);
+			dest.space.writeByte(dest.offset + i, srcVal);
 		}
 	}
 
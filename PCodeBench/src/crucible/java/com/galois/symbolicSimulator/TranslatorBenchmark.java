@@ -0,0 +1,79 @@
+package com.galois.symbolicSimulator;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.galois.crucible.*;
+
+// Time for PCodeTranslator.buildCFG to turn a whole program into one
+// Crucible CFG.  Procedures and blocks are made through the simulator, so
+// there has to be a crucible-server at the other end; a SimpleSimulator
+// stands in for the SAWSimulator CrucibleMain uses, as no verification is
+// done.  Only built with -Pcrucible; the server is the one under
+// -DcrucibleHome, or -Dcrucible.server=path when running.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslatorBenchmark {
+	// example file and the ABI it was compiled for
+	@Param({ "fact.o.xml:AMD64", "salsa20-fix.xml:AMD64", "aes-x86.pcode:AMD64",
+		"arm/fact.pcode:ARM", "arm/Rijndael.pcode:ARM" })
+	public String program;
+
+	SimpleSimulator sim;
+	PCodeProgram prog;
+	ABI abi;
+
+	static String serverPath() throws Exception {
+		String path = System.getProperty("crucible.server");
+		if (path != null) return path;
+		Properties p = new Properties();
+		InputStream in = TranslatorBenchmark.class.getResourceAsStream("/crucible-bench.properties");
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		return p.getProperty("crucible.server");
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		int colon = program.indexOf(':');
+		prog = BenchmarkMain.parse("PCodeXML-examples/" + program.substring(0, colon));
+		sim = SimpleSimulator.launchLocal(serverPath());
+		abi = ABI.getInstance(program.substring(colon + 1), prog.archSpec, sim);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		sim.close();
+	}
+
+	@Benchmark
+	public Procedure buildCFG() throws Exception {
+		PCodeTranslator t = new PCodeTranslator(sim, prog, abi, "bench");
+		t.initProc("bench");
+		Map<String,AddrSpaceManager> spaces = abi.initAddrSpaces(t.proc);
+		t.buildCFG(spaces, abi.getTemps(), abi.getRegisters().getRegisterFile(), abi.getRAM().getRAM());
+		return t.proc;
+	}
+}
@@ -0,0 +1,55 @@
+package com.galois.symbolicSimulator;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks with JMH's usual command line, plus the GC profiler
+// (bytes allocated per op, and collections) on every run, and writes the
+// results as JSON to jmh-result.json unless -rf/-rff say otherwise:
+//
+//   java -jar target/benchmarks.jar                   everything
+//   java -jar target/benchmarks.jar Interpreter -p kernel=salsa20
+//
+// Example files are looked for in ../PCodeXML-examples and fib.xml in
+// ../JavaParser, i.e. run from this directory; -Dpcode.root=... points
+// them at another checkout.
+public class BenchmarkMain {
+	// parsers and the interpreter report progress; benchmarks don't want it
+	static final PrintStream QUIET = new PrintStream(new OutputStream() {
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	// a file in the repository, by path from its top
+	static File file(String path) {
+		return new File(System.getProperty("pcode.root", ".."), path);
+	}
+
+	// parses a file afresh (not from its .pcache, and without writing one)
+	static PCodeProgram parse(String path) {
+		return new PCodeParser(file(path).getPath(), QUIET, true).parseProgram();
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cl = new CommandLineOptions(args);
+		ChainedOptionsBuilder opts = new OptionsBuilder().parent(cl).addProfiler(GCProfiler.class);
+		if (!cl.getResultFormat().hasValue()) {
+			opts.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cl.getResult().hasValue()) {
+			opts.result("jmh-result.json");
+		}
+		new Runner(opts.build()).run();
+	}
+}
@@ -0,0 +1,107 @@
+package com.galois.symbolicSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Concrete runs of small kernels through PCodeRunner, which is the
+// interpreter with nothing traced.  JMH counts calls per second; the
+// counters below add the micro-ops and machine instructions those calls
+// executed, so the report also reads as ops per second.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Executed {
+		public long ops;
+		public long instructions;
+
+		@Setup(Level.Iteration)
+		public void clear() {
+			ops = 0;
+			instructions = 0;
+		}
+	}
+
+	// fib: _fib(15) from fib.xml; fact: _fact(10); lfsr: a 32-bit word
+	// from the LFSR seeded with 0xace1; salsa20: the hash of a 64-byte block
+	@Param({ "fib", "fact", "lfsr", "salsa20" })
+	public String kernel;
+
+	// compile blocks entered this many times; 0 interprets everything
+	@Param({ "0", "100" })
+	public int jit;
+
+	// run the ops as PCodeOptimizer leaves them
+	@Param({ "false", "true" })
+	public boolean optimize;
+
+	PCodeRunner runner;
+	String function;
+
+	@Setup
+	public void setUp() throws Exception {
+		String file;
+		long[] args;
+		if (kernel.equals("fib")) {
+			file = "JavaParser/fib.xml";
+			function = "_fib";
+			args = new long[] { 15 };
+		} else if (kernel.equals("fact")) {
+			file = "PCodeXML-examples/fact.o.xml";
+			function = "_fact";
+			args = new long[] { 10 };
+		} else if (kernel.equals("lfsr")) {
+			file = "PCodeXML-examples/lfsr.pcode";
+			function = "_lfsr_word32_seed";
+			args = new long[] { 0xace1 };
+		} else if (kernel.equals("salsa20")) {
+			file = "PCodeXML-examples/salsa20-fix.xml";
+			function = "_s20_hash";
+			args = new long[] { 0x7000 };
+		} else {
+			throw new IllegalArgumentException("unknown kernel " + kernel);
+		}
+		runner = new PCodeRunner(BenchmarkMain.parse(file), BenchmarkMain.QUIET);
+		runner.setArgs(args);
+		runner.setJitThreshold(jit);
+		runner.setOptimize(optimize);
+		if (kernel.equals("salsa20")) {
+			byte[] block = new byte[64];
+			for (int i = 0; i < block.length; i++) {
+				block[i] = (byte) i;
+			}
+			runner.setMemory(0x7000, block);
+		}
+		// a kernel that doesn't come back would be measuring something else
+		PCodeRunner.Result res = runner.run(function);
+		if (res.status != PCodeRunner.Status.RETURNED) {
+			throw new IllegalStateException(function + ": " + res);
+		}
+	}
+
+	@Benchmark
+	public long run(Executed executed) throws Exception {
+		PCodeRunner.Result res = runner.run(function);
+		executed.ops += res.ops;
+		executed.instructions += res.instructions;
+		return res.returnValue;
+	}
+}
@@ -0,0 +1,54 @@
+package com.galois.symbolicSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Whole files through PCodeParser.parseProgram, as the runner and the
+// debugger load them when there is no cache: programs parsed per second.
+// Every example that is well-formed XML; exception*.xml and Rijndael.xml
+// have unescaped C++ template names in them, and no parser will take them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+	@Param({ "fact.o.xml", "fact-noopt.xml", "fun.o.xml", "fun-noopt.xml",
+		"uniqueTest.o.xml", "uniqueTest-noopt.xml", "pcode_primitives.o.xml", "pcode_primitives-noopt.xml",
+		"salsa20-fix.xml", "salsa20-relocation-bug.xml", "lfsr.pcode", "aes-x86.pcode",
+		"arm/fact.pcode", "arm/fun.pcode", "arm/uniqueTest.pcode", "arm/pcode_primitives.pcode", "arm/Rijndael.pcode" })
+	public String file;
+
+	// stream: StAX on one thread; parallel: function bodies across all
+	// cores; dom: the original DOM walk
+	@Param({ "stream", "parallel", "dom" })
+	public String parser;
+
+	String path;
+
+	@Setup
+	public void setUp() {
+		path = BenchmarkMain.file("PCodeXML-examples/" + file).getPath();
+	}
+
+	@Benchmark
+	public PCodeProgram parseProgram() {
+		PCodeParser p = new PCodeParser(path, BenchmarkMain.QUIET, !parser.equals("dom"));
+		if (parser.equals("parallel")) {
+			p.setParallelism(Runtime.getRuntime().availableProcessors());
+		}
+		return p.parseProgram();
+	}
+}
@@ -20,8 +20,7 @@ class CrucibleMain {
         String abiName = args[1];
         String pcodeFilePath = args[2];
 
-        PCodeParser parser = new PCodeParser( pcodeFilePath, System.err );
-        PCodeProgram prog = parser.parseProgram();
+        PCodeProgram prog = PCodeParser.loadProgram( pcodeFilePath, System.err );
 
         // Uncomment these lines to enable heap profiling of the crucible-server
         // Simulator.extraLocalCommandArguments = new LinkedList<String>();
@@ -64,7 +64,7 @@ public class MachineState {
             throw new IllegalArgumentException( "Symbol not found: " + symbol );
         }
 
-        return sim.bvLiteral( addrWidth, fn.macroEntryPoint.offset );
+        return sim.bvLiteral( addrWidth, fn.macroEntryPoint.bigOffset() );
     }
 
     public SimulatorValue callFunction( SimulatorValue returnAddr, String name, SimulatorValue... args )
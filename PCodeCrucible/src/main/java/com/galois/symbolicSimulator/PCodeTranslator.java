@@ -55,6 +55,9 @@ public class PCodeTranslator {
     // Variable watches
     Map< BigInteger, List<Watch> > variableWatches;
 
+    // What to emit in place of the parsed micro-ops (see PCodeOptimizer); null emits them as parsed
+    PCodeOptimizer optimizer;
+
     public PCodeTranslator( Simulator sim, PCodeProgram prog, ABI abi, String procName )
     {
         this(sim, prog, abi, procName, null);
@@ -71,6 +74,12 @@ public class PCodeTranslator {
         this.loc_path = loc_path;
         this.callSiteOverrides = Collections.emptyMap();
         this.variableWatches = new HashMap<BigInteger,List<Watch>>();
+        this.optimizer = null;
+    }
+
+    public void setOptimize( boolean on ) {
+        this.optimizer = on ? new PCodeOptimizer( prog ) : null;
+        proc = null; // changing this effectively invalidates proc
     }
 
     public void setCallSiteOverrides( Map<BigInteger, FunctionHandle> overrides ) {
@@ -154,12 +163,12 @@ public class PCodeTranslator {
                     temps.clearRegisters();
                 }
             } else if ( isIntrinsic( fn.name ) ) {
-                System.out.println( "Implementing intrinsic: " + fn.name + " 0x" + fn.macroEntryPoint.offset.toString(16) );
-                Block bb = fetchBB( fn.macroEntryPoint.offset );
+                System.out.println( "Implementing intrinsic: " + fn.name + " 0x" + Long.toHexString( fn.macroEntryPoint.offset ) );
+                Block bb = fetchBB( fn.macroEntryPoint.bigOffset() );
                 implementIntrinsic( fn.name, bb );
             } else {
-                Block bb = fetchBB( fn.macroEntryPoint.offset );
-                System.out.println( "UNIMPLEMENTED: " + fn.name + " 0x" + fn.macroEntryPoint.offset.toString(16) );
+                Block bb = fetchBB( fn.macroEntryPoint.bigOffset() );
+                System.out.println( "UNIMPLEMENTED: " + fn.name + " 0x" + Long.toHexString( fn.macroEntryPoint.offset ) );
 
                 // Return the current state of the machine if we call into an unimplemented function
                 {
@@ -341,13 +350,13 @@ public class PCodeTranslator {
     }
 
     void visitPCodeBlock( PCodeFunction fn, PCodeBasicBlock pcode_bb )  throws Exception {
-        curr_bb = fetchBB( pcode_bb.blockBegin.offset );
+        curr_bb = fetchBB( pcode_bb.blockBegin.bigOffset() );
 
         String path = loc_path;
 
         if( pcode_bb.loc != null ) {
             if( path == null ) { path = pcode_bb.loc.getSystemId(); }
-            Position pos = new BinaryPosition( procName, path, pcode_bb.blockBegin.offset.longValue() );
+            Position pos = new BinaryPosition( procName, path, pcode_bb.blockBegin.offset );
 
             // Position pos = new SourcePosition( procName,
             //                                    pcode_bb.loc.getSystemId(),
@@ -360,7 +369,7 @@ public class PCodeTranslator {
         //" " + pcode_bb.blockEnd.offset.toString(16) +
         //" " + curr_bb.toString() );
 
-        BigInteger macroPC = pcode_bb.blockBegin.offset;
+        long macroPC = pcode_bb.blockBegin.offset;
         int blockstart = prog.codeSegment.microAddrOfVarnode(pcode_bb.blockBegin);
         int blockend   = prog.codeSegment.microAddrOfVarnode(pcode_bb.blockEnd);
         int microPC    = blockstart;
@@ -369,7 +378,7 @@ public class PCodeTranslator {
         PCodeOp o = prog.codeSegment.fetch(microPC);
 
         if( !o.blockStart ) {
-            throw new Exception( "Invalid start of basic block: " + pcode_bb.blockBegin.offset.toString(16) );
+            throw new Exception( "Invalid start of basic block: " + Long.toHexString( pcode_bb.blockBegin.offset ) );
         } else {
             //System.out.println("START OF BLOCK");
         }
@@ -377,10 +386,16 @@ public class PCodeTranslator {
         // End the loop when we terminate the block via a control-flow instruction (when o == null);
         // or when we have just added an implict jump to the first instruction of the following
         // PCode basic block, which happens when the macroinstruction PC is beyond the ending offset.
-        while( o != null && o.offset.compareTo( pcode_bb.blockEnd.offset ) <= 0 ) {
-
-            // Translate the fetched instruction and add it to the current block
-            addOpToBlock( path, o, microPC );
+        while( o != null && UnsignedLong.compare( o.offset, pcode_bb.blockEnd.offset ) <= 0 ) {
+
+            // Translate the fetched instruction and add it to the current block, unless
+            // the optimizer took it out; the variable watches for its address still go in
+            PCodeOp opt = optimizer == null ? o : optimizer.fetch( microPC );
+            if( opt != null ) {
+                addOpToBlock( path, opt, microPC );
+            } else if( o.uniq == 0 ) {
+                installVariableWatches( curr_bb, o.bigOffset() );
+            }
 
             // advance the microcode instruction counter
             microPC++;
@@ -405,8 +420,8 @@ public class PCodeTranslator {
 
             // Create a new crucible basic block if we are at a new offset and
             // end the current basic block by jumping.
-            if( o != null && !o.offset.equals( macroPC ) ) {
-                Block bb = fetchBB( o.offset );
+            if( o != null && o.offset != macroPC ) {
+                Block bb = fetchBB( o.bigOffset() );
                 if( curr_bb != null ) {
                     curr_bb.jump( bb );
                 }
@@ -428,12 +443,12 @@ public class PCodeTranslator {
 
     Expr getInput( Varnode vn ) throws Exception
     {
-        return getSpace( vn.space_name ).loadDirect( curr_bb, vn.offset, vn.size );
+        return getSpace( vn.space_name ).loadDirect( curr_bb, vn.bigOffset(), vn.size );
     }
 
     void setOutput( PCodeOp o, Expr e ) throws Exception
     {
-        getSpace( o.output.space_name ).storeDirect( curr_bb, o.output.offset, o.output.size, e );
+        getSpace( o.output.space_name ).storeDirect( curr_bb, o.output.bigOffset(), o.output.size, e );
     }
 
     private void indirectJump(PCodeOp o, Expr e) {
@@ -442,8 +457,8 @@ public class PCodeTranslator {
 
         // Build a short block that prints a warning before jumping to the trampoline
         Block warn_blk = proc.newBlock();
-        warn_blk.block_description = "PCode symbolic indirect jump warning block 0x" + o.offset.toString( 16 );
-        warn_blk.print( "WARNING: indirect branch on symbolic value at 0x" + o.offset.toString( 16 ) + "\n" );
+        warn_blk.block_description = "PCode symbolic indirect jump warning block 0x" + Long.toHexString( o.offset );
+        warn_blk.print( "WARNING: indirect branch on symbolic value at 0x" + Long.toHexString( o.offset ) + "\n" );
         warn_blk.print( "    This is quite likely to result in nontermination of the symbolic simulator.\n" );
         warn_blk.jump( trampoline );
 
@@ -526,7 +541,7 @@ public class PCodeTranslator {
         Expr e, e1, e2;
 
         if( o.loc != null ) {
-            Position pos = new BinaryPosition( procName, path, o.offset.longValue() );
+            Position pos = new BinaryPosition( procName, path, o.offset );
 
             // Position pos = new SourcePosition( procName,
             //                                    o.loc.getSystemId(),
@@ -542,7 +557,7 @@ public class PCodeTranslator {
         // Check if we are at the first microinstruction at a given macroinstruction address
         // In this case, install any defined variable watches.
         if( o.uniq == 0 ) {
-            installVariableWatches( bb, o.offset );
+            installVariableWatches( bb, o.bigOffset() );
         }
 
         switch( o.opcode ) {
@@ -562,10 +577,10 @@ public class PCodeTranslator {
         case BRANCH:
         case CALL: {
             // Determine if an override exists for this call site
-            FunctionHandle fh = callSiteOverrides.get( o.offset );
+            FunctionHandle fh = callSiteOverrides.get( o.bigOffset() );
 
             if( fh == null ) {     // Jump normally
-                Block tgt = fetchBB( o.input0.offset );
+                Block tgt = fetchBB( o.input0.bigOffset() );
                 // Debugging information
                 // curr_bb.print("Unconditional branch to: " + o.input0.offset.toString(16) + "\n" );
                 curr_bb.jump( tgt );
@@ -575,11 +590,11 @@ public class PCodeTranslator {
                 Reg ram = abi.getRAM().getRAM();
 
                 // Bundle up the machine state (pc, regs, ram)
-                Expr pc = curr_bb.bvLiteral( abi.getAddrWidth(), o.offset );
+                Expr pc = curr_bb.bvLiteral( abi.getAddrWidth(), o.bigOffset() );
                 Expr reg_read = curr_bb.read( reg );
                 Expr ram_read = curr_bb.read( ram );
 
-                System.out.println( "Installing override function: " + o.offset.toString() );
+                System.out.println( "Installing override function: " + o.bigOffset().toString() );
 
                 // Pass machine state to the function override
                 // The result is tuple containing a new machine state
@@ -605,7 +620,7 @@ public class PCodeTranslator {
         case CBRANCH: {
             e = getInput( o.input1 );
             e = curr_bb.bvNonzero( e );
-            Block tgt = fetchBB( o.input0.offset );
+            Block tgt = fetchBB( o.input0.bigOffset() );
             PCodeOp nextop = prog.codeSegment.fetch(microPC + 1);
 
             // A CBRANCH may occur in the middle of a block of micro-instructions.
@@ -620,15 +635,15 @@ public class PCodeTranslator {
             // Debugging information
             // curr_bb.print("Conditional branch at: " + o.offset.toString(16) + "\n" );
 
-            if( nextop.offset.equals( o.offset ) ) {
+            if( nextop.offset == o.offset ) {
                 Block next = proc.newBlock();
-                next.block_description = "PCode internal block 0x" + nextop.offset.toString( 16 ) + " " + nextop.uniq;
+                next.block_description = "PCode internal block 0x" + Long.toHexString( nextop.offset ) + " " + nextop.uniq;
                 curr_bb.branch( e, tgt, next );
 
                 // Indicates we are continuing to translate microinstructions in this instruction
                 curr_bb = next;
             } else {
-                Block next = fetchBB( nextop.offset );
+                Block next = fetchBB( nextop.bigOffset() );
                 curr_bb.branch( e, tgt, next );
 
                 // Indicates we are done with all the microinstructions in this instruction
@@ -662,7 +677,7 @@ public class PCodeTranslator {
             }
             {
                 e = getInput( o.input0 );
-                long toTrunc = o.input1.offset.intValue();
+                long toTrunc = (int) o.input1.offset;
                 if( toTrunc > 0 ) {
                     e = bb.bvLshr( e, bb.bvLiteral( o.input0.size * cellWidth, toTrunc * cellWidth ) );
                 }
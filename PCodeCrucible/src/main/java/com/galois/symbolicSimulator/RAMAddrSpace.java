@@ -55,11 +55,9 @@ public final class RAMAddrSpace extends AddrSpaceManager {
         T setupDataSegment( ValueCreator<T> vc, T ram, PCodeSpace dataSegment )
         throws Exception {
 
-        SortedMap<BigInteger, Integer> ramMap = dataSegment.contents;
-
-        for( BigInteger offset : ramMap.keySet() ) {
-            int val = ramMap.get(offset).intValue();
-            ram = vc.insertWordMap( vc.bvLiteral( addrWidth, offset ),
+        for( PagedMemory.Cursor c = dataSegment.contents.cursor(); c.next(); ) {
+            int val = c.value();
+            ram = vc.insertWordMap( vc.bvLiteral( addrWidth, UnsignedLong.toBigInteger( c.address() ) ),
                                     vc.bvLiteral( cellSize, val ),
                                     ram );
         }
@@ -142,7 +140,7 @@ public final class RAMAddrSpace extends AddrSpaceManager {
             throw new UnsupportedOperationException( "Cannot truncate address length in loadIndirect: " + vn.size + " " + size );
         }
 
-        Expr baseAddr = addrSpaces.get( vn.space_name ).loadDirect( bb, vn.offset, vn.size );
+        Expr baseAddr = addrSpaces.get( vn.space_name ).loadDirect( bb, vn.bigOffset(), vn.size );
 
         // If necessary, zero extend the address
         if( cellSize * vn.size < addrWidth ) {